@@ -1,16 +1,19 @@
 package uk.ac.ed.inf.heatmap;
 
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import com.mapbox.geojson.Geometry;
-import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
-import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Feature;
 
+import uk.ac.ed.inf.aqmaps.GeoJsonWriter;
+import uk.ac.ed.inf.aqmaps.ReadingClass;
+
 /**
  * The following application will take a list of predictions and convert the data into
  * a format compatible with Geo-JSON.  This Geo-JSON document will then be used to produce
@@ -21,163 +24,182 @@ import com.mapbox.geojson.Feature;
 
 public class App 
 {
+	// Number of grid cells turned into GeoJSON by each parallel task
+	private static final int CHUNK_SIZE = 4096;
 	
     public static void main(String[] args) throws Exception
+    // Usage: App <predictions file> [rows cols] [--gzip] [--grid] [--tiles=minZoom-maxZoom]
+    // The grid is 10x10 unless the rows and columns are given.  With --grid the heatmap is written to
+    // 'heatmap.grid' (see GridFile) and with --tiles to vector tiles under 'heatmap-tiles', instead of GeoJSON
     {
-    	String[] pathname = args;
-    	String[] predictions = predictionReader(pathname);
-    	var polyCoords =  gridCoords();
-    	var polygons = createPolygons(polyCoords);
-    	var colourMap = hexCodeConversion(predictions);
-    	geojsonConvert(polygons, colourMap);
-    }
-    
-    public static String[] predictionReader(String[] args) throws Exception
-    //predictionReader takes an pathname and reads the associated file, printing
-    //the contents
-    {
-    	// The file-path is passed as a parameter
-        var fr = new FileReader(args[0]); 
-        int i;
-        String readings = "";
-        // Loop through the text in the file, adding each character to a string, stop when EOF is reached
-        while ((i=fr.read()) != -1)
-        {
-        	readings = readings + (char) i;
-        }
-        // Modify the string for ease of delimiting and separating into an array
-        readings = readings.replace("\n", ",").replace("\r", "");
-        readings = readings.replace(" ", "");
-        String[] predictions = readings.split(",");
-        
-        fr.close();
-        return predictions;
-    }
-    
-    public static List<List<Point>> gridCoords()
-    // This method will return the variable "polyCoords", containing 100 lists of 5 coordinates, with each
-    // list describing a single polygon in the 10x10 grid
-    {
-    	// These four coordinates describe the boundary of the drones flying zone
-    	double lon1 = -3.192473;
-    	double lon2 = -3.184319;
-    	double lat1 = 55.946233;
-    	double lat2 = 55.942617;
+    	int[] predictions = PredictionParser.parse(Path.of(args[0]));
     	
-    	// These values are used to separate the grid into a 10x10 area
-    	double lonGridLen = (lon2 - lon1)/10;
-    	double latGridLen = (lat2 - lat1)/10;
+    	int rows = 10;
+    	int cols = 10;
+    	if(args.length > 2 && !args[1].startsWith("--"))
+    	{
+    		rows = Integer.parseInt(args[1]);
+    		cols = Integer.parseInt(args[2]);
+    	}
+    	boolean gzip = Arrays.asList(args).contains("--gzip");
+    	boolean gridOutput = Arrays.asList(args).contains("--grid");
+    	String tileZooms = null;
+    	for(String arg : args)
+    	{
+    		if(arg.startsWith("--tiles=")) tileZooms = arg.substring("--tiles=".length());
+    	}
     	
-    	var coordinates = new ArrayList<Point>();
-    	var polyCoords = new ArrayList<List<Point>>();
+    	var grid = HeatmapGrid.droneZone(rows, cols);
+    	if(predictions.length != grid.size())
+    	{
+    		throw new IllegalArgumentException("Expected " + grid.size() + " predictions for a " + rows + "x" + cols
+    										   + " grid but " + args[0] + " has " + predictions.length);
+    	}
     	
-    	// Loop through all 121 points on the grid, matching each longitude and latitude and storing them
-    	// in a list of points "coordinates"
-    	for(int i = 0; i < 11; i++)
+    	if(gridOutput || tileZooms != null)
     	{
-    		for(int j = 0; j < 11; j++)
+    		byte[] classes = classify(predictions);
+    		if(gridOutput)
     		{
-    			coordinates.add(Point.fromLngLat(lon1 + lonGridLen*(double)j, lat1 + latGridLen*(double)i));
+    			GridFile.write(Path.of("heatmap.grid"), grid, classes);
     		}
+    		if(tileZooms != null)
+    		{
+    			String[] zooms = tileZooms.split("-");
+    			int minZoom = Integer.parseInt(zooms[0]);
+    			int maxZoom = Integer.parseInt(zooms[zooms.length - 1]);
+    			int tiles = VectorTileWriter.write(Path.of("heatmap-tiles"), grid, classes, minZoom, maxZoom);
+    			System.out.println(tiles + " tiles written to heatmap-tiles");
+    		}
+    		return;
     	}
-    	// Loop through each rectangle in the grid, adding the five corresponding coordinates for each polygon
-    	// into a list, then adding that list to a list of lists of points that describe each polygon, called
-    	// "polyCoords"
     	
-    	for(int i = 0; i < 10; i++)
+    	var colourMap = hexCodeConversion(predictions);
+    	geojsonConvert(grid, colourMap, gzip);
+    }
+    
+    public static byte[] classify(int[] predictions)
+    // This method returns the reading class of each prediction, using the same colour buckets as the
+    // drone's readings map, for the compact output formats
+    {
+    	var classes = new byte[predictions.length];
+    	
+    	for(int i = 0; i < predictions.length; i++)
     	{
-    		for(int j = 0; j < 10; j++)
-    		{
-    			// The 5 coordinates are added clockwise, starting and ending at the most north-westerly coordinate  
-    			polyCoords.add(List.of((coordinates.get(j+(i*11))),
-    								   (coordinates.get(j+1+(i*11))),
-    								   (coordinates.get(j+12+(i*11))),
-    								   (coordinates.get(j+11+(i*11))),
-    								   (coordinates.get(j+(i*11)))));
-    		}
-    		
+    		classes[i] = ReadingClass.ofReading(predictions[i]);
     	}
-    	return polyCoords;
+    	return classes;
     }
-
-    public static List<Polygon> createPolygons(List<List<Point>> polyCoords)
-    // This method will return a list of all polygons present in the 10x10 drone fly zone
+    
+    public static ArrayList<String> hexCodeConversion(int[] predictions)
+    // This function will convert predictions read by the PredictionParser into the appropriate hex-code colour,
+    // using the same colour buckets as the drone's readings map
     {
-    	var polygons = new ArrayList<Polygon>();
+    	var colourMap = new ArrayList<String>(predictions.length);
     	
-    	for(int i = 0; i < 100; i++)
+    	for(int i = 0; i < predictions.length; i++)
     	{
-    		polygons.add(Polygon.fromLngLats(List.of(polyCoords.get(i))));	
+    		colourMap.add(ReadingClass.colour(ReadingClass.ofReading(predictions[i])));
     	}
-
-    	return polygons;
+    	return colourMap;
+    }
+    
+    public static ArrayList<String> hexCodeConversion(double[] predictions)
+    // As above, for predictions that are not whole numbers, such as those interpolated from the drone's readings
+    {
+    	var colourMap = new ArrayList<String>(predictions.length);
+    	
+    	for(int i = 0; i < predictions.length; i++)
+    	{
+    		colourMap.add(ReadingClass.colour(ReadingClass.ofReading(predictions[i])));
+    	}
+    	return colourMap;
     }
     
     public static ArrayList<String> hexCodeConversion(String[] predictions)
     // This function will convert the predictions into the appropriate hex-code colour
     {
-    	var colourMap = new ArrayList<String>();
+    	var colourMap = new ArrayList<String>(predictions.length);
     	
-    	for(int i = 0; i < 100; i++)
+    	for(int i = 0; i < predictions.length; i++)
     	{
-    		if (Integer.parseInt(predictions[i]) >= 0 && Integer.parseInt(predictions[i]) < 32)
-    		{
-    			colourMap.add(i, "#00ff00");
-    		}
-    		else if (Integer.parseInt(predictions[i]) >= 32 && Integer.parseInt(predictions[i]) < 64)
-    		{
-    			colourMap.add(i, "#40ff00");
-    		}
-    		else if (Integer.parseInt(predictions[i]) >= 64 && Integer.parseInt(predictions[i]) < 96)
-    		{
-    			colourMap.add(i, "#80ff00");
-    		}
-    		else if (Integer.parseInt(predictions[i]) >= 96 && Integer.parseInt(predictions[i]) < 128)
-    		{
-    			colourMap.add(i, "#c0ff00");
-    		}
-    		else if (Integer.parseInt(predictions[i]) >= 128 && Integer.parseInt(predictions[i]) < 160)
-    		{
-    			colourMap.add(i, "#ffc000");
-    		}
-    		else if (Integer.parseInt(predictions[i]) >= 160 && Integer.parseInt(predictions[i]) < 192)
-    		{
-    			colourMap.add(i, "#ff8000");
-    		}
-    		else if (Integer.parseInt(predictions[i]) >= 192 && Integer.parseInt(predictions[i]) < 224)
+    		colourMap.add(ReadingClass.colour(ReadingClass.ofReading(Integer.parseInt(predictions[i]))));
+    	}
+    	return colourMap;
+    }
+    
+    public static void geojsonConvert(List<Polygon> polygons, ArrayList<String> colourMap) throws IOException
+    // This method will create a feature from each polygon and its associated colour value and write them
+    // one at a time to a GeoJSON feature collection in a file called 'heatmap.geojson'
+    {
+    	geojsonConvert(polygons, colourMap, false);
+    }
+    
+    public static void geojsonConvert(List<Polygon> polygons, ArrayList<String> colourMap, boolean gzip) throws IOException
+    // As above, but the output can be gzip compressed into 'heatmap.geojson.gz'
+    {
+    	try(var jsonFile = GeoJsonWriter.open(Path.of(gzip ? "heatmap.geojson.gz" : "heatmap.geojson"), gzip))
+    	{
+    		// Loop through the polygons, writing each one with its colour values
+    		for(int i = 0; i < polygons.size(); i++)
     		{
-    			colourMap.add(i, "#ff4000");
+    			Feature feature = Feature.fromGeometry((Geometry)polygons.get(i));
+    			feature.addStringProperty("rgb-string", colourMap.get(i));
+    			feature.addStringProperty("fill", colourMap.get(i));
+    			feature.addNumberProperty("fill-opacity", 0.75);
+    			jsonFile.writeFeature(feature);
     		}
-    		else if (Integer.parseInt(predictions[i]) >= 224 && Integer.parseInt(predictions[i]) < 256)
+    	}
+    }
+    
+    public static void geojsonConvert(HeatmapGrid grid, List<String> colourMap, boolean gzip) throws IOException
+    // This method writes a feature for every cell of the grid to 'heatmap.geojson' (or 'heatmap.geojson.gz')
+    {
+    	geojsonConvert(grid, colourMap, Path.of(gzip ? "heatmap.geojson.gz" : "heatmap.geojson"), gzip);
+    }
+    
+    public static void geojsonConvert(HeatmapGrid grid, List<String> colourMap, Path file, boolean gzip) throws IOException
+    // As above, but to the file given.  The cells are turned into GeoJSON in parallel, in chunks, and the
+    // chunks are written in order as they finish, with only a few chunks held in memory at once
+    {
+    	int chunks = (grid.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    	int window = 2 * Runtime.getRuntime().availableProcessors();
+    	var pending = new ArrayDeque<CompletableFuture<String[]>>();
+    	
+    	try(var jsonFile = GeoJsonWriter.open(file, gzip))
+    	{
+    		int next = 0;
+    		while(next < chunks || !pending.isEmpty())
     		{
-    			colourMap.add(i, "#ff0000");
+    			// Keep the window of chunks being built full
+    			while(next < chunks && pending.size() < window)
+    			{
+    				int first = next * CHUNK_SIZE;
+    				int last = Math.min(grid.size(), first + CHUNK_SIZE);
+    				pending.add(CompletableFuture.supplyAsync(() -> cellFeatures(grid, colourMap, first, last)));
+    				next++;
+    			}
+    			
+    			for(String feature : pending.poll().join())
+    			{
+    				jsonFile.writeFeatureJson(feature);
+    			}
     		}
     	}
-    	return colourMap;
     }
     
-    public static void geojsonConvert(List<Polygon> polygons, ArrayList<String> colourMap) throws IOException
-    // This method will create a list of features from the polygons and their associated colour values and add
-    // them to a feature collection.  This feature collection will then be converted to GeoJSON format and  
-    // written to a file called 'heatmap.geojson'
+    private static String[] cellFeatures(HeatmapGrid grid, List<String> colourMap, int first, int last)
+    // This method returns the GeoJSON of the cells from 'first' up to (but not including) 'last'
     {
-    	// Creating a list to store the features and a File Writer to write the geojson file
-    	var featureList = new ArrayList<Feature>();
-    	var jsonFile = new FileWriter("heatmap.geojson");
-    	
-    	// Loop through the feature list, adding the polygons and their colour values
-    	for(int i = 0; i < 100; i++)
+    	var features = new String[last - first];
+    	for(int i = first; i < last; i++)
     	{
-    		featureList.add(Feature.fromGeometry((Geometry)polygons.get(i)));
-    		featureList.get(i).addStringProperty("rgb-string", colourMap.get(i));
-    		featureList.get(i).addStringProperty("fill", colourMap.get(i));
-    		featureList.get(i).addNumberProperty("fill-opacity", 0.75);
+    		Feature feature = Feature.fromGeometry((Geometry)grid.cell(i));
+    		feature.addStringProperty("rgb-string", colourMap.get(i));
+    		feature.addStringProperty("fill", colourMap.get(i));
+    		feature.addNumberProperty("fill-opacity", 0.75);
+    		features[i - first] = feature.toJson();
     	}
-    	// Create a feature collection from the list of features described above
-    	var featureCol = FeatureCollection.fromFeatures(featureList);
-    	
-    	//Convert the feature collection to JSON format, write it to the file and then close the file 
-    	jsonFile.write(featureCol.toJson());
-    	jsonFile.close();
+    	return features;
     }
 }
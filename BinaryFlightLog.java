@@ -0,0 +1,69 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class BinaryFlightLog implements FlightLog
+/**
+ * This class writes the drone's moves as compact fixed-size binary records, which are much
+ * quicker to write and read back than the text format. The file starts with a header of
+ * the magic number 'FLOG' and a version, followed by one big-endian record per move:
+ * 
+ *     int moves, double oldLongitude, double oldLatitude, double newLongitude,
+ *     double newLatitude, int angle, int sensor
+ * 
+ * where sensor is the index of the sensor read on that move in visiting order, or -1.
+ */
+{
+	public static final int MAGIC = 0x464c4f47; // "FLOG"
+	public static final int VERSION = 1;
+	public static final int RECORD_SIZE = 4 + 4 * 8 + 4 + 4;
+	
+	private static final int BUFFER_SIZE = RECORD_SIZE * 1024;
+	
+	// Define attributes
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	
+	// Constructor
+	public BinaryFlightLog(WritableByteChannel channel)
+	{
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+	}
+	
+	@Override
+	public void logMove(int moves, double oldLng, double oldLat, int angle, double newLng, double newLat,
+						int sensor, String sensorW3W) throws IOException
+	{
+		if(buffer.remaining() < RECORD_SIZE) flush();
+		
+		buffer.putInt(moves);
+		buffer.putDouble(oldLng);
+		buffer.putDouble(oldLat);
+		buffer.putDouble(newLng);
+		buffer.putDouble(newLat);
+		buffer.putInt(angle);
+		buffer.putInt(sensor);
+	}
+	
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		flush();
+		channel.close();
+	}
+}
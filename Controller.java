@@ -1,12 +1,15 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.awt.geom.Line2D;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 import com.mapbox.geojson.Feature;
 import com.mapbox.geojson.FeatureCollection;
@@ -14,6 +17,10 @@ import com.mapbox.geojson.LineString;
 import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
 
+import uk.ac.ed.inf.heatmap.App;
+import uk.ac.ed.inf.heatmap.HeatmapGrid;
+import uk.ac.ed.inf.heatmap.IdwInterpolator;
+
 public class Controller 
 /**
  * This class is used to Control the direction of the program, it hosts multiple
@@ -25,13 +32,26 @@ public class Controller
 	private String[] date;
 	
 	private Server server;
+	private CoordinateCache coordinateCache;
 	private ArrayList<Sensor> sensors;
-	private ArrayList<List<String>> sensorData;
-	private FeatureCollection nfz;
+	private ReadingsStore sensorData;
+	
+	// State shared with other missions over the same map
+	private MapContext context;
+	
+	// Downloads started by serverDownload that have not yet been joined
+	private CompletableFuture<ArrayList<Sensor>> pendingSensors;
+	private CompletableFuture<MapContext> pendingContext;
 	
 	private Drone drone;
+	private long routeBudgetMillis;
+	private boolean obstacleAwareOrdering;
+	private FlightMode flightMode;
+	private long planningNanos;
 	
-	private String log;
+	private FlightLog flightLog;
+	private FlightLogFormat flightLogFormat;
+	private FlightSimulator.Flight flown;
 	private Random rand;
 	private Feature pointFeature;
 	private ArrayList<Point> movementHistory;
@@ -39,19 +59,44 @@ public class Controller
 	private ArrayList<String> colourMap;
 	private ArrayList<String> symbolMap;
 	
-	// Contructor
+	private Path outputDirectory;
+	private boolean gzipOutput;
+	private Path legalMoveFile;
+	
+	private Metrics metrics;
+	
+	// Contructors
 	public Controller(String[] date, Point startPosition, Long seed, String host, String port)
+	{
+		this(date, startPosition, seed, new Server(host, port));
+	}
+	
+	public Controller(String[] date, Point startPosition, Long seed, Server server)
 	{
 		this.date = date;
-		this.server = new Server(host, port);
+		this.server = server;
 		this.drone = new Drone(startPosition);
 		this.rand = new Random(seed);
-		this.log = "";
+		this.flightLogFormat = FlightLogFormat.CSV;
 		this.movementHistory = new ArrayList<Point>();
 		this.movementHistory.add(startPosition);
-		this.sensorData = new ArrayList<List<String>>();
+		this.sensorData = new ReadingsStore();
 		this.colourMap = new ArrayList<String>();
 		this.symbolMap = new ArrayList<String>();
+		this.outputDirectory = Path.of("");
+		this.flightMode = FlightMode.REACTIVE;
+		this.metrics = Metrics.DISABLED;
+	}
+	
+	public Controller(String[] date, Point startPosition, Long seed, MapContext context)
+	/**
+	 * This constructor is used when several missions share the same map, so the 'No Fly Zones'
+	 * and coordinate cache come from the context rather than being downloaded again.
+	 */
+	{
+		this(date, startPosition, seed, context.getServer());
+		this.context = context;
+		this.coordinateCache = context.getCoordinateCache();
 	}
 	
 	public String toString()
@@ -77,245 +122,483 @@ public class Controller
 	
 	public void serverDownload() throws IOException, InterruptedException
 	/**
-	 * This method will download all the required data from the webserver
-	 * and store the information in the appropriate attribute
+	 * This method will start downloading all the required data from the webserver. The sensor list,
+	 * the no fly zones and every sensor's What3Words address are requested concurrently, and the
+	 * results are only waited on once they are needed by orderSensors or droneFlight.
 	 */
 	{
-		sensors = server.dailySensors(date);
-		nfz = server.noFlyZones();
+		Metrics.Phase phase = metrics.startPhase("serverDownload");
 		
-		for(Sensor s : sensors)
+		try
+		{
+			if(context == null)
+			{
+				pendingContext = server.noFlyZonesAsync().thenApply(nfz -> new MapContext(server, nfz, coordinateCache));
+			}
+		
+			// Resolve every sensor's location as soon as the sensor list arrives, only asking
+			// the webserver for addresses that are not already in the coordinate cache
+			pendingSensors = server.dailySensorsAsync(date).thenCompose(downloaded -> {
+				var lookups = new ArrayList<CompletableFuture<Void>>();
+				for(Sensor s : downloaded)
+				{
+					Point cached = coordinateCache == null ? null : coordinateCache.get(s.getLocation());
+					if(cached != null)
+					{
+						s.setCoordinates(cached);
+						continue;
+					}
+					lookups.add(server.pointFromW3WAsync(s.getLocation()).thenAccept(point -> {
+						s.setCoordinates(point);
+						if(coordinateCache != null) cacheCoordinates(s.getLocation(), point);
+					}));
+				}
+				return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])).thenApply(v -> downloaded);
+			});
+		}
+		finally
+		{
+			phase.end();
+		}
+	}
+	
+	private void cacheCoordinates(String what3words, Point point)
+	/**
+	 * This method stores downloaded coordinates in the coordinate cache. The cache only saves
+	 * downloads on later runs, so a failure to write to it is reported and otherwise ignored
+	 * rather than failing the download.
+	 */
+	{
+		try
+		{
+			coordinateCache.put(what3words, point);
+		}
+		catch(IOException e)
+		{
+			metrics.count("w3w_cache_write_failures", 1);
+			System.err.println("Could not cache the coordinates of " + what3words + ": " + e);
+		}
+	}
+	
+	public void setSensors(List<Sensor> sensors)
+	/**
+	 * This method sets the sensors to visit directly, in place of downloading them in
+	 * serverDownload. Every sensor must already have its coordinates set.
+	 */
+	{
+		this.sensors = new ArrayList<Sensor>(sensors);
+		this.pendingSensors = null;
+	}
+	
+	public List<Sensor> getSensors()
+	{
+		return sensors;
+	}
+	
+	public void setOutputDirectory(Path outputDirectory)
+	/**
+	 * This method sets the directory the flightpath and readings files are written to.
+	 * By default they are written to the working directory.
+	 */
+	{
+		this.outputDirectory = outputDirectory;
+	}
+	
+	public int getMoves()
+	{
+		return drone.getMoves();
+	}
+	
+	public MapContext getContext()
+	{
+		return context;
+	}
+	
+	public void setCoordinateCache(CoordinateCache coordinateCache)
+	/**
+	 * This method sets the cache that What3Words addresses are looked up in before
+	 * they are requested from the webserver. Passing null disables the cache.
+	 */
+	{
+		this.coordinateCache = coordinateCache;
+	}
+	
+	public void awaitDownload() throws IOException, InterruptedException
+	/**
+	 * This method waits for the downloads started by serverDownload to finish and stores
+	 * the results in the appropriate attributes. Failures are rethrown as they would have
+	 * been by the blocking Server methods. It is called by orderSensors and droneFlight, so
+	 * only needs calling directly to use the sensors or map without flying.
+	 */
+	{
+		if(pendingSensors == null && pendingContext == null) return;
+		Metrics.Phase phase = metrics.startPhase("awaitDownload");
+		
+		try
 		{
-			s.setCoordinates(server.pointFromW3W(s.getLocation()));
+			if(pendingSensors != null)
+			{
+				sensors = pendingSensors.get();
+				pendingSensors = null;
+			}
+			if(pendingContext != null)
+			{
+				context = pendingContext.get();
+				pendingContext = null;
+			}
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			while(cause instanceof CompletionException && cause.getCause() != null)
+			{
+				cause = cause.getCause();
+			}
+			if(cause instanceof IOException) throw (IOException) cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException("Failed to download data from the webserver", cause);
+		}
+		finally
+		{
+			phase.end();
 		}
 	}
 	
-	public void orderSensors()
+	public void orderSensors() throws IOException, InterruptedException
 	/**
 	 * This method will set up a 'Greedy' pathfinding algorithm that will, given the coordinates of each
 	 * sensor and the starting position of the drone, return a list of integers describing the 
 	 * permutation in which the drone will visit the sensors (including returning to the start point).
+	 * If a route budget has been set, the greedy tour is then improved by the RouteOptimiser.
+	 * 
+	 * The distance matrix is only built when the RouteOptimiser or obstacle-aware ordering needs it;
+	 * otherwise the straight-line distances are worked out as they are needed, so ordering many
+	 * sensors takes memory in proportion to the number of sensors rather than its square.
 	 */
 	{		
-		// Create a variable to store the permutation
-		var orderedPath = new ArrayList<Sensor>();
-		
-		// Find closest sensor to the drone's starting position and add to orderedPath
-		int closestSensorIndex = 0;
-		double closestDist = euclidDist(sensors.get(0).getCoordinates(), drone.getPosition());
+		awaitDownload();
+		Metrics.Phase phase = metrics.startPhase("orderSensors");
 		
-		for(int i = 1; i < sensors.size(); i++) 
+		try
 		{
-			double dist = euclidDist(drone.getPosition(), sensors.get(i).getCoordinates());
-			if(dist < closestDist)
+			double[][] dist = routeBudgetMillis > 0 || obstacleAwareOrdering ? distanceMatrix() : null;
+			var points = tourPoints();
+			int n = sensors.size();
+		
+			// Create a variable to store the permutation, as indices into the distance matrix
+			int[] tour = new int[n];
+			boolean[] visited = new boolean[n + 1];
+		
+			// Starting from the drone's position, repeatedly fly to the closest sensor not yet visited.
+			// Ties go to the sensor that came first in the downloaded list
+			int current = 0;
+			for(int step = 0; step < n; step++)
 			{
-				closestSensorIndex = i;
-				closestDist = dist; 
+				int closest = -1;
+				double closestDist = 0;
+				for(int i = 1; i <= n; i++)
+				{
+					if(visited[i]) continue;
+				
+					double d = dist != null ? dist[current][i] : euclidDist(points.get(current), points.get(i));
+					if(closest == -1 || d < closestDist)
+					{
+						closest = i;
+						closestDist = d;
+					}
+				}
+				visited[closest] = true;
+				tour[step] = closest;
+				current = closest;
+			}
+		
+			if(routeBudgetMillis > 0)
+			{
+				tour = new RouteOptimiser(dist).optimise(tour, routeBudgetMillis);
+			}
+		
+			var orderedPath = new ArrayList<Sensor>();
+			for(int i : tour)
+			{
+				orderedPath.add(sensors.get(i - 1));
 			}
+		
+			sensors = orderedPath;
 		}
-		orderedPath.add(sensors.get(closestSensorIndex));
-		sensors.remove(closestSensorIndex);
+		finally
+		{
+			phase.end();
+		}
+	}
+	
+	private double[][] distanceMatrix()
+	/**
+	 * This method returns the distances between every pair of sensors, with the drone's start
+	 * position as index 0 and the sensors from index 1. The distances are either straight-line
+	 * or, if obstacle-aware ordering is on, the shortest paths around the 'No Fly Zones'.
+	 */
+	{
+		var points = tourPoints();
 		
-		// Find shortest path from starting sensor through remaining sensors
-		while(sensors.size() > 0)
+		if(obstacleAwareOrdering)
 		{
-			closestSensorIndex = 0;
-			closestDist = euclidDist(orderedPath.get(orderedPath.size()-1).getCoordinates(), sensors.get(closestSensorIndex).getCoordinates());
-			for(int i = 0; i < sensors.size(); i++)
+			return context.getVisibilityGraph().distanceMatrix(points);
+		}
+		
+		double[][] dist = new double[points.size()][points.size()];
+		for(int i = 0; i < points.size(); i++)
+		{
+			for(int j = i + 1; j < points.size(); j++)
 			{
-				double dist = euclidDist(orderedPath.get(orderedPath.size()-1).getCoordinates(), sensors.get(i).getCoordinates());
-				if(dist < closestDist)
-				{
-					closestSensorIndex = i;
-					closestDist = dist;
-				}
+				dist[i][j] = dist[j][i] = euclidDist(points.get(i), points.get(j));
 			}
-			orderedPath.add(sensors.get(closestSensorIndex));
-			sensors.remove(closestSensorIndex);
 		}
-		
-		sensors = orderedPath;
-
+		return dist;
+	}
+	
+	private ArrayList<Point> tourPoints()
+	/**
+	 * This method returns the drone's start position followed by the position of every sensor,
+	 * numbered as in the distance matrix.
+	 */
+	{
+		var points = new ArrayList<Point>(sensors.size() + 1);
+		points.add(drone.getPosition());
+		for(Sensor s : sensors)
+		{
+			points.add(s.getCoordinates());
+		}
+		return points;
+	}
+	
+	public void setObstacleAwareOrdering(boolean obstacleAwareOrdering)
+	/**
+	 * This method sets whether orderSensors measures the distance between sensors around the
+	 * 'No Fly Zones' rather than in a straight line.
+	 */
+	{
+		this.obstacleAwareOrdering = obstacleAwareOrdering;
 	}
 	
-	public void droneFlight() throws IOException
+	public void setRouteBudget(long routeBudgetMillis)
+	/**
+	 * This method sets how long, in milliseconds, orderSensors may spend improving the greedy
+	 * tour. A budget of zero (the default) keeps the greedy tour as it is.
+	 */
+	{
+		this.routeBudgetMillis = routeBudgetMillis;
+	}
+	
+	public void droneFlight() throws IOException, InterruptedException
 	/**
 	 * This method calculates the path the drone will take during its air quality data collection.
 	 * The drone will visit the sensors in the order given by the pathfinding algorithm and will determine the shortest route to get to that sensor
 	 * using the Euclidean distance formula. The drone can only fly in angles that are in multiples of 10, with 0 degrees implying East,
 	 * 90 degrees implying North, 180 degrees implying West and 270 degrees implying South.
 	 * 
-	 * The method will add the readings and battery level of each individual sensor and return it.	
+	 * In LATTICE mode each leg is instead planned in advance by the LatticePlanner, falling back to the
+	 * reactive search if no plan can be found within the remaining moves.
+	 * 
+	 * The moves are worked out by a FlightSimulator and then made, which adds the readings and battery
+	 * level of each individual sensor and logs every move.
 	 */
 	{
-		var projDistList = new ArrayList<Double>();
-		var angleHistory = new ArrayList<Integer>();
-
-		double deltaLng = 0;
-		double deltaLat = 0;
-		double newDist;
-
-		boolean sensProx = false;
-
-		Point newPosition;
-		Point oldPosition;
-		Point projPos;
-		Point targetPoint;
-
-		String sensorW3W;
-
-		int index;
-		int newAngle;
-
-		// Initialising the angleHistory Array List with 360 as the first element
-		// to avoid an index out of bounds exception
-		angleHistory.add(drone.getAngle());
+		awaitDownload();
+		Metrics.Phase phase = metrics.startPhase("droneFlight");
 		
-
-		// Loop until all of the individual sensors have been visited
-		for(int i = 0; i <= sensors.size(); i++)
+		try
+		{
+			fly(flightSimulator().simulate(rand));
+		}
+		finally
+		{
+			phase.end();
+		}
+	}
+	
+	public void droneFlight(FlightSimulator.Flight flight) throws IOException
+	/**
+	 * This method makes the moves of a flight that has already been simulated for this controller's
+	 * ordered sensors, such as the best flight of a seed sweep, in place of simulating one.
+	 */
+	{
+		Metrics.Phase phase = metrics.startPhase("droneFlight");
+		
+		try
+		{
+			fly(flight);
+		}
+		finally
+		{
+			phase.end();
+		}
+	}
+	
+	public FlightSimulator flightSimulator() throws IOException, InterruptedException
+	/**
+	 * This method returns a simulator for the drone's flight through the sensors in their
+	 * current order. It should be called after orderSensors.
+	 */
+	{
+		awaitDownload();
+		
+		var targets = new ArrayList<Point>();
+		for(Sensor s : sensors)
+		{
+			targets.add(s.getCoordinates());
+		}
+		// Building the lattice takes longer than one flight saves, so it is only used once it can be kept
+		LegalMoveLattice legalMoves = legalMoveFile == null ? LegalMoveLattice.exact(context.getNoFlyZoneIndex())
+															: context.getLegalMoveLattice(legalMoveFile);
+		return new FlightSimulator(legalMoves, drone.getPosition(), drone.getAngle(), targets, flightMode);
+	}
+	
+	public void setLegalMoveFile(Path legalMoveFile)
+	/**
+	 * This method sets the file the legal move lattice is loaded from, or saved to if it has not
+	 * been built for these 'No Fly Zones' before. Without one every move is tested exactly.
+	 */
+	{
+		this.legalMoveFile = legalMoveFile;
+	}
+	
+	public SeedSweep.Result sweepSeeds(long[] seeds, int threads) throws IOException, InterruptedException
+	/**
+	 * This method simulates the flight through the ordered sensors with every one of the given
+	 * seeds in parallel, then makes the moves of the best flight found.
+	 */
+	{
+		awaitDownload();
+		Metrics.Phase phase = metrics.startPhase("seedSweep");
+		
+		SeedSweep.Result result;
+		try
+		{
+			result = SeedSweep.run(flightSimulator(), seeds, threads);
+		}
+		finally
 		{
-			sensProx = false;
+			phase.end();
+		}
+		droneFlight(result.getBest());
+		return result;
+	}
+	
+	private void fly(FlightSimulator.Flight flight) throws IOException
+	/**
+	 * This method moves the drone through a simulated flight, taking a reading wherever the flight
+	 * reached a sensor. The flight is kept so that logToFile can write out its moves.
+	 */
+	{
+		for(int move = 1; move <= flight.getMoves(); move++)
+		{
+			// Get old position for movement history
+			Point oldPosition = drone.getPosition();
+			movementHistory.add(oldPosition);
 			
-			// If the drone has visited all sensors, go back to the start point. Else continue visiting sensors
-			targetPoint = i == sensors.size() ? drone.getStartPosition() : sensors.get(i).getCoordinates();
+			// Update the drone
+			Point newPosition = flight.getPosition(move);
+			drone.setAngle(flight.getAngle(move));
+			drone.setPosition(newPosition);
+			drone.setMoves(drone.getMoves() + 1);
 			
-			// Loop until the drone is close enough to a sensor to take a reading (<= 0.0002 degrees)
-			// or the maximum move limit is reached
-			while (!sensProx & drone.getMoves() < 150)
+			// Take a reading if the move reached a sensor
+			int sensor = flight.getTargetRead(move);
+			if(sensor >= 0)
 			{
-
-				// Initialise the what3words address as null, so it can be better used
-				// in the flightpath text file
-				sensorW3W = "null";
-				
-				// Get old position for movement log
-				oldPosition = drone.getPosition();
-				movementHistory.add(drone.getPosition());
-
-				// Determine angle of travel
-				deltaLat = targetPoint.latitude()  - drone.getPosition().latitude();
-				deltaLng = targetPoint.longitude() - drone.getPosition().longitude();
-				drone.setAngle((int) Math.round((Math.toDegrees(Math.atan2(deltaLat, deltaLng)))/10)*10);
-
-				// Convert negative angles into their positive counterparts
-				drone.setAngle((drone.getAngle() + 360) % 360);	    
-
-				// Update the drone's position
-				newPosition = Point.fromLngLat(drone.getPosition().longitude() + (Math.cos(Math.toRadians(drone.getAngle())) * 0.0003), 
-											   drone.getPosition().latitude()  + (Math.sin(Math.toRadians(drone.getAngle())) * 0.0003));
-
-				// Check to see whether the new position is within a no fly zone, and if so, update the angle of trajectory
-				// If the drone has doubled back on itself, instead send the drone in a random direction to remove the chance
-				// of the drone being stuck in a permanent loop
-				while(lineIntersectPolygon(drone.getPosition(), newPosition, nfz) 
-						|| !insideBoundary(newPosition) 
-						|| (angleHistory.get(drone.getMoves())+180)%360 == drone.getAngle())
-				{		
-					// If the drone flies back to the same point, send it in a random direction instead
-					if((angleHistory.get(drone.getMoves())+180)%360 == drone.getAngle())
-					{
-						drone.setAngle((drone.getAngle() + 10 * (rand.nextInt(35))) % 360);
-					}
-					// Else, find the best new angle to send it to
-					else
-					{
-						for(int j = 1; j < 36; j++)
-						{
-							newAngle = (drone.getAngle() + 10 * j) % 360;
-							projPos = Point.fromLngLat(drone.getPosition().longitude() + (Math.cos(Math.toRadians(newAngle)) * 0.0003), 
-													   drone.getPosition().latitude()  + (Math.sin(Math.toRadians(newAngle)) * 0.0003));
-							if(!lineIntersectPolygon(drone.getPosition(), projPos, nfz) 
-									& insideBoundary(projPos) 
-									& !((newAngle + 180) % 360 == drone.getAngle()))
-							{
-								projDistList.add(1/(euclidDist(projPos, targetPoint)));
-							}
-							else
-							{
-								projDistList.add(-1.0);
-							}
-
-						}
-						index = projDistList.indexOf(Collections.max(projDistList)) + 1;
-						drone.setAngle((drone.getAngle() + 10 * index) % 360);
-					}
-
-					newPosition = Point.fromLngLat(drone.getPosition().longitude() + (Math.cos(Math.toRadians(drone.getAngle())) * 0.0003), 
-												   drone.getPosition().latitude()  + (Math.sin(Math.toRadians(drone.getAngle())) * 0.0003));
-				}
-				
-				angleHistory.add(drone.getAngle());
-
-				// Update the drone
-				drone.setPosition(newPosition);
-				drone.setMoves(drone.getMoves() + 1);
-
-				// Get new distance from drone to sensor
-				newDist = euclidDist(drone.getPosition(), targetPoint);
-
-				// Check whether the drone is close enough to a sensor to read it, and if so, take a reading
-				if(newDist <= 0.0002)
-				{
-					
-					if(i < sensors.size())
-					{
-						var sensorDatum = new ArrayList<String>();
-						sensorDatum.add(sensors.get(i).getReading());
-						sensorDatum.add(String.valueOf(sensors.get(i).getBattery()));
-						
-						sensorData.add(sensorDatum);
-
-						sensorW3W = sensors.get(i).getLocation();
-					}
-					
-					sensProx = true;
-				}	
-				
-				// Log all the moves
-				logMove(drone.getMoves(), oldPosition, drone.getAngle(), newPosition, sensorW3W);
+				sensorData.add(sensors.get(sensor));
 			}
 		}
-
+		flown = flight;
+		
 		// Add the drone positions as a line string
 		pointFeature = (Feature.fromGeometry(LineString.fromLngLats(movementHistory)));
-
+		
 		// Give the lines a dark grey colour
 		pointFeature.addStringProperty("rgb-string", "#404040");
-
+		
+		planningNanos += flight.getPlanningNanos();
+		metrics.count("flight_collision_checks", flight.getCollisionChecks());
+		metrics.count("flight_avoidance_iterations", flight.getAvoidanceIterations());
+		metrics.count("flight_random_escapes", flight.getRandomEscapes());
+		metrics.count("flight_moves", flight.getMoves());
 	}
-
-	public void logMove(int moves, Point oldPosition, int angle, Point newPosition, String sensorW3W)
+	
+	public void setFlightMode(FlightMode flightMode)
 	/**
-	 * This method will create a string describing the drone's moves.
+	 * This method sets how droneFlight chooses the drone's moves. The default is REACTIVE.
 	 */
 	{
-		log = log + String.valueOf(moves) 					+ ","
-				  + String.valueOf(oldPosition.longitude()) + ","
-				  + String.valueOf(oldPosition.latitude())  + ","
-				  + String.valueOf(angle)					+ ","
-				  + String.valueOf(newPosition.longitude()) + ","
-				  + String.valueOf(newPosition.latitude())  + ","
-				  + sensorW3W
-				  + "\n";
+		this.flightMode = flightMode;
 	}
 	
+	public long getPlanningNanos()
+	/**
+	 * This method returns the time spent choosing moves during droneFlight, in nanoseconds.
+	 */
+	{
+		return planningNanos;
+	}
+
 	public void logToFile() throws IOException
 	/**
-	 * This method will write the drone's flightpath information (given by log) to a text file
+	 * This method will write the drone's flightpath information to its file, or to the flight log
+	 * set with setFlightLog, one move at a time through a buffered channel. The log is opened and
+	 * closed here, so a flight that fails never leaves a file open.
 	 */
 	{
-		if(log.length() == 0) return;
+		FlightLog supplied = flightLog;
+		flightLog = null;
+		if(flown == null || flown.getMoves() == 0)
+		{
+			if(supplied != null) supplied.close();
+			return;
+		}
 		
-		// Remove whitespace
-		log.trim();
+		Metrics.Phase phase = metrics.startPhase("logToFile");
+		String fileName = "flightpath-" + date[0] + "-" + date[1] + "-" + date[2] + flightLogFormat.getExtension();
 		
-		String fileName = "flightpath-" + date[0] + "-" + date[1] + "-" + date[2] + ".txt";
-    	FileWriter fw = new FileWriter(fileName);
-    	
-    	fw.write(log);
-    	 
-    	fw.close();
+		try(FlightLog log = supplied != null ? supplied : FlightLog.open(outputDirectory.resolve(fileName), flightLogFormat))
+		{
+			for(int move = 1; move <= flown.getMoves(); move++)
+			{
+				// The what3words address is null unless the move took a reading
+				int sensor = flown.getTargetRead(move);
+				String sensorW3W = sensor >= 0 ? sensors.get(sensor).getLocation() : "null";
+				
+				logMove(log, move, flown.getPosition(move - 1), flown.getAngle(move), flown.getPosition(move), sensor, sensorW3W);
+			}
+		}
+		finally
+		{
+			phase.end();
+		}
+	}
+	
+	private void logMove(FlightLog log, int moves, Point oldPosition, int angle, Point newPosition, int sensor, String sensorW3W) throws IOException
+	/**
+	 * This method will pass a description of one of the drone's moves on to the flight log.
+	 */
+	{
+		log.logMove(moves, oldPosition.longitude(), oldPosition.latitude(), angle,
+					newPosition.longitude(), newPosition.latitude(), sensor, sensorW3W);
+	}
+	
+	public void setFlightLog(FlightLog flightLog)
+	/**
+	 * This method sets where the drone's moves are written, in place of the flightpath file. The
+	 * log is closed by logToFile.
+	 */
+	{
+		this.flightLog = flightLog;
+	}
+	
+	public void setFlightLogFormat(FlightLogFormat flightLogFormat)
+	/**
+	 * This method sets the format of the flightpath file. The default is the CSV text format.
+	 */
+	{
+		this.flightLogFormat = flightLogFormat;
 	}
 	
 	public static boolean lineIntersectPolygon(Point startPos, Point endPos, FeatureCollection nfz)
@@ -345,143 +628,170 @@ public class Controller
     	return false;
     }
     
+    public static boolean lineIntersectPolygon(Point startPos, Point endPos, NoFlyZoneIndex nfz)
+    /**
+     * This method gives the same answer as the method above, but uses the compiled 'No Fly Zones'
+     * so only the edges near the drone's trajectory are checked.
+     */
+    {
+    	return nfz.intersects(startPos, endPos);
+    }
+    
     public static boolean insideBoundary(Point pos)
     /**
      * The following method determines whether the drone is keeping within the 
      * boundaries given in the specification.
      */
     {
-    	double maxLatBoundary = 55.946233;
-    	double minLatBoundary = 55.942617;
-    	double maxLngBoundary = -3.184319;
-    	double minLngBoundary = -3.192473;
-    	
-    	return pos.latitude() < maxLatBoundary 
-    		 & pos.latitude() > minLatBoundary 
-    		 & pos.longitude() < maxLngBoundary 
-    		 & pos.longitude() > minLngBoundary;
+    	return MapContext.insideBoundary(pos);
     }
 
     public void hexCodeConversion()
     /**
      * This method takes the reading and battery data from the sensors and uses them to determine
-     * the colour and symbol the corresponding points will have on the GeoJSON map. 
+     * the colour and symbol the corresponding points will have on the GeoJSON map. The class of
+     * each reading was worked out when it was taken, so this is only a table lookup.
      */
     {
-    	for(int i = 0; i < sensorData.size(); i++)
+    	Metrics.Phase phase = metrics.startPhase("hexCodeConversion");
+    	
+    	try
     	{
-    		// Black, cross
-    		if (Double.parseDouble(sensorData.get(i).get(1)) < 10)
-    		{
-    			colourMap.add(i, "#000000");
-    			symbolMap.add(i, "cross");
-    		}
-    		// Green, lighthouse
-    		else if (Double.parseDouble(sensorData.get(i).get(0)) >= 0 && Double.parseDouble(sensorData.get(i).get(0)) < 32)
-    		{
-    			colourMap.add(i, "#00ff00");
-    			symbolMap.add(i, "lighthouse");
-    		}
-    		// Medium green, lighthouse
-    		else if (Double.parseDouble(sensorData.get(i).get(0)) >= 32 && Double.parseDouble(sensorData.get(i).get(0)) < 64)
-    		{
-    			colourMap.add(i, "#40ff00");
-    			symbolMap.add(i, "lighthouse");
-    		}
-    		// Light green, lighthouse
-    		else if (Double.parseDouble(sensorData.get(i).get(0)) >= 64 && Double.parseDouble(sensorData.get(i).get(0)) < 96)
-    		{
-    			colourMap.add(i, "#80ff00");
-    			symbolMap.add(i, "lighthouse");
-    		}
-    		// Lime green, lighthouse
-    		else if (Double.parseDouble(sensorData.get(i).get(0)) >= 96 && Double.parseDouble(sensorData.get(i).get(0)) < 128)
-    		{
-    			colourMap.add(i, "#c0ff00");
-    			symbolMap.add(i, "lighthouse");
-    		}
-    		// Gold, danger
-    		else if (Double.parseDouble(sensorData.get(i).get(0)) >= 128 && Double.parseDouble(sensorData.get(i).get(0)) < 160)
-    		{
-    			colourMap.add(i, "#ffc000");
-    			symbolMap.add(i, "danger");
-    		}
-    		// Orange, danger
-    		else if (Double.parseDouble(sensorData.get(i).get(0)) >= 160 && Double.parseDouble(sensorData.get(i).get(0)) < 192)
-    		{
-    			colourMap.add(i, "#ff8000");
-    			symbolMap.add(i, "danger");
-    		}
-    		// Red/Orange, danger
-    		else if (Double.parseDouble(sensorData.get(i).get(0)) >= 192 && Double.parseDouble(sensorData.get(i).get(0)) < 224)
+    		for(int i = 0; i < sensorData.size(); i++)
     		{
-    			colourMap.add(i, "#ff4000");
-    			symbolMap.add(i, "danger");
+    			byte readingClass = sensorData.getClassCode(i);
+    			colourMap.add(i, ReadingClass.colour(readingClass));
+    			symbolMap.add(i, ReadingClass.symbol(readingClass));
     		}
-    		// Red, danger
-    		else if (Double.parseDouble(sensorData.get(i).get(0)) >= 224 && Double.parseDouble(sensorData.get(i).get(0)) < 256)
-    		{
-    			colourMap.add(i, "#ff0000");
-    			symbolMap.add(i, "danger");
-    		}
-    		// Gray, no symbol
-    		else 
-         	{
-        		colourMap.add(i, "#aaaaaa");
-        		symbolMap.add(i, "");
-        	}
     	}
+    	finally
+    	{
+    		phase.end();
+    	}
+    }
+    
+    public ReadingsStore getSensorData()
+    {
+    	return sensorData;
     }
+    
     public void geojsonConvert() throws IOException
     /**
-     * This method will create a list of features from the sensors and their associated values and add them to a GeoJSON Feature Collection, along with the drone's flightpath.
-     * This feature collection will be converted to GeoJSON format and written to a file called 'readings-DD-MM-YYY-.geojson', where DD, MM and YYYY represent the date
-     * of the drone's flight.
+     * This method will create features from the sensors and their associated values and write them to a GeoJSON Feature Collection, along with the drone's flightpath.
+     * The feature collection is written to a file called 'readings-DD-MM-YYY-.geojson' (with '.gz' added if gzip output is on), where DD, MM and YYYY represent
+     * the date of the drone's flight. Each feature is written as soon as it is created.
+     */
+    {
+    	String fileName = "readings-" + date[0] + "-" + date[1] + "-" + date[2] + ".geojson" + (gzipOutput ? ".gz" : "");
+    	
+    	Metrics.Phase phase = metrics.startPhase("geojsonConvert");
+    	
+    	try(var jsonFile = GeoJsonWriter.open(outputDirectory.resolve(fileName), gzipOutput))
+    	{
+    		writeFeatures(jsonFile);
+    	}
+    	finally
+    	{
+    		phase.end();
+    	}
+    }
+    
+    public void heatmapConvert(int rows, int cols, int neighbours) throws IOException
+    /**
+     * This method estimates the air quality over the whole flying zone from the readings taken on this
+     * flight, on a grid of the given size, and writes it to 'heatmap-DD-MM-YYYY.geojson' in the same
+     * colours as the readings. Each estimate is weighted by inverse distance over the given number of
+     * nearest readings, or over every reading when neighbours is 0.
      */
     {
-    	// Creating a list to store the features and a File Writer to write the geojson file
-    	var featureList = new ArrayList<Feature>();
-    	String fileName = "readings-" + date[0] + "-" + date[1] + "-" + date[2] + ".geojson";
-    	var jsonFile = new FileWriter(fileName);
+    	String fileName = "heatmap-" + date[0] + "-" + date[1] + "-" + date[2] + ".geojson" + (gzipOutput ? ".gz" : "");
     	
-    	// Loop through the feature list, adding the points and their associated attributes
+    	Metrics.Phase phase = metrics.startPhase("heatmapConvert");
+    	
+    	try
+    	{
+    		var grid = HeatmapGrid.droneZone(rows, cols);
+    		var interpolator = IdwInterpolator.fromReadings(sensorData, IdwInterpolator.DEFAULT_POWER, neighbours);
+    		App.geojsonConvert(grid, App.hexCodeConversion(interpolator.interpolate(grid)), outputDirectory.resolve(fileName), gzipOutput);
+    	}
+    	finally
+    	{
+    		phase.end();
+    	}
+    }
+    
+    public void recordHistory(HistoryStore history) throws IOException
+    /**
+     * This method appends the readings taken on this flight to the history store, under the
+     * flight's date.
+     */
+    {
+    	Metrics.Phase phase = metrics.startPhase("recordHistory");
+    	
+    	try
+    	{
+    		history.append(LocalDate.of(Integer.parseInt(date[2]), Integer.parseInt(date[1]), Integer.parseInt(date[0])), sensorData);
+    	}
+    	finally
+    	{
+    		phase.end();
+    	}
+    }
+    
+    public void writeFeatures(GeoJsonWriter jsonFile) throws IOException
+    /**
+     * This method writes the sensor and flightpath features to an open GeoJSON writer.
+     */
+    {
+    	// Loop through the sensors, writing the points and their associated attributes
     	for(int i = 0; i < sensors.size(); i++)
     	{
-    		featureList.add(Feature.fromGeometry(sensors.get(i).getCoordinates()));
-    		featureList.get(i).addStringProperty("marker-size", "medium");
-    		featureList.get(i).addStringProperty("location", sensors.get(i).getLocation());
-    		featureList.get(i).addStringProperty("rgb-string", colourMap.get(i));
-    		featureList.get(i).addStringProperty("marker-color", colourMap.get(i));
-    		featureList.get(i).addStringProperty("marker-symbol", symbolMap.get(i));
+    		Feature feature = Feature.fromGeometry(sensors.get(i).getCoordinates());
+    		feature.addStringProperty("marker-size", "medium");
+    		feature.addStringProperty("location", sensors.get(i).getLocation());
+    		feature.addStringProperty("rgb-string", colourMap.get(i));
+    		feature.addStringProperty("marker-color", colourMap.get(i));
+    		feature.addStringProperty("marker-symbol", symbolMap.get(i));
+    		jsonFile.writeFeature(feature);
     	}
     	
     	/** The following code can be used to visualise the no fly zones on the GeoJSON map
     	 * 
-    	var buildingsList = new ArrayList<Feature>();
-    	 	for(int i = 0; i < nfz.features().size(); i++)
+    	 	for(Feature building : context.getNoFlyZones().features())
     	   	{
-    	    	buildingsList.add(nfz.features().get(i));
-    			buildingsList.get(i).addStringProperty("rgb-string", "#ff0000");
-    			buildingsList.get(i).addStringProperty("fill", "#ff0000");
-    			buildingsList.get(i).addNumberProperty("fill-opacity", 0.75);
-    		}
-    	
-    	
-    		for(int i = 0; i < buildingsList.size(); i++)
-    		{
-    			featureList.add(buildingsList.get(i));
+    	   		Feature feature = Feature.fromGeometry(building.geometry());
+    			feature.addStringProperty("rgb-string", "#ff0000");
+    			feature.addStringProperty("fill", "#ff0000");
+    			feature.addNumberProperty("fill-opacity", 0.75);
+    			jsonFile.writeFeature(feature);
     		}
     	*/ 	
     	
-    	// Create a feature collection from the list of features described above
-    	// Add the drone's movements to the feature list
-    	featureList.add(pointFeature);
-    	
-    	// Add all of the features from the feature list into a feature collection
-    	var featureCol = FeatureCollection.fromFeatures(featureList);
-    	
-    	//Convert the feature collection to JSON format, write it to the file and then close the file 
-    	jsonFile.write(featureCol.toJson());
-    	jsonFile.close();
+    	// Add the drone's movements to the feature collection
+    	jsonFile.writeFeature(pointFeature);
+    }
+    
+    public void setMetrics(Metrics metrics)
+    /**
+     * This method sets where the time and memory used by each phase, and the counts of what
+     * happened during the flight, are recorded. The server's requests are recorded wherever
+     * the server's own metrics were set when it was created, as it may be shared by many
+     * controllers.
+     */
+    {
+    	this.metrics = metrics;
+    }
+    
+    public Metrics getMetrics()
+    {
+    	return metrics;
+    }
+    
+    public void setGzipOutput(boolean gzipOutput)
+    /**
+     * This method sets whether the readings GeoJSON file is gzip compressed.
+     */
+    {
+    	this.gzipOutput = gzipOutput;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,209 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mapbox.geojson.Point;
+
+public class CoordinateCache
+/**
+ * This class stores the coordinates of What3Words addresses on disk so that they do not
+ * have to be downloaded from the webserver on every run. The file is memory-mapped and
+ * made up of a small header followed by fixed-size records, each holding the address and
+ * its longitude and latitude. A small in-process LRU of Points sits in front of the file.
+ *
+ * All methods are synchronised so that the cache can be filled from the HTTP client's
+ * threads while the Controller reads from it.
+ */
+{
+	// File layout
+	private static final int MAGIC = 0x57335743; // "W3WC"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int KEY_SIZE = 62;
+	private static final int RECORD_SIZE = 2 + KEY_SIZE + 8 + 8;
+	private static final short DELETED = -1;
+	private static final int INITIAL_CAPACITY = 64;
+
+	// Define attributes
+	private final FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int capacity;
+	private int records;
+
+	private final Map<String, Integer> slots;
+	private final LinkedHashMap<String, Point> recent;
+
+	// Constructors
+	public CoordinateCache(Path file) throws IOException
+	{
+		this(file, 256);
+	}
+
+	public CoordinateCache(Path file, int lruSize) throws IOException
+	{
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.slots = new HashMap<String, Integer>();
+		this.recent = new LinkedHashMap<String, Point>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Point> eldest)
+			{
+				return size() > lruSize;
+			}
+		};
+
+		if(channel.size() < HEADER_SIZE)
+		{
+			map(INITIAL_CAPACITY);
+			writeHeader();
+		}
+		else
+		{
+			map((int) Math.max(INITIAL_CAPACITY, (channel.size() - HEADER_SIZE) / RECORD_SIZE));
+			load();
+		}
+	}
+
+	public synchronized Point get(String what3words)
+	/**
+	 * This method returns the cached coordinates of the given address, or null if the
+	 * address has not been cached.
+	 */
+	{
+		Point point = recent.get(what3words);
+		if(point != null) return point;
+
+		Integer slot = slots.get(what3words);
+		if(slot == null) return null;
+
+		int offset = HEADER_SIZE + slot * RECORD_SIZE + 2 + KEY_SIZE;
+		point = Point.fromLngLat(buffer.getDouble(offset), buffer.getDouble(offset + 8));
+		recent.put(what3words, point);
+
+		return point;
+	}
+
+	public synchronized void put(String what3words, Point point) throws IOException
+	/**
+	 * This method stores the coordinates of an address, overwriting any previous entry.
+	 * Addresses too long to fit in a record are only kept in the in-process LRU.
+	 */
+	{
+		recent.put(what3words, point);
+
+		byte[] key = what3words.getBytes(StandardCharsets.UTF_8);
+		if(key.length > KEY_SIZE) return;
+
+		Integer slot = slots.get(what3words);
+		if(slot == null)
+		{
+			if(records == capacity) map(capacity * 2);
+			slot = records++;
+			slots.put(what3words, slot);
+			buffer.putInt(8, records);
+		}
+
+		int offset = HEADER_SIZE + slot * RECORD_SIZE;
+		buffer.putShort(offset, (short) key.length);
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset + 2);
+		view.put(key);
+		buffer.putDouble(offset + 2 + KEY_SIZE, point.longitude());
+		buffer.putDouble(offset + 2 + KEY_SIZE + 8, point.latitude());
+	}
+
+	public synchronized void invalidate(String what3words)
+	/**
+	 * This method removes a single address from the cache, so that it will be downloaded
+	 * again on the next run. This should be used when a sensor's address is corrected.
+	 */
+	{
+		recent.remove(what3words);
+
+		Integer slot = slots.remove(what3words);
+		if(slot != null) buffer.putShort(HEADER_SIZE + slot * RECORD_SIZE, DELETED);
+	}
+
+	public synchronized void clear() throws IOException
+	/**
+	 * This method removes every address from the cache and shrinks the file back down.
+	 */
+	{
+		recent.clear();
+		slots.clear();
+		records = 0;
+
+		buffer = null;
+		channel.truncate(HEADER_SIZE);
+		map(INITIAL_CAPACITY);
+		writeHeader();
+	}
+
+	public synchronized int size()
+	{
+		return slots.size();
+	}
+
+	public synchronized void close() throws IOException
+	/**
+	 * This method flushes the cache to disk and closes the file.
+	 */
+	{
+		buffer.force();
+		channel.close();
+	}
+
+	private void map(int newCapacity) throws IOException
+	{
+		// The capacity only changes once the file has been mapped, so a failure leaves the old mapping in use
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * RECORD_SIZE);
+		capacity = newCapacity;
+	}
+
+	private void writeHeader()
+	{
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, 0);
+		buffer.putInt(12, RECORD_SIZE);
+	}
+
+	private void load() throws IOException
+	/**
+	 * This method reads the header and builds the index of addresses from an existing file.
+	 * A file written by a different version is discarded rather than misread.
+	 */
+	{
+		if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(12) != RECORD_SIZE)
+		{
+			clear();
+			return;
+		}
+
+		records = Math.min(buffer.getInt(8), capacity);
+		byte[] key = new byte[KEY_SIZE];
+		ByteBuffer view = buffer.duplicate();
+
+		for(int slot = 0; slot < records; slot++)
+		{
+			int offset = HEADER_SIZE + slot * RECORD_SIZE;
+			short length = buffer.getShort(offset);
+			if(length <= 0 || length > KEY_SIZE) continue;
+
+			view.position(offset + 2);
+			view.get(key, 0, length);
+			slots.put(new String(key, 0, length, StandardCharsets.UTF_8), slot);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+public class CsvFlightLog implements FlightLog
+/**
+ * This class writes the drone's moves in the flightpath text format, one line per move:
+ * 
+ *     moves,oldLongitude,oldLatitude,angle,newLongitude,newLatitude,what3words
+ * 
+ * Each line is formatted into a reused StringBuilder, whose append(double) gives the same
+ * digits as String.valueOf without creating a String, and then copied into a buffer that
+ * is written to the channel whenever it fills up.
+ */
+{
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	// Define attributes
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final StringBuilder line;
+	
+	// Constructor
+	public CsvFlightLog(WritableByteChannel channel)
+	{
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.line = new StringBuilder(128);
+	}
+	
+	@Override
+	public void logMove(int moves, double oldLng, double oldLat, int angle, double newLng, double newLat,
+						int sensor, String sensorW3W) throws IOException
+	{
+		line.setLength(0);
+		line.append(moves).append(',')
+			.append(oldLng).append(',')
+			.append(oldLat).append(',')
+			.append(angle).append(',')
+			.append(newLng).append(',')
+			.append(newLat).append(',')
+			.append(sensorW3W)
+			.append('\n');
+		
+		// Lines are almost always ASCII, so copy the characters straight across
+		for(int i = 0; i < line.length(); i++)
+		{
+			if(line.charAt(i) >= 0x80)
+			{
+				put(line.toString().getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+		}
+		if(buffer.remaining() < line.length()) flush();
+		if(buffer.remaining() < line.length())
+		{
+			put(line.toString().getBytes(StandardCharsets.US_ASCII));
+			return;
+		}
+		for(int i = 0; i < line.length(); i++)
+		{
+			buffer.put((byte) line.charAt(i));
+		}
+	}
+	
+	private void put(byte[] bytes) throws IOException
+	{
+		if(buffer.remaining() < bytes.length) flush();
+		if(bytes.length > buffer.capacity())
+		{
+			var wrapped = ByteBuffer.wrap(bytes);
+			while(wrapped.hasRemaining()) channel.write(wrapped);
+			return;
+		}
+		buffer.put(bytes);
+	}
+	
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		flush();
+		channel.close();
+	}
+}
@@ -1,6 +1,8 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import com.mapbox.geojson.Point;
 
@@ -30,20 +32,200 @@ public class DroneApp
 		long seed = Long.parseLong(args[5]);
 		String port = args[6];
 		
+		// Parse optional flags, which follow the positional arguments
+		boolean useCache = false;
+		boolean clearCache = false;
+		long routeBudget = 0;
+		boolean obstacleDistances = false;
+		boolean gzip = false;
+		boolean recordMetrics = false;
+		int drones = 1;
+		int sweepSeeds = 1;
+		int[] heatmap = null;
+		int neighbours = 0;
+		Path historyDirectory = null;
+		FlightMode flightMode = FlightMode.REACTIVE;
+		FlightLogFormat logFormat = FlightLogFormat.CSV;
+		for(int i = 7; i < args.length; i++)
+		{
+			if(args[i].startsWith("--route-budget="))
+			{
+				routeBudget = Long.parseLong(args[i].substring("--route-budget=".length()));
+				continue;
+			}
+			if(args[i].startsWith("--log-format="))
+			{
+				logFormat = FlightLogFormat.valueOf(args[i].substring("--log-format=".length()).toUpperCase());
+				continue;
+			}
+			if(args[i].startsWith("--drones="))
+			{
+				drones = Integer.parseInt(args[i].substring("--drones=".length()));
+				continue;
+			}
+			if(args[i].startsWith("--seed-sweep="))
+			{
+				sweepSeeds = Integer.parseInt(args[i].substring("--seed-sweep=".length()));
+				continue;
+			}
+			if(args[i].startsWith("--heatmap="))
+			{
+				heatmap = parseGridSize(args[i].substring("--heatmap=".length()));
+				continue;
+			}
+			if(args[i].startsWith("--idw-neighbours="))
+			{
+				neighbours = Integer.parseInt(args[i].substring("--idw-neighbours=".length()));
+				continue;
+			}
+			if(args[i].startsWith("--history="))
+			{
+				historyDirectory = Path.of(args[i].substring("--history=".length()));
+				continue;
+			}
+			if(args[i].startsWith("--planner="))
+			{
+				flightMode = FlightMode.valueOf(args[i].substring("--planner=".length()).toUpperCase());
+				continue;
+			}
+			switch(args[i])
+			{
+				case "--cache":
+					useCache = true;
+					break;
+				case "--clear-cache":
+					useCache = true;
+					clearCache = true;
+					break;
+				case "--obstacle-distances":
+					obstacleDistances = true;
+					break;
+				case "--gzip":
+					gzip = true;
+					break;
+				case "--metrics":
+					recordMetrics = true;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		
 		// Call the controller class' methods
-		Controller controller = new Controller(date, startPosition, seed, "http://localhost:", port);
+		Metrics metrics = recordMetrics ? new Metrics() : Metrics.DISABLED;
+		Server server = new Server("http://localhost:", port);
+		server.setMetrics(metrics);
+		Controller controller = new Controller(date, startPosition, seed, server);
+		controller.setRouteBudget(routeBudget);
+		controller.setObstacleAwareOrdering(obstacleDistances);
+		controller.setFlightMode(flightMode);
+		controller.setFlightLogFormat(logFormat);
+		controller.setGzipOutput(gzip);
+		controller.setMetrics(metrics);
+		
+		// The caches are only used when asked for, so a plain run writes nothing but its usual
+		// output files and always asks the webserver for the day's data
+		CoordinateCache cache = null;
+		Path legalMoveFile = null;
+		if(useCache)
+		{
+			cache = new CoordinateCache(Path.of("w3w-cache.bin"));
+			if(clearCache) cache.clear();
+			controller.setCoordinateCache(cache);
+			
+			var responseCache = new ResponseCache(Path.of("http-cache"));
+			if(clearCache) responseCache.clear();
+			server.setResponseCache(responseCache);
+			
+			legalMoveFile = Path.of("legal-moves.bin");
+			if(clearCache) Files.deleteIfExists(legalMoveFile);
+			controller.setLegalMoveFile(legalMoveFile);
+		}
+		
 		controller.serverDownload();
 		System.out.println("Server Download done");
+		
+		if(drones > 1)
+		{
+			// Fly a fleet instead, with the downloaded sensors split between the drones
+			controller.awaitDownload();
+			var fleet = new Fleet(date, startPosition, seed, controller.getContext(), drones);
+			fleet.setFlightLogFormat(logFormat);
+			fleet.setGzipOutput(gzip);
+			long budget = routeBudget;
+			boolean obstacles = obstacleDistances;
+			FlightMode mode = flightMode;
+			Path legalMoves = legalMoveFile;
+			fleet.setConfiguration(drone -> {
+				drone.setRouteBudget(budget);
+				drone.setObstacleAwareOrdering(obstacles);
+				drone.setFlightMode(mode);
+				drone.setLegalMoveFile(legalMoves);
+				drone.setMetrics(metrics);
+			});
+			System.out.println(fleet.fly(controller.getSensors()));
+			
+			finish(date, cache, metrics);
+			return;
+		}
+		
 		controller.orderSensors();
 		System.out.println("Ordering of sensors done");
-		controller.droneFlight();
-		System.out.println("Drone flight done");
+		if(sweepSeeds > 1)
+		{
+			// Try the seeds from the one given onwards and fly the best of them
+			System.out.println(controller.sweepSeeds(SeedSweep.range(seed, sweepSeeds), Runtime.getRuntime().availableProcessors()));
+		}
+		else
+		{
+			controller.droneFlight();
+		}
+		System.out.println("Drone flight done: " + controller.getMoves() + " moves, "
+						   + controller.getPlanningNanos() / 1000000 + " ms planning (" + flightMode + ")");
 		controller.logToFile();
 		System.out.println("Log to file done");
 		controller.hexCodeConversion();
 		System.out.println("Hex code conversion done");
 		controller.geojsonConvert();
 		System.out.println("GeoJSON conversion done");
+		if(heatmap != null)
+		{
+			controller.heatmapConvert(heatmap[0], heatmap[1], neighbours);
+			System.out.println("Heatmap done");
+		}
+		if(historyDirectory != null)
+		{
+			try(var history = new HistoryStore(historyDirectory))
+			{
+				controller.recordHistory(history);
+			}
+			System.out.println("Readings added to " + historyDirectory);
+		}
 		System.out.println(controller.toString());
+		
+		finish(date, cache, metrics);
+	}
+	
+	static int[] parseGridSize(String size)
+	/**
+	 * This method reads a grid size written as ROWSxCOLS, such as 200x400.
+	 */
+	{
+		String[] parts = size.split("x");
+		if(parts.length != 2) throw new IllegalArgumentException("Expected a grid size like 200x400, got " + size);
+		return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+	}
+	
+	private static void finish(String[] date, CoordinateCache cache, Metrics metrics) throws IOException
+	{
+		if(cache != null) cache.close();
+		
+		if(metrics.isEnabled())
+		{
+			String name = "metrics-" + date[0] + "-" + date[1] + "-" + date[2];
+			metrics.writeJson(Path.of(name + ".json"));
+			metrics.writePrometheus(Path.of(name + ".prom"));
+			System.out.println("Metrics written to " + name + ".json and " + name + ".prom");
+		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
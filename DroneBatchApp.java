@@ -0,0 +1,180 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.mapbox.geojson.Point;
+
+public class DroneBatchApp
+/**
+ * This class acts as the entry point for flying many missions in one JVM, for example to
+ * backfill the readings for a month or a year. The 'No Fly Zones' are downloaded once and
+ * shared between every mission, and the missions themselves are run in parallel on a
+ * bounded fork-join pool.
+ *
+ * Usage: DroneBatchApp <from DD-MM-YYYY> <to DD-MM-YYYY> <latitude[,latitude...]> <longitude[,longitude...]>
+ *                      <seed[,seed...]> <port> [--threads=n] [--heatmap=ROWSxCOLS] [--idw-neighbours=k]
+ *                      [--history=directory]
+ *
+ * Every date is flown from every start position with every seed. The start positions are given
+ * as matching lists of latitudes and longitudes. By default as many missions are flown at once
+ * as there are processors.
+ *
+ * With --heatmap, each mission also writes a heatmap interpolated from its readings, and with
+ * --history each date's readings are added to a HistoryStore shared by every mission. Every
+ * mission on a date visits the same day's sensors, so only the first start position's first
+ * seed records its readings, and each date is stored once.
+ *
+ * When more than one seed is given, the output of each seed is written to its own
+ * 'seed-<seed>' directory so the files do not overwrite each other, and likewise each start
+ * position's to a 'start-<n>' directory, numbered from 1, when there is more than one.
+ */
+{
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+	private static final Path LEGAL_MOVES = Path.of("legal-moves.bin");
+
+	public static void main(String[] args) throws Exception
+	{
+		// Parse input arguments
+		LocalDate from = LocalDate.parse(args[0], DATE_FORMAT);
+		LocalDate to = LocalDate.parse(args[1], DATE_FORMAT);
+		String[] latitudes = args[2].split(",");
+		String[] longitudes = args[3].split(",");
+		if(latitudes.length != longitudes.length)
+		{
+			throw new IllegalArgumentException("Got " + latitudes.length + " latitudes but " + longitudes.length + " longitudes");
+		}
+		var startPositions = new ArrayList<Point>();
+		for(int i = 0; i < latitudes.length; i++)
+		{
+			startPositions.add(Point.fromLngLat(Double.parseDouble(longitudes[i].trim()), Double.parseDouble(latitudes[i].trim())));
+		}
+
+		var seeds = new ArrayList<Long>();
+		for(String seed : args[4].split(","))
+		{
+			seeds.add(Long.parseLong(seed.trim()));
+		}
+
+		String port = args[5];
+		int threads = Runtime.getRuntime().availableProcessors();
+		int[] heatmap = null;
+		int neighbours = 0;
+		HistoryStore history = null;
+		for(int i = 6; i < args.length; i++)
+		{
+			if(args[i].startsWith("--heatmap="))
+			{
+				heatmap = DroneApp.parseGridSize(args[i].substring("--heatmap=".length()));
+			}
+			else if(args[i].startsWith("--history="))
+			{
+				history = new HistoryStore(Path.of(args[i].substring("--history=".length())));
+			}
+			else if(args[i].startsWith("--idw-neighbours="))
+			{
+				neighbours = Integer.parseInt(args[i].substring("--idw-neighbours=".length()));
+			}
+			else if(args[i].startsWith("--threads="))
+			{
+				threads = Integer.parseInt(args[i].substring("--threads=".length()));
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+
+		// Download the map once and share it between all of the missions
+		var cache = new CoordinateCache(Path.of("w3w-cache.bin"));
+		var context = MapContext.download(new Server("http://localhost:", port), cache);
+		context.getLegalMoveLattice(LEGAL_MOVES);
+
+		var pool = new ForkJoinPool(threads);
+		var missions = new ArrayList<Future<String>>();
+
+		for(LocalDate day = from; !day.isAfter(to); day = day.plusDays(1))
+		{
+			for(int start = 0; start < startPositions.size(); start++)
+			{
+				for(long seed : seeds)
+				{
+					Path outputDirectory = Path.of("");
+					if(startPositions.size() > 1) outputDirectory = outputDirectory.resolve("start-" + (start + 1));
+					if(seeds.size() > 1) outputDirectory = outputDirectory.resolve("seed-" + seed);
+					String name = day.format(DATE_FORMAT) + (startPositions.size() > 1 ? " start " + (start + 1) : "") + " seed " + seed;
+					HistoryStore recordTo = start == 0 && seed == seeds.get(0) ? history : null;
+					missions.add(pool.submit(mission(name, day, startPositions.get(start), seed, context, outputDirectory,
+													 heatmap, neighbours, recordTo)));
+				}
+			}
+		}
+
+		// Report the outcome of each mission in the order they were submitted
+		int failed = 0;
+		for(Future<String> mission : missions)
+		{
+			try
+			{
+				System.out.println(mission.get());
+			}
+			catch(ExecutionException e)
+			{
+				failed++;
+				System.out.println(e.getCause().getMessage());
+			}
+		}
+		pool.shutdown();
+		cache.close();
+		if(history != null) history.close();
+
+		System.out.println(missions.size() - failed + " of " + missions.size() + " missions done");
+	}
+
+	private static Callable<String> mission(String name, LocalDate day, Point startPosition, long seed, MapContext context,
+											Path outputDirectory, int[] heatmap, int neighbours, HistoryStore history)
+	/**
+	 * This method returns a task that runs the full Controller pipeline for a single date, start
+	 * position and seed, reported under the given name,
+	 * adding a heatmap of the given size unless it is null and recording the readings in the
+	 * history unless that is null.
+	 */
+	{
+		String[] date = { String.format("%02d", day.getDayOfMonth()),
+						  String.format("%02d", day.getMonthValue()),
+						  String.valueOf(day.getYear()) };
+
+		return () -> {
+			try
+			{
+				Files.createDirectories(outputDirectory);
+
+				Controller controller = new Controller(date, startPosition, seed, context);
+				controller.setOutputDirectory(outputDirectory);
+				controller.setLegalMoveFile(LEGAL_MOVES);
+				controller.serverDownload();
+				controller.orderSensors();
+				controller.droneFlight();
+				controller.logToFile();
+				controller.hexCodeConversion();
+				controller.geojsonConvert();
+				if(heatmap != null) controller.heatmapConvert(heatmap[0], heatmap[1], neighbours);
+				if(history != null) controller.recordHistory(history);
+
+				return name + ": " + controller.getMoves() + " moves";
+			}
+			catch(Exception e)
+			{
+				throw new Exception(name + " failed: " + e, e);
+			}
+		};
+	}
+}
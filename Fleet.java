@@ -0,0 +1,392 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import com.mapbox.geojson.Point;
+
+public class Fleet
+/**
+ * This class flies several drones at once from the same start position, so that more sensors
+ * can be read than one drone can reach in its 150 moves. The sensors are split into one group
+ * per drone by a balanced k-means clustering, so each drone gets a compact area and no drone
+ * gets more than its share of sensors. Each drone is then an ordinary Controller, ordering and
+ * flying its own group on its own thread, with all of them sharing the same MapContext.
+ *
+ * Each drone writes its own flightpath log, named with a '-droneN' suffix, and the readings of
+ * the whole fleet are written to a single readings GeoJSON file.
+ */
+{
+	private static final int MAX_ITERATIONS = 100;
+
+	// Define attributes
+	private final String[] date;
+	private final Point startPosition;
+	private final long seed;
+	private final MapContext context;
+	private final int drones;
+
+	private Path outputDirectory;
+	private FlightLogFormat flightLogFormat;
+	private boolean gzipOutput;
+	private Consumer<Controller> configure;
+
+	// Constructor
+	public Fleet(String[] date, Point startPosition, long seed, MapContext context, int drones)
+	{
+		if(drones < 1)
+		{
+			throw new IllegalArgumentException("A fleet needs at least one drone, was " + drones);
+		}
+		this.date = date;
+		this.startPosition = startPosition;
+		this.seed = seed;
+		this.context = context;
+		this.drones = drones;
+		this.outputDirectory = Path.of("");
+		this.flightLogFormat = FlightLogFormat.CSV;
+		this.configure = controller -> {};
+	}
+
+	public void setOutputDirectory(Path outputDirectory)
+	{
+		this.outputDirectory = outputDirectory;
+	}
+
+	public void setFlightLogFormat(FlightLogFormat flightLogFormat)
+	{
+		this.flightLogFormat = flightLogFormat;
+	}
+
+	public void setGzipOutput(boolean gzipOutput)
+	{
+		this.gzipOutput = gzipOutput;
+	}
+
+	public void setConfiguration(Consumer<Controller> configure)
+	/**
+	 * This method sets a step that is applied to every drone's Controller before it flies, for
+	 * settings such as the flight mode or route budget.
+	 */
+	{
+		this.configure = configure;
+	}
+
+	public Result fly(List<Sensor> sensors) throws IOException, InterruptedException
+	/**
+	 * This method partitions the sensors between the drones, flies every drone in parallel and
+	 * writes the flightpath logs and the merged readings file. Drones that are given no sensors
+	 * stay on the ground.
+	 */
+	{
+		var groups = partition(sensors, drones, seed);
+		var controllers = new Controller[drones];
+
+		ExecutorService pool = Executors.newFixedThreadPool(drones);
+		try
+		{
+			var flights = new ArrayList<Future<Controller>>();
+			for(int d = 0; d < drones; d++)
+			{
+				if(groups.get(d).isEmpty())
+				{
+					flights.add(null);
+					continue;
+				}
+				int drone = d;
+				flights.add(pool.submit(() -> fly(drone, groups.get(drone))));
+			}
+
+			for(int d = 0; d < drones; d++)
+			{
+				if(flights.get(d) != null) controllers[d] = flights.get(d).get();
+			}
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException) cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if(cause instanceof InterruptedException) throw (InterruptedException) cause;
+			throw new IOException("A drone's flight failed", cause);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		// Write every drone's readings and flightpath to the one file, in drone order
+		String fileName = "readings-" + date[0] + "-" + date[1] + "-" + date[2] + ".geojson" + (gzipOutput ? ".gz" : "");
+		try(var jsonFile = GeoJsonWriter.open(outputDirectory.resolve(fileName), gzipOutput))
+		{
+			for(Controller controller : controllers)
+			{
+				if(controller != null) controller.writeFeatures(jsonFile);
+			}
+		}
+
+		int[] moves = new int[drones];
+		int[] read = new int[drones];
+		for(int d = 0; d < drones; d++)
+		{
+			if(controllers[d] == null) continue;
+			moves[d] = controllers[d].getMoves();
+			read[d] = controllers[d].getSensorData().size();
+		}
+		return new Result(moves, read, groups.stream().mapToInt(List::size).toArray());
+	}
+
+	private Controller fly(int drone, List<Sensor> group) throws IOException, InterruptedException
+	{
+		// Each drone gets its own seed, so their random escapes are independent
+		var controller = new Controller(date, startPosition, seed + drone, context);
+		configure.accept(controller);
+		controller.setSensors(group);
+
+		controller.orderSensors();
+		controller.droneFlight();
+
+		String logName = "flightpath-" + date[0] + "-" + date[1] + "-" + date[2] + "-drone" + (drone + 1) + flightLogFormat.getExtension();
+		controller.setFlightLog(FlightLog.open(outputDirectory.resolve(logName), flightLogFormat));
+		controller.logToFile();
+		controller.hexCodeConversion();
+		return controller;
+	}
+
+	public static List<List<Sensor>> partition(List<Sensor> sensors, int groups, long seed)
+	/**
+	 * This method splits the sensors into the given number of groups with a balanced k-means:
+	 * centres are seeded with k-means++, then each round every sensor is assigned to its nearest
+	 * centre that still has room (closest pairs first), and the centres move to the middle of
+	 * their groups. No group holds more than ceil(n / groups) sensors. Groups are returned in
+	 * the order of their centres' bearing from the middle of the sensors, so the drones are
+	 * numbered in a sweep around the map.
+	 */
+	{
+		int n = sensors.size();
+		var result = new ArrayList<List<Sensor>>();
+		if(n == 0)
+		{
+			for(int g = 0; g < groups; g++) result.add(new ArrayList<Sensor>());
+			return result;
+		}
+
+		double[] lng = new double[n];
+		double[] lat = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			lng[i] = sensors.get(i).getCoordinates().longitude();
+			lat[i] = sensors.get(i).getCoordinates().latitude();
+		}
+
+		double[] centreLng = new double[groups];
+		double[] centreLat = new double[groups];
+		seedCentres(lng, lat, centreLng, centreLat, new Random(seed));
+
+		int capacity = (n + groups - 1) / groups;
+		int[] assignment = new int[n];
+		Arrays.fill(assignment, -1);
+
+		for(int iteration = 0; iteration < MAX_ITERATIONS; iteration++)
+		{
+			int[] next = assign(lng, lat, centreLng, centreLat, capacity);
+			boolean changed = !Arrays.equals(next, assignment);
+			assignment = next;
+
+			// Move each centre to the middle of its group
+			double[] sumLng = new double[groups];
+			double[] sumLat = new double[groups];
+			int[] count = new int[groups];
+			for(int i = 0; i < n; i++)
+			{
+				sumLng[assignment[i]] += lng[i];
+				sumLat[assignment[i]] += lat[i];
+				count[assignment[i]]++;
+			}
+			for(int g = 0; g < groups; g++)
+			{
+				if(count[g] == 0) continue;
+				centreLng[g] = sumLng[g] / count[g];
+				centreLat[g] = sumLat[g] / count[g];
+			}
+
+			if(!changed) break;
+		}
+
+		// Order the groups by bearing around the middle of all the sensors
+		double midLng = Arrays.stream(lng).average().getAsDouble();
+		double midLat = Arrays.stream(lat).average().getAsDouble();
+		Integer[] order = new Integer[groups];
+		for(int g = 0; g < groups; g++) order[g] = g;
+		Arrays.sort(order, (a, b) -> Double.compare(Math.atan2(centreLat[a] - midLat, centreLng[a] - midLng),
+													Math.atan2(centreLat[b] - midLat, centreLng[b] - midLng)));
+
+		int[] rank = new int[groups];
+		for(int g = 0; g < groups; g++)
+		{
+			rank[order[g]] = g;
+			result.add(new ArrayList<Sensor>());
+		}
+		for(int i = 0; i < n; i++)
+		{
+			result.get(rank[assignment[i]]).add(sensors.get(i));
+		}
+		return result;
+	}
+
+	private static void seedCentres(double[] lng, double[] lat, double[] centreLng, double[] centreLat, Random rand)
+	/**
+	 * This method picks the first centre at random and each later one with probability
+	 * proportional to its squared distance from the nearest centre already picked.
+	 */
+	{
+		int n = lng.length;
+		double[] nearest = new double[n];
+		Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+
+		int pick = rand.nextInt(n);
+		for(int g = 0; g < centreLng.length; g++)
+		{
+			centreLng[g] = lng[pick];
+			centreLat[g] = lat[pick];
+
+			double total = 0;
+			for(int i = 0; i < n; i++)
+			{
+				double dx = lng[i] - centreLng[g], dy = lat[i] - centreLat[g];
+				nearest[i] = Math.min(nearest[i], dx * dx + dy * dy);
+				total += nearest[i];
+			}
+			if(total == 0)
+			{
+				// Every sensor is already on a centre, so any choice will do
+				pick = rand.nextInt(n);
+				continue;
+			}
+
+			double target = rand.nextDouble() * total;
+			pick = n - 1;
+			for(int i = 0; i < n; i++)
+			{
+				target -= nearest[i];
+				if(target < 0)
+				{
+					pick = i;
+					break;
+				}
+			}
+		}
+	}
+
+	private static int[] assign(double[] lng, double[] lat, double[] centreLng, double[] centreLat, int capacity)
+	/**
+	 * This method gives every sensor to a centre, taking sensor-centre pairs from closest to
+	 * furthest and skipping centres that are already full.
+	 */
+	{
+		int n = lng.length;
+		int groups = centreLng.length;
+
+		double[] dist = new double[n * groups];
+		Integer[] pairs = new Integer[n * groups];
+		for(int i = 0; i < n; i++)
+		{
+			for(int g = 0; g < groups; g++)
+			{
+				int p = i * groups + g;
+				dist[p] = Math.hypot(lng[i] - centreLng[g], lat[i] - centreLat[g]);
+				pairs[p] = p;
+			}
+		}
+		// Sort the pairs by distance, breaking ties by index so the result is repeatable
+		Arrays.sort(pairs, (a, b) -> {
+			int c = Double.compare(dist[a], dist[b]);
+			return c != 0 ? c : Integer.compare(a, b);
+		});
+
+		int[] assignment = new int[n];
+		Arrays.fill(assignment, -1);
+		int[] size = new int[groups];
+		int assigned = 0;
+		for(int pair : pairs)
+		{
+			int i = pair / groups;
+			int g = pair % groups;
+			if(assignment[i] != -1 || size[g] >= capacity) continue;
+
+			assignment[i] = g;
+			size[g]++;
+			if(++assigned == n) break;
+		}
+		return assignment;
+	}
+
+	public static class Result
+	/**
+	 * The outcome of a fleet's flight: for each drone, the moves it made, the sensors it read
+	 * and the sensors it was given.
+	 */
+	{
+		private final int[] moves;
+		private final int[] sensorsRead;
+		private final int[] sensorsGiven;
+
+		Result(int[] moves, int[] sensorsRead, int[] sensorsGiven)
+		{
+			this.moves = moves;
+			this.sensorsRead = sensorsRead;
+			this.sensorsGiven = sensorsGiven;
+		}
+
+		public int getDrones()
+		{
+			return moves.length;
+		}
+
+		public int getMoves(int drone)
+		{
+			return moves[drone];
+		}
+
+		public int getSensorsRead(int drone)
+		{
+			return sensorsRead[drone];
+		}
+
+		public int getSensorsGiven(int drone)
+		{
+			return sensorsGiven[drone];
+		}
+
+		public int getMakespan()
+		/**
+		 * This method returns the moves made by the busiest drone, which is how long the fleet
+		 * takes to finish when every drone flies at once.
+		 */
+		{
+			return Arrays.stream(moves).max().orElse(0);
+		}
+
+		@Override
+		public String toString()
+		{
+			var out = new StringBuilder();
+			for(int d = 0; d < moves.length; d++)
+			{
+				out.append("Drone ").append(d + 1).append(": ").append(sensorsRead[d]).append(" of ")
+				   .append(sensorsGiven[d]).append(" sensors read in ").append(moves[d]).append(" moves\n");
+			}
+			out.append("Makespan: ").append(getMakespan()).append(" moves");
+			return out.toString();
+		}
+	}
+}
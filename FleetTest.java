@@ -0,0 +1,118 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.mapbox.geojson.Point;
+
+public class FleetTest
+/**
+ * Unit tests for the partitioning of sensors between the drones of a fleet.
+ */
+{
+	@Test
+	public void partitionRespectsCapacity()
+	{
+		for(int n : new int[] { 1, 7, 10, 33 })
+		{
+			for(int groups = 1; groups <= 5; groups++)
+			{
+				for(long seed = 0; seed < 5; seed++)
+				{
+					List<Sensor> sensors = scattered(n, seed);
+					assertPartition(sensors, Fleet.partition(sensors, groups, seed), groups);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void partitionRespectsCapacityWhenSensorsAreClustered()
+	{
+		// Nearly every sensor is in one corner, so an unbalanced k-means would give them all to one drone
+		var sensors = new ArrayList<Sensor>();
+		var random = new Random(3);
+		for(int i = 0; i < 30; i++)
+		{
+			sensors.add(sensor("c." + i, -3.1920 + random.nextDouble() * 0.0002, 55.9430 + random.nextDouble() * 0.0002));
+		}
+		sensors.add(sensor("far.a", -3.1850, 55.9460));
+		sensors.add(sensor("far.b", -3.1845, 55.9455));
+		sensors.add(sensor("far.c", -3.1850, 55.9430));
+
+		for(int groups = 2; groups <= 4; groups++)
+		{
+			assertPartition(sensors, Fleet.partition(sensors, groups, 1), groups);
+		}
+	}
+
+	@Test
+	public void partitionOfNoSensorsGivesEmptyGroups()
+	{
+		var groups = Fleet.partition(new ArrayList<Sensor>(), 3, 0);
+		assertEquals(3, groups.size());
+		for(List<Sensor> group : groups) assertTrue(group.isEmpty());
+	}
+
+	@Test
+	public void partitionIsRepeatableForASeed()
+	{
+		List<Sensor> sensors = scattered(33, 9);
+		var first = Fleet.partition(sensors, 3, 9);
+		var second = Fleet.partition(sensors, 3, 9);
+		for(int g = 0; g < 3; g++)
+		{
+			assertEquals(first.get(g).size(), second.get(g).size());
+			for(int i = 0; i < first.get(g).size(); i++) assertSame(first.get(g).get(i), second.get(g).get(i));
+		}
+	}
+
+	private static void assertPartition(List<Sensor> sensors, List<List<Sensor>> partition, int groups)
+	/**
+	 * Checks that every sensor is in exactly one of the given number of groups, and that no group
+	 * holds more than its share.
+	 */
+	{
+		assertEquals(groups, partition.size());
+		int capacity = (sensors.size() + groups - 1) / groups;
+		var seen = new IdentityHashMap<Sensor, Boolean>();
+		for(List<Sensor> group : partition)
+		{
+			assertTrue(group.size() + " sensors in a group of at most " + capacity, group.size() <= capacity);
+			for(Sensor s : group) assertTrue(s.getLocation() + " is in two groups", seen.put(s, true) == null);
+		}
+		assertEquals(sensors.size(), seen.size());
+		for(Sensor s : sensors) assertTrue(s.getLocation() + " is in no group", seen.containsKey(s));
+	}
+
+	private static List<Sensor> scattered(int n, long seed)
+	{
+		var random = new Random(seed);
+		var sensors = new ArrayList<Sensor>();
+		for(int i = 0; i < n; i++)
+		{
+			double lng = MapContext.MIN_LNG_BOUNDARY + random.nextDouble() * (MapContext.MAX_LNG_BOUNDARY - MapContext.MIN_LNG_BOUNDARY);
+			double lat = MapContext.MIN_LAT_BOUNDARY + random.nextDouble() * (MapContext.MAX_LAT_BOUNDARY - MapContext.MIN_LAT_BOUNDARY);
+			sensors.add(sensor("s." + i, lng, lat));
+		}
+		return sensors;
+	}
+
+	private static Sensor sensor(String location, double lng, double lat)
+	{
+		var sensor = new Sensor();
+		sensor.setLocation(location);
+		sensor.setBattery(100);
+		sensor.setReading("50");
+		sensor.setCoordinates(Point.fromLngLat(lng, lat));
+		return sensor;
+	}
+}
@@ -0,0 +1,29 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public interface FlightLog extends Closeable
+/**
+ * This interface describes where the drone's moves are written. The moves of a flight are kept
+ * in the FlightSimulator's compact arrays, and logToFile passes them on one at a time, so the
+ * flightpath is written straight to the file without ever being built up as text.
+ */
+{
+	void logMove(int moves, double oldLng, double oldLat, int angle, double newLng, double newLat,
+				 int sensor, String sensorW3W) throws IOException;
+	
+	static FlightLog open(Path file, FlightLogFormat format) throws IOException
+	/**
+	 * This method creates (or replaces) the given file and returns a log writing to it in
+	 * the given format.
+	 */
+	{
+		var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		
+		return format == FlightLogFormat.BINARY ? new BinaryFlightLog(channel) : new CsvFlightLog(channel);
+	}
+}
@@ -0,0 +1,25 @@
+package uk.ac.ed.inf.aqmaps;
+
+public enum FlightLogFormat
+/**
+ * This enum describes the formats the drone's flightpath can be written in.
+ */
+{
+	// One comma separated line per move, as in 'flightpath-DD-MM-YYYY.txt'
+	CSV(".txt"),
+	
+	// Fixed-size binary records, see BinaryFlightLog
+	BINARY(".bin");
+	
+	private final String extension;
+	
+	FlightLogFormat(String extension)
+	{
+		this.extension = extension;
+	}
+	
+	public String getExtension()
+	{
+		return extension;
+	}
+}
@@ -0,0 +1,13 @@
+package uk.ac.ed.inf.aqmaps;
+
+public enum FlightMode
+/**
+ * This enum describes how the drone chooses its moves between sensors.
+ */
+{
+	// Fly towards the target, turning away from obstacles as they are met
+	REACTIVE,
+	
+	// Plan each leg in advance with an A* search over the drone's possible moves
+	LATTICE
+}
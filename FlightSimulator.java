@@ -0,0 +1,300 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.mapbox.geojson.Point;
+
+public class FlightSimulator
+/**
+ * This class works out the moves the drone makes along an ordered route of sensors, without
+ * any of the Controller's side effects: nothing is logged, read or recorded, and the result is
+ * returned as a Flight. A simulator holds only the route and the map, so one simulator can be
+ * used by many threads at once, each simulating with its own Random.
+ *
+ * The moves are chosen exactly as Controller.droneFlight always has, so a flight simulated
+ * with a Random seeded the same way is the same flight.
+ */
+{
+	public static final int MAX_MOVES = 150;
+
+	// Define attributes
+	private final LegalMoveLattice legalMoves;
+	private final Point startPosition;
+	private final int startAngle;
+	private final List<Point> targets;
+	private final FlightMode flightMode;
+
+	// Constructor
+	public FlightSimulator(LegalMoveLattice legalMoves, Point startPosition, int startAngle, List<Point> targets, FlightMode flightMode)
+	/**
+	 * Creates a simulator for a drone starting at startPosition, facing startAngle, that visits
+	 * the targets in the order given and then returns to its start. Whether each move is legal
+	 * is looked up in the lattice.
+	 */
+	{
+		this.legalMoves = legalMoves;
+		this.startPosition = startPosition;
+		this.startAngle = startAngle;
+		this.targets = new ArrayList<Point>(targets);
+		this.flightMode = flightMode;
+	}
+
+	public int getTargetCount()
+	{
+		return targets.size();
+	}
+
+	public Flight simulate(Random rand)
+	/**
+	 * This method flies the route and returns every move made. The random number generator is
+	 * only used to escape when the drone would double back on itself.
+	 */
+	{
+		var flight = new Flight();
+		flight.lng[0] = startPosition.longitude();
+		flight.lat[0] = startPosition.latitude();
+
+		LatticePlanner planner = flightMode == FlightMode.LATTICE ? new LatticePlanner(legalMoves) : null;
+
+		var projDistList = new ArrayList<Double>();
+		var angleHistory = new ArrayList<Integer>();
+
+		double deltaLat = 0;
+		double deltaLng = 0;
+
+		boolean sensProx = false;
+
+		Point position = startPosition;
+		int angle = startAngle;
+		Point newPosition;
+		Point projPos;
+		Point targetPoint;
+
+		int index;
+		int newAngle;
+
+		// Initialising the angleHistory Array List with the start angle as the first element
+		// to avoid an index out of bounds exception
+		angleHistory.add(angle);
+
+		// Loop until all of the individual sensors have been visited
+		for(int i = 0; i <= targets.size(); i++)
+		{
+			sensProx = false;
+
+			// If the drone has visited all sensors, go back to the start point. Else continue visiting sensors
+			targetPoint = i == targets.size() ? startPosition : targets.get(i);
+
+			// Plan the whole leg up front if the planner is in use
+			if(planner != null && flight.moves < MAX_MOVES)
+			{
+				long planStart = System.nanoTime();
+				int[] plan = planner.plan(position, targetPoint, MAX_MOVES - flight.moves);
+				flight.planningNanos += System.nanoTime() - planStart;
+
+				if(plan != null)
+				{
+					for(int planned : plan)
+					{
+						angle = planned;
+						newPosition = step(position, angle);
+						angleHistory.add(angle);
+						sensProx = flight.add(i, angle, newPosition, targetPoint);
+						position = newPosition;
+					}
+				}
+			}
+
+			// Loop until the drone is close enough to a sensor to take a reading (<= 0.0002 degrees)
+			// or the maximum move limit is reached
+			while(!sensProx & flight.moves < MAX_MOVES)
+			{
+				long stepStart = System.nanoTime();
+
+				// Determine angle of travel, converting negative angles into their positive counterparts
+				deltaLat = targetPoint.latitude()  - position.latitude();
+				deltaLng = targetPoint.longitude() - position.longitude();
+				angle = (int) Math.round((Math.toDegrees(Math.atan2(deltaLat, deltaLng)))/10)*10;
+				angle = (angle + 360) % 360;
+
+				newPosition = step(position, angle);
+
+				// Check to see whether the new position is within a no fly zone, and if so, update the angle of trajectory
+				// If the drone has doubled back on itself, instead send the drone in a random direction to remove the chance
+				// of the drone being stuck in a permanent loop
+				flight.collisionChecks++;
+				while(!legalMoves.isLegal(position, angle, newPosition)
+						|| (angleHistory.get(flight.moves)+180)%360 == angle)
+				{
+					// Each pass round this loop checks the new position again
+					flight.avoidanceIterations++;
+					flight.collisionChecks++;
+
+					// If the drone flies back to the same point, send it in a random direction instead
+					if((angleHistory.get(flight.moves)+180)%360 == angle)
+					{
+						angle = (angle + 10 * (rand.nextInt(35))) % 360;
+						flight.randomEscapes++;
+					}
+					// Else, find the best new angle to send it to
+					else
+					{
+						for(int j = 1; j < 36; j++)
+						{
+							newAngle = (angle + 10 * j) % 360;
+							projPos = step(position, newAngle);
+							flight.collisionChecks++;
+							if(legalMoves.isLegal(position, newAngle, projPos)
+									& !((newAngle + 180) % 360 == angle))
+							{
+								projDistList.add(1/(euclidDist(projPos, targetPoint)));
+							}
+							else
+							{
+								projDistList.add(-1.0);
+							}
+						}
+						index = projDistList.indexOf(Collections.max(projDistList)) + 1;
+						angle = (angle + 10 * index) % 360;
+					}
+
+					newPosition = step(position, angle);
+				}
+
+				angleHistory.add(angle);
+				flight.planningNanos += System.nanoTime() - stepStart;
+
+				sensProx = flight.add(i, angle, newPosition, targetPoint);
+				position = newPosition;
+			}
+		}
+
+		if(planner != null) flight.collisionChecks += planner.getCollisionChecks();
+		return flight;
+	}
+
+	private static Point step(Point position, int angle)
+	{
+		return Point.fromLngLat(position.longitude() + LatticePlanner.stepLng(angle),
+								position.latitude()  + LatticePlanner.stepLat(angle));
+	}
+
+	private static double euclidDist(Point pos1, Point pos2)
+	{
+		double x1minusx2 = pos1.longitude()-pos2.longitude();
+		double y1minusy2 = pos1.latitude()-pos2.latitude();
+		return Math.sqrt(Math.pow(x1minusx2, 2) + Math.pow(y1minusy2, 2));
+	}
+
+	public class Flight
+	/**
+	 * The moves of one simulated flight. Position 0 is the start and position m is where the
+	 * drone is after move m; each move also records the target it read, or -1 if none.
+	 */
+	{
+		private int moves;
+		private final int[] angles = new int[MAX_MOVES + 1];
+		private final double[] lng = new double[MAX_MOVES + 1];
+		private final double[] lat = new double[MAX_MOVES + 1];
+		private final int[] reads = new int[MAX_MOVES + 1];
+		private int targetsRead;
+		private boolean returned;
+
+		private long collisionChecks;
+		private long avoidanceIterations;
+		private long randomEscapes;
+		private long planningNanos;
+
+		private Flight()
+		{
+		}
+
+		private boolean add(int target, int angle, Point newPosition, Point targetPoint)
+		/**
+		 * This method records a move and returns whether it ended within reading distance of
+		 * the current target, counting the reading if so.
+		 */
+		{
+			moves++;
+			angles[moves] = angle;
+			lng[moves] = newPosition.longitude();
+			lat[moves] = newPosition.latitude();
+			reads[moves] = -1;
+
+			if(euclidDist(newPosition, targetPoint) > LatticePlanner.READ_DISTANCE) return false;
+
+			if(target < targets.size())
+			{
+				reads[moves] = target;
+				targetsRead++;
+			}
+			else
+			{
+				returned = true;
+			}
+			return true;
+		}
+
+		public int getMoves()
+		{
+			return moves;
+		}
+
+		public int getAngle(int move)
+		{
+			return angles[move];
+		}
+
+		public Point getPosition(int move)
+		/**
+		 * This method returns where the drone is after the given move, or its start for move 0.
+		 */
+		{
+			return move == 0 ? startPosition : Point.fromLngLat(lng[move], lat[move]);
+		}
+
+		public int getTargetRead(int move)
+		/**
+		 * This method returns the index of the target read by the given move, or -1 if none was.
+		 */
+		{
+			return reads[move];
+		}
+
+		public int getTargetsRead()
+		{
+			return targetsRead;
+		}
+
+		public boolean isComplete()
+		/**
+		 * This method returns whether every target was read and the drone made it back to its start.
+		 */
+		{
+			return targetsRead == targets.size() && returned;
+		}
+
+		public long getCollisionChecks()
+		{
+			return collisionChecks;
+		}
+
+		public long getAvoidanceIterations()
+		{
+			return avoidanceIterations;
+		}
+
+		public long getRandomEscapes()
+		{
+			return randomEscapes;
+		}
+
+		public long getPlanningNanos()
+		{
+			return planningNanos;
+		}
+	}
+}
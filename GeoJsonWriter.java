@@ -0,0 +1,98 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+
+public class GeoJsonWriter implements Closeable
+/**
+ * This class writes a GeoJSON Feature Collection one feature at a time, so that the features
+ * never have to be gathered into a list or the whole document built up as a single String.
+ * The output is identical to calling FeatureCollection.toJson() on the same features, and
+ * can optionally be gzip compressed.
+ */
+{
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// The text mapbox puts around the features, taken from an empty collection so that the
+	// output always matches the library's own
+	private static final String PREFIX;
+	private static final String SUFFIX;
+	static
+	{
+		String empty = FeatureCollection.fromFeatures(List.<Feature>of()).toJson();
+		int split = empty.lastIndexOf("[]") + 1;
+		PREFIX = empty.substring(0, split);
+		SUFFIX = empty.substring(split);
+	}
+
+	// Define attributes
+	private final Writer out;
+	private boolean first;
+
+	// Constructor
+	public GeoJsonWriter(WritableByteChannel channel, boolean gzip) throws IOException
+	{
+		OutputStream stream = Channels.newOutputStream(channel);
+		if(gzip) stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+
+		this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+		this.first = true;
+		out.write(PREFIX);
+	}
+
+	public static GeoJsonWriter open(Path file, boolean gzip) throws IOException
+	/**
+	 * This method creates (or replaces) the given file and returns a writer for it. When gzip
+	 * is set the caller is expected to have given the file a '.gz' extension.
+	 */
+	{
+		var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+		return new GeoJsonWriter(channel, gzip);
+	}
+
+	public void writeFeature(Feature feature) throws IOException
+	/**
+	 * This method appends a single feature to the collection.
+	 */
+	{
+		writeFeatureJson(feature.toJson());
+	}
+
+	public void writeFeatureJson(String featureJson) throws IOException
+	/**
+	 * This method appends a feature that has already been converted to JSON, for callers that
+	 * serialise features on other threads.
+	 */
+	{
+		if(!first) out.write(',');
+		first = false;
+
+		out.write(featureJson);
+	}
+
+	@Override
+	public void close() throws IOException
+	/**
+	 * This method ends the collection and closes the underlying file.
+	 */
+	{
+		out.write(SUFFIX);
+		out.close();
+	}
+}
@@ -0,0 +1,167 @@
+package uk.ac.ed.inf.heatmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.ed.inf.aqmaps.ReadingClass;
+
+/**
+ * The following class reads and writes a heatmap as a compact binary file instead of GeoJSON.
+ * The file is a header giving the grid's bounds and size, followed by the reading class of every
+ * cell (see ReadingClass) packed two to a byte, row by row from the north-west corner.  A grid
+ * of a million cells takes under 500KB, and can be expanded back to the usual GeoJSON on demand.
+ *
+ * The header is the 4 bytes "HMGR", a version number, the west, east, north and south edges as
+ * doubles and the number of rows and columns, all big-endian.
+ */
+
+public class GridFile
+{
+	private static final byte[] MAGIC = { 'H', 'M', 'G', 'R' };
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = MAGIC.length + 4 + 4*8 + 4 + 4;
+
+	private final HeatmapGrid grid;
+	private final byte[] packed;
+
+	private GridFile(HeatmapGrid grid, byte[] packed)
+	{
+		this.grid = grid;
+		this.packed = packed;
+	}
+
+	public static void main(String[] args) throws IOException
+	// Usage: GridFile <grid file> [--gzip]
+	// Expands a grid file back to 'heatmap.geojson' (or 'heatmap.geojson.gz')
+	{
+		boolean gzip = Arrays.asList(args).contains("--gzip");
+		read(Path.of(args[0])).writeGeoJson(Path.of(gzip ? "heatmap.geojson.gz" : "heatmap.geojson"), gzip);
+	}
+
+	public static void write(Path file, HeatmapGrid grid, byte[] classes) throws IOException
+	// This method writes the class of every cell of the grid to the file, replacing it if it exists
+	{
+		if (classes.length != grid.size())
+		{
+			throw new IllegalArgumentException("Expected " + grid.size() + " cell classes but got " + classes.length);
+		}
+
+		var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		header.put(MAGIC).putInt(VERSION);
+		header.putDouble(grid.west()).putDouble(grid.east()).putDouble(grid.north()).putDouble(grid.south());
+		header.putInt(grid.getRows()).putInt(grid.getCols());
+		header.flip();
+
+		// Each byte holds two cells, the first in the high four bits
+		var body = ByteBuffer.allocate((classes.length + 1) / 2);
+		for (int i = 0; i < classes.length; i += 2)
+		{
+			int high = classes[i];
+			int low = i + 1 < classes.length ? classes[i + 1] : 0;
+			body.put((byte) (high << 4 | low));
+		}
+		body.flip();
+
+		try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			while (header.hasRemaining() || body.hasRemaining())
+			{
+				channel.write(new ByteBuffer[] { header, body });
+			}
+		}
+	}
+
+	public static GridFile read(Path file) throws IOException
+	// This method reads a grid file written by 'write'.  The file is memory mapped and its cells are
+	// copied out still packed
+	{
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if (channel.size() < HEADER_SIZE)
+			{
+				throw new IOException(file + " is too short to be a grid file");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.BIG_ENDIAN);
+
+			var magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			int version = buffer.getInt();
+			if (!Arrays.equals(magic, MAGIC) || version != VERSION)
+			{
+				throw new IOException(file + " is not a version " + VERSION + " grid file");
+			}
+
+			double west = buffer.getDouble();
+			double east = buffer.getDouble();
+			double north = buffer.getDouble();
+			double south = buffer.getDouble();
+			int rows = buffer.getInt();
+			int cols = buffer.getInt();
+			var grid = new HeatmapGrid(west, east, north, south, rows, cols);
+
+			long expected = HEADER_SIZE + ((long) rows * cols + 1) / 2;
+			if (channel.size() != expected)
+			{
+				throw new IOException(file + " should be " + expected + " bytes for a " + rows + "x" + cols
+									  + " grid but is " + channel.size());
+			}
+
+			var packed = new byte[buffer.remaining()];
+			buffer.get(packed);
+			return new GridFile(grid, packed);
+		}
+	}
+
+	public HeatmapGrid getGrid()
+	{
+		return grid;
+	}
+
+	public byte classAt(int index)
+	// This method returns the reading class of a single cell
+	{
+		int cells = packed[index >> 1];
+		return (byte) ((index & 1) == 0 ? (cells >> 4) & 0xf : cells & 0xf);
+	}
+
+	public byte[] getClasses()
+	// This method returns the reading class of every cell, one to a byte
+	{
+		var classes = new byte[grid.size()];
+		for (int i = 0; i < classes.length; i++)
+		{
+			classes[i] = classAt(i);
+		}
+		return classes;
+	}
+
+	public void writeGeoJson(Path file, boolean gzip) throws IOException
+	// This method writes the grid out as the same GeoJSON App would have written for it.  The colours
+	// are looked up a cell at a time, so the cells are never expanded into a list of Strings
+	{
+		List<String> colourMap = new AbstractList<String>()
+		{
+			@Override
+			public String get(int index)
+			{
+				return ReadingClass.colour(classAt(index));
+			}
+
+			@Override
+			public int size()
+			{
+				return grid.size();
+			}
+		};
+		App.geojsonConvert(grid, colourMap, file, gzip);
+	}
+}
@@ -0,0 +1,116 @@
+package uk.ac.ed.inf.heatmap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.ed.inf.aqmaps.ReadingClass;
+
+/**
+ * Unit tests for GridFile, writing grids to a temporary folder and reading them back.
+ */
+
+public class GridFileTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTripKeepsTheGridAndEveryClass() throws IOException
+	{
+		// An odd number of cells, so the last byte holds a single cell
+		var grid = new HeatmapGrid(-3.19, -3.18, 55.95, 55.94, 7, 9);
+		var classes = new byte[grid.size()];
+		for (int i = 0; i < classes.length; i++)
+		{
+			classes[i] = (byte) (i % (ReadingClass.NO_READING + 1));
+		}
+		Path file = folder.getRoot().toPath().resolve("heatmap.grid");
+		GridFile.write(file, grid, classes);
+
+		var read = GridFile.read(file);
+		HeatmapGrid readGrid = read.getGrid();
+		assertEquals(grid.getRows(), readGrid.getRows());
+		assertEquals(grid.getCols(), readGrid.getCols());
+		assertEquals(grid.west(), readGrid.west(), 0);
+		assertEquals(grid.east(), readGrid.east(), 1e-12);
+		assertEquals(grid.north(), readGrid.north(), 0);
+		assertEquals(grid.south(), readGrid.south(), 1e-12);
+		assertArrayEquals(classes, read.getClasses());
+		for (int i = 0; i < classes.length; i++)
+		{
+			assertEquals(classes[i], read.classAt(i));
+		}
+	}
+
+	@Test
+	public void writeReplacesALargerFile() throws IOException
+	{
+		Path file = folder.getRoot().toPath().resolve("heatmap.grid");
+		GridFile.write(file, new HeatmapGrid(0, 1, 1, 0, 20, 20), new byte[400]);
+
+		var classes = new byte[] { 1, 2, 3, 4 };
+		GridFile.write(file, new HeatmapGrid(0, 1, 1, 0, 2, 2), classes);
+		assertArrayEquals(classes, GridFile.read(file).getClasses());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void writeRejectsTheWrongNumberOfClasses() throws IOException
+	{
+		GridFile.write(folder.getRoot().toPath().resolve("heatmap.grid"), new HeatmapGrid(0, 1, 1, 0, 2, 3), new byte[5]);
+	}
+
+	@Test
+	public void readRejectsATruncatedFile() throws IOException
+	{
+		Path file = folder.getRoot().toPath().resolve("heatmap.grid");
+		GridFile.write(file, new HeatmapGrid(0, 1, 1, 0, 4, 4), new byte[16]);
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+		assertReadFails(file);
+	}
+
+	@Test
+	public void readRejectsAFileThatIsTooLong() throws IOException
+	{
+		Path file = folder.getRoot().toPath().resolve("heatmap.grid");
+		GridFile.write(file, new HeatmapGrid(0, 1, 1, 0, 4, 4), new byte[16]);
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length + 1));
+		assertReadFails(file);
+	}
+
+	@Test
+	public void readRejectsOtherFiles() throws IOException
+	{
+		Path shortFile = folder.getRoot().toPath().resolve("short.grid");
+		Files.write(shortFile, new byte[] { 'H', 'M', 'G', 'R' });
+		assertReadFails(shortFile);
+
+		Path otherFile = folder.getRoot().toPath().resolve("other.grid");
+		Files.write(otherFile, new byte[64]);
+		assertReadFails(otherFile);
+	}
+
+	private static void assertReadFails(Path file)
+	{
+		try
+		{
+			GridFile.read(file);
+			fail("Expected reading " + file + " to fail");
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+	}
+}
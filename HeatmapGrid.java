@@ -0,0 +1,122 @@
+package uk.ac.ed.inf.heatmap;
+
+import java.util.List;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+import uk.ac.ed.inf.aqmaps.MapContext;
+
+/**
+ * The following class describes a grid of rectangular cells laid over an area, numbered row by row
+ * starting from the north-west corner.  Each cell's polygon is worked out from its index when it is
+ * needed, so grids with millions of cells never have to be held in memory.
+ */
+
+public class HeatmapGrid 
+{
+	private final double west;
+	private final double north;
+	private final double lonGridLen;
+	private final double latGridLen;
+	private final int rows;
+	private final int cols;
+	
+	public HeatmapGrid(double west, double east, double north, double south, int rows, int cols)
+	{
+		if (rows < 1 || cols < 1)
+		{
+			throw new IllegalArgumentException("A grid needs at least one row and column, got " + rows + "x" + cols);
+		}
+		this.west = west;
+		this.north = north;
+		this.lonGridLen = (east - west)/cols;
+		this.latGridLen = (south - north)/rows;
+		this.rows = rows;
+		this.cols = cols;
+	}
+	
+	public static HeatmapGrid droneZone(int rows, int cols)
+	// This method returns a grid over the drone's flying zone
+	{
+		return new HeatmapGrid(MapContext.MIN_LNG_BOUNDARY, MapContext.MAX_LNG_BOUNDARY,
+							   MapContext.MAX_LAT_BOUNDARY, MapContext.MIN_LAT_BOUNDARY, rows, cols);
+	}
+	
+	public int getRows()
+	{
+		return rows;
+	}
+	
+	public int getCols()
+	{
+		return cols;
+	}
+	
+	public int size()
+	{
+		return rows * cols;
+	}
+	
+	public double west()
+	{
+		return west;
+	}
+	
+	public double north()
+	{
+		return north;
+	}
+	
+	public double east()
+	{
+		return lon(cols);
+	}
+	
+	public double south()
+	{
+		return lat(rows);
+	}
+	
+	public double lon(int col)
+	// This method returns the longitude of the grid line 'col' columns east of the western edge
+	{
+		return west + lonGridLen*(double)col;
+	}
+	
+	public double lat(int row)
+	// This method returns the latitude of the grid line 'row' rows south of the northern edge
+	{
+		return north + latGridLen*(double)row;
+	}
+	
+	public List<Point> cellRing(int index)
+	// This method returns the 5 coordinates of a cell, added clockwise, starting and ending at
+	// the most north-westerly coordinate
+	{
+		int i = index / cols;
+		int j = index % cols;
+		
+		Point northWest = Point.fromLngLat(lon(j), lat(i));
+		return List.of(northWest,
+					   Point.fromLngLat(lon(j+1), lat(i)),
+					   Point.fromLngLat(lon(j+1), lat(i+1)),
+					   Point.fromLngLat(lon(j), lat(i+1)),
+					   northWest);
+	}
+	
+	public Polygon cell(int index)
+	// This method returns the polygon of a single cell
+	{
+		return Polygon.fromLngLats(List.of(cellRing(index)));
+	}
+	
+	public double centreLon(int index)
+	{
+		return west + lonGridLen*((index % cols) + 0.5);
+	}
+	
+	public double centreLat(int index)
+	{
+		return north + latGridLen*((index / cols) + 0.5);
+	}
+}
@@ -0,0 +1,544 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HistoryStore implements Closeable
+/**
+ * This class keeps the readings of every mission flown in a directory on disk, so that the
+ * history of a sensor or of a day can be looked up without reading back the GeoJSON files.
+ * Readings are only ever appended.
+ *
+ * The readings are stored in segment files of a fixed number of rows, each memory-mapped and
+ * laid out as columns: after a small header come the sensor ids of every row, then their days,
+ * readings, batteries, longitudes and latitudes. Sensors are stored as small integer ids, and
+ * 'sensors.txt' holds the What3Words address of each id, one per line. A query only reads the
+ * columns it needs, and skips any segment whose range of days it does not overlap.
+ *
+ * Every mission is appended as it is, so flying the same day twice records it twice. All
+ * methods are synchronised so that the missions of a batch can share one store. Appends also
+ * hold a lock on 'append.lock' in the directory, so that separate processes can append to the
+ * same store; each process should open a store only once.
+ */
+{
+	// File layout
+	private static final int MAGIC = 0x48495354; // "HIST"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int ROW_SIZE = 4 + 4 + 8 + 8 + 8 + 8;
+	static final int SEGMENT_ROWS = 1 << 14;
+
+	private static final String DICTIONARY = "sensors.txt";
+	private static final String LOCK = "append.lock";
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+	// Define attributes
+	private final Path directory;
+	private final List<String> sensorNames;
+	private final Map<String, Integer> sensorIds;
+	private final List<Segment> segments;
+
+	// Constructor
+	public HistoryStore(Path directory) throws IOException
+	/**
+	 * Opens the store in the given directory, creating it if it does not exist yet.
+	 */
+	{
+		this.directory = directory;
+		this.sensorNames = new ArrayList<String>();
+		this.sensorIds = new HashMap<String, Integer>();
+		this.segments = new ArrayList<Segment>();
+		Files.createDirectories(directory);
+		reload();
+	}
+
+	public static void main(String[] args) throws IOException
+	// Usage: HistoryStore <directory> sensor <what3words> [from DD-MM-YYYY] [to DD-MM-YYYY]
+	//        HistoryStore <directory> days <from DD-MM-YYYY> <to DD-MM-YYYY>
+	{
+		try(var history = new HistoryStore(Path.of(args[0])))
+		{
+			if(args[1].equals("sensor"))
+			{
+				LocalDate from = args.length > 3 ? LocalDate.parse(args[3], DATE_FORMAT) : LocalDate.MIN;
+				LocalDate to = args.length > 4 ? LocalDate.parse(args[4], DATE_FORMAT) : LocalDate.MAX;
+				System.out.print(history.timeSeries(args[2], from, to));
+			}
+			else if(args[1].equals("days"))
+			{
+				System.out.print(history.dailyAggregates(LocalDate.parse(args[2], DATE_FORMAT), LocalDate.parse(args[3], DATE_FORMAT)));
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unknown query: " + args[1]);
+			}
+		}
+	}
+
+	public synchronized void append(LocalDate date, ReadingsStore readings) throws IOException
+	/**
+	 * This method appends every reading of a mission flown on the given date, holding the
+	 * directory's lock throughout. Anything other processes appended is read in first, so ids
+	 * and segment names are never handed out twice.
+	 */
+	{
+		try(var channel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+		{
+			FileLock lock = channel.lock();
+			try
+			{
+				reload();
+				appendLocked(date, readings);
+			}
+			finally
+			{
+				lock.release();
+			}
+		}
+	}
+
+	private void appendLocked(LocalDate date, ReadingsStore readings) throws IOException
+	/**
+	 * New sensors are written to the dictionary before any row refers to them, and are only
+	 * given their ids in memory once that write has succeeded. The row count in each segment's
+	 * header is only raised once its rows have been written.
+	 */
+	{
+		var newNames = new ArrayList<String>();
+		var newIds = new HashMap<String, Integer>();
+		var ids = new int[readings.size()];
+		for(int i = 0; i < readings.size(); i++)
+		{
+			String name = readings.getLocation(i);
+			Integer id = sensorIds.get(name);
+			if(id == null) id = newIds.get(name);
+			if(id == null)
+			{
+				id = sensorNames.size() + newNames.size();
+				newIds.put(name, id);
+				newNames.add(name);
+			}
+			ids[i] = id;
+		}
+		if(!newNames.isEmpty())
+		{
+			Files.write(directory.resolve(DICTIONARY), newNames, StandardCharsets.UTF_8,
+						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			sensorIds.putAll(newIds);
+			sensorNames.addAll(newNames);
+		}
+
+		int day = (int) date.toEpochDay();
+		int i = 0;
+		while(i < readings.size())
+		{
+			Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+			if(segment == null || segment.rows == SEGMENT_ROWS)
+			{
+				segment = new Segment(directory.resolve(String.format("segment-%05d.bin", segments.size())), true);
+				segments.add(segment);
+			}
+
+			int first = segment.rows;
+			int count = Math.min(readings.size() - i, SEGMENT_ROWS - first);
+			for(int row = first; row < first + count; row++, i++)
+			{
+				segment.buffer.putInt(Segment.SENSOR + row * 4, ids[i]);
+				segment.buffer.putInt(Segment.DAY + row * 4, day);
+				segment.buffer.putDouble(Segment.READING + row * 8, readings.getReading(i));
+				segment.buffer.putDouble(Segment.BATTERY + row * 8, readings.getBattery(i));
+				segment.buffer.putDouble(Segment.LNG + row * 8, readings.getLongitude(i));
+				segment.buffer.putDouble(Segment.LAT + row * 8, readings.getLatitude(i));
+			}
+			segment.rows = first + count;
+			segment.buffer.putInt(8, segment.rows);
+			segment.firstDay = Math.min(segment.firstDay, day);
+			segment.lastDay = Math.max(segment.lastDay, day);
+		}
+	}
+
+	private void reload() throws IOException
+	/**
+	 * This method reads in the sensors, segments and rows added to the directory since it was
+	 * last read, whether by this store or by another process.
+	 */
+	{
+		Path dictionary = directory.resolve(DICTIONARY);
+		if(Files.exists(dictionary))
+		{
+			List<String> names = Files.readAllLines(dictionary, StandardCharsets.UTF_8);
+			for(int id = sensorNames.size(); id < names.size(); id++)
+			{
+				sensorIds.put(names.get(id), id);
+				sensorNames.add(names.get(id));
+			}
+		}
+
+		for(Segment segment : segments)
+		{
+			if(segment.rows < SEGMENT_ROWS) segment.refresh();
+		}
+
+		var files = new ArrayList<Path>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.bin"))
+		{
+			for(Path file : stream) files.add(file);
+		}
+		files.sort(null);
+		for(int i = segments.size(); i < files.size(); i++)
+		{
+			segments.add(new Segment(files.get(i), false));
+		}
+	}
+
+	public synchronized TimeSeries timeSeries(String what3words, LocalDate from, LocalDate to)
+	/**
+	 * This method returns every reading of one sensor taken from 'from' to 'to' inclusive, in
+	 * order of date. Readings taken on the same day stay in the order they were appended.
+	 */
+	{
+		var series = new TimeSeries(what3words);
+		Integer found = sensorIds.get(what3words);
+		if(found == null) return series;
+		int id = found;
+
+		int firstDay = (int) Math.max(from.toEpochDay(), Integer.MIN_VALUE);
+		int lastDay = (int) Math.min(to.toEpochDay(), Integer.MAX_VALUE);
+		for(Segment segment : segments)
+		{
+			if(segment.lastDay < firstDay || segment.firstDay > lastDay) continue;
+
+			MappedByteBuffer buffer = segment.buffer;
+			for(int row = 0; row < segment.rows; row++)
+			{
+				if(buffer.getInt(Segment.SENSOR + row * 4) != id) continue;
+				int day = buffer.getInt(Segment.DAY + row * 4);
+				if(day < firstDay || day > lastDay) continue;
+
+				series.add(day, buffer.getDouble(Segment.READING + row * 8), buffer.getDouble(Segment.BATTERY + row * 8));
+			}
+		}
+		series.sort();
+		return series;
+	}
+
+	public synchronized DailySummary dailyAggregates(LocalDate from, LocalDate to)
+	/**
+	 * This method returns, for every day from 'from' to 'to' inclusive, how many readings were
+	 * taken and the lowest, highest and mean of them. Missing readings and readings from sensors
+	 * with a low battery are counted apart and left out of the statistics.
+	 */
+	{
+		int firstDay = (int) from.toEpochDay();
+		int lastDay = (int) to.toEpochDay();
+		if(lastDay < firstDay) throw new IllegalArgumentException(from + " is after " + to);
+
+		var summary = new DailySummary(firstDay, lastDay - firstDay + 1);
+		for(Segment segment : segments)
+		{
+			if(segment.lastDay < firstDay || segment.firstDay > lastDay) continue;
+
+			MappedByteBuffer buffer = segment.buffer;
+			for(int row = 0; row < segment.rows; row++)
+			{
+				int day = buffer.getInt(Segment.DAY + row * 4);
+				if(day < firstDay || day > lastDay) continue;
+
+				double reading = buffer.getDouble(Segment.READING + row * 8);
+				double battery = buffer.getDouble(Segment.BATTERY + row * 8);
+				summary.add(day - firstDay, reading, ReadingClass.of(reading, battery) < ReadingClass.LOW_BATTERY);
+			}
+		}
+		return summary;
+	}
+
+	public synchronized int size()
+	/**
+	 * This method returns the number of readings in the store.
+	 */
+	{
+		int rows = 0;
+		for(Segment segment : segments) rows += segment.rows;
+		return rows;
+	}
+
+	public synchronized int getSensorCount()
+	{
+		return sensorNames.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	/**
+	 * This method flushes every segment to disk and closes the files.
+	 */
+	{
+		for(Segment segment : segments)
+		{
+			segment.buffer.force();
+			segment.channel.close();
+		}
+	}
+
+	private static class Segment
+	/**
+	 * One segment file, and the range of days its rows cover.
+	 */
+	{
+		// Offset of each column
+		static final int SENSOR = HEADER_SIZE;
+		static final int DAY = SENSOR + 4 * SEGMENT_ROWS;
+		static final int READING = DAY + 4 * SEGMENT_ROWS;
+		static final int BATTERY = READING + 8 * SEGMENT_ROWS;
+		static final int LNG = BATTERY + 8 * SEGMENT_ROWS;
+		static final int LAT = LNG + 8 * SEGMENT_ROWS;
+
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		int rows;
+		int firstDay = Integer.MAX_VALUE;
+		int lastDay = Integer.MIN_VALUE;
+
+		Segment(Path file, boolean create) throws IOException
+		{
+			channel = create
+					? FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+					: FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) ROW_SIZE * SEGMENT_ROWS);
+
+			if(create)
+			{
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, VERSION);
+				buffer.putInt(8, 0);
+				buffer.putInt(12, SEGMENT_ROWS);
+				return;
+			}
+
+			// Unlike a cache, history cannot be downloaded again, so a file that does not match is
+			// reported rather than discarded
+			if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(12) != SEGMENT_ROWS)
+			{
+				channel.close();
+				throw new IOException(file + " is not a version " + VERSION + " history segment");
+			}
+			refresh();
+		}
+
+		void refresh()
+		/**
+		 * Reads the row count back from the header, taking in any rows another process appended.
+		 */
+		{
+			int total = Math.min(buffer.getInt(8), SEGMENT_ROWS);
+			for(int row = rows; row < total; row++)
+			{
+				int day = buffer.getInt(DAY + row * 4);
+				firstDay = Math.min(firstDay, day);
+				lastDay = Math.max(lastDay, day);
+			}
+			rows = total;
+		}
+	}
+
+	public static class TimeSeries
+	/**
+	 * The readings of one sensor, in order of date.
+	 */
+	{
+		private final String what3words;
+		private int size;
+		private int[] days = new int[16];
+		private double[] readings = new double[16];
+		private double[] batteries = new double[16];
+
+		TimeSeries(String what3words)
+		{
+			this.what3words = what3words;
+		}
+
+		void add(int day, double reading, double battery)
+		{
+			if(size == days.length)
+			{
+				days = Arrays.copyOf(days, size * 2);
+				readings = Arrays.copyOf(readings, size * 2);
+				batteries = Arrays.copyOf(batteries, size * 2);
+			}
+			days[size] = day;
+			readings[size] = reading;
+			batteries[size] = battery;
+			size++;
+		}
+
+		void sort()
+		/**
+		 * Sorts the readings by day, keeping readings of the same day in the order they came.
+		 */
+		{
+			// The rows are nearly always appended in order of date already
+			for(int i = 1; i < size; i++)
+			{
+				int day = days[i];
+				double reading = readings[i];
+				double battery = batteries[i];
+				int j = i - 1;
+				while(j >= 0 && days[j] > day)
+				{
+					days[j + 1] = days[j];
+					readings[j + 1] = readings[j];
+					batteries[j + 1] = batteries[j];
+					j--;
+				}
+				days[j + 1] = day;
+				readings[j + 1] = reading;
+				batteries[j + 1] = battery;
+			}
+		}
+
+		public String getWhat3Words()
+		{
+			return what3words;
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public LocalDate getDate(int i)
+		{
+			return LocalDate.ofEpochDay(days[i]);
+		}
+
+		public double getReading(int i)
+		{
+			return readings[i];
+		}
+
+		public double getBattery(int i)
+		{
+			return batteries[i];
+		}
+
+		@Override
+		public String toString()
+		{
+			var out = new StringBuilder();
+			for(int i = 0; i < size; i++)
+			{
+				out.append(String.format("%s %8.2f %6.2f%n", getDate(i).format(DATE_FORMAT), readings[i], batteries[i]));
+			}
+			return out.toString();
+		}
+	}
+
+	public static class DailySummary
+	/**
+	 * The number of readings taken on each of a range of days, and the lowest, highest and mean
+	 * reading of those that were usable. Days without usable readings have NaN statistics.
+	 */
+	{
+		private final int firstDay;
+		private final int[] counts;
+		private final int[] unusable;
+		private final double[] min;
+		private final double[] max;
+		private final double[] sum;
+
+		DailySummary(int firstDay, int days)
+		{
+			this.firstDay = firstDay;
+			this.counts = new int[days];
+			this.unusable = new int[days];
+			this.min = new double[days];
+			this.max = new double[days];
+			this.sum = new double[days];
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		}
+
+		void add(int day, double reading, boolean usable)
+		{
+			if(!usable)
+			{
+				unusable[day]++;
+				return;
+			}
+			counts[day]++;
+			min[day] = Math.min(min[day], reading);
+			max[day] = Math.max(max[day], reading);
+			sum[day] += reading;
+		}
+
+		public int getDays()
+		{
+			return counts.length;
+		}
+
+		public LocalDate getDate(int day)
+		{
+			return LocalDate.ofEpochDay(firstDay + day);
+		}
+
+		public int getCount(int day)
+		/**
+		 * Returns the number of usable readings taken on the day.
+		 */
+		{
+			return counts[day];
+		}
+
+		public int getUnusable(int day)
+		/**
+		 * Returns the number of readings taken on the day that were missing or had a low battery.
+		 */
+		{
+			return unusable[day];
+		}
+
+		public double getMin(int day)
+		{
+			return counts[day] == 0 ? Double.NaN : min[day];
+		}
+
+		public double getMax(int day)
+		{
+			return counts[day] == 0 ? Double.NaN : max[day];
+		}
+
+		public double getMean(int day)
+		{
+			return counts[day] == 0 ? Double.NaN : sum[day] / counts[day];
+		}
+
+		@Override
+		public String toString()
+		{
+			var out = new StringBuilder();
+			for(int day = 0; day < counts.length; day++)
+			{
+				if(counts[day] == 0 && unusable[day] == 0) continue;
+				out.append(String.format("%s %4d readings %4d unusable  min %8.2f  max %8.2f  mean %8.2f%n",
+										 getDate(day).format(DATE_FORMAT), counts[day], unusable[day],
+										 getMin(day), getMax(day), getMean(day)));
+			}
+			return out.toString();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HistoryStoreTest
+/**
+ * Unit tests for the history store, each on a store in its own temporary folder.
+ */
+{
+	private static final LocalDate DAY = LocalDate.of(2020, 1, 1);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void appendedReadingsAreKeptWhenTheStoreIsReopened() throws IOException
+	{
+		Path directory = folder.getRoot().toPath();
+		try(var history = new HistoryStore(directory))
+		{
+			history.append(DAY, readings(0, "a.a.a", "b.b.b"));
+			history.append(DAY.plusDays(1), readings(10, "b.b.b", "c.c.c"));
+		}
+
+		try(var history = new HistoryStore(directory))
+		{
+			assertEquals(4, history.size());
+			assertEquals(3, history.getSensorCount());
+
+			HistoryStore.TimeSeries series = history.timeSeries("b.b.b", LocalDate.MIN, LocalDate.MAX);
+			assertEquals(2, series.size());
+			assertEquals(DAY, series.getDate(0));
+			assertEquals(1, series.getReading(0), 0);
+			assertEquals(DAY.plusDays(1), series.getDate(1));
+			assertEquals(10, series.getReading(1), 0);
+		}
+	}
+
+	@Test
+	public void sensorsKeepTheirIdsAcrossStores() throws IOException
+	{
+		// Two stores on one directory stand in for two processes appending in turn
+		Path directory = folder.getRoot().toPath();
+		try(var first = new HistoryStore(directory); var second = new HistoryStore(directory))
+		{
+			first.append(DAY, readings(0, "a.a.a", "b.b.b"));
+			second.append(DAY, readings(100, "c.c.c", "a.a.a"));
+			first.append(DAY.plusDays(1), readings(200, "c.c.c", "d.d.d"));
+
+			assertEquals(4, first.getSensorCount());
+			assertEquals(6, first.size());
+			assertEquals(Files.readAllLines(directory.resolve("sensors.txt")).size(), first.getSensorCount());
+		}
+
+		try(var history = new HistoryStore(directory))
+		{
+			assertReadings(history.timeSeries("a.a.a", LocalDate.MIN, LocalDate.MAX), 0, 101);
+			assertReadings(history.timeSeries("b.b.b", LocalDate.MIN, LocalDate.MAX), 1);
+			assertReadings(history.timeSeries("c.c.c", LocalDate.MIN, LocalDate.MAX), 100, 200);
+			assertReadings(history.timeSeries("d.d.d", LocalDate.MIN, LocalDate.MAX), 201);
+		}
+	}
+
+	@Test
+	public void appendsRollOverToANewSegment() throws IOException
+	{
+		Path directory = folder.getRoot().toPath();
+		int rows = HistoryStore.SEGMENT_ROWS + 5;
+		var readings = new ReadingsStore();
+		for(int i = 0; i < rows; i++)
+		{
+			readings.add(i % 200, 50, -3.19, 55.94, "s." + (i % 3));
+		}
+
+		try(var history = new HistoryStore(directory))
+		{
+			history.append(DAY, readings);
+			history.append(DAY.plusDays(1), readings(0, "s.0"));
+			assertEquals(rows + 1, history.size());
+		}
+		assertEquals(2, segmentFiles(directory));
+
+		try(var history = new HistoryStore(directory))
+		{
+			assertEquals(rows + 1, history.size());
+			HistoryStore.DailySummary summary = history.dailyAggregates(DAY, DAY.plusDays(1));
+			assertEquals(rows, summary.getCount(0));
+			assertEquals(1, summary.getCount(1));
+			assertEquals((rows + 2) / 3 + 1, history.timeSeries("s.0", LocalDate.MIN, LocalDate.MAX).size());
+		}
+	}
+
+	@Test
+	public void queriesOnlyReturnTheRangeAskedFor() throws IOException
+	{
+		try(var history = new HistoryStore(folder.getRoot().toPath()))
+		{
+			// Appended out of order, to check the series is sorted by date
+			history.append(DAY.plusDays(2), readings(30, "a.a.a"));
+			history.append(DAY, readings(10, "a.a.a"));
+			history.append(DAY.plusDays(1), readings(20, "a.a.a"));
+			history.append(DAY.plusDays(5), readings(50, "a.a.a"));
+
+			assertReadings(history.timeSeries("a.a.a", DAY.plusDays(1), DAY.plusDays(2)), 20, 30);
+			assertReadings(history.timeSeries("a.a.a", LocalDate.MIN, LocalDate.MAX), 10, 20, 30, 50);
+			assertEquals(0, history.timeSeries("a.a.a", DAY.plusDays(6), LocalDate.MAX).size());
+			assertEquals(0, history.timeSeries("z.z.z", LocalDate.MIN, LocalDate.MAX).size());
+
+			HistoryStore.DailySummary summary = history.dailyAggregates(DAY.plusDays(1), DAY.plusDays(3));
+			assertEquals(3, summary.getDays());
+			assertEquals(1, summary.getCount(0));
+			assertEquals(1, summary.getCount(1));
+			assertEquals(0, summary.getCount(2));
+			assertTrue(Double.isNaN(summary.getMean(2)));
+		}
+	}
+
+	@Test
+	public void dailyAggregatesLeaveOutUnusableReadings() throws IOException
+	{
+		var readings = new ReadingsStore();
+		readings.add(20, 90, -3.19, 55.94, "a.a.a");
+		readings.add(40, 90, -3.19, 55.94, "b.b.b");
+		readings.add(Double.NaN, 90, -3.19, 55.94, "c.c.c");
+		readings.add(250, 5, -3.19, 55.94, "d.d.d");
+
+		try(var history = new HistoryStore(folder.getRoot().toPath()))
+		{
+			history.append(DAY, readings);
+			HistoryStore.DailySummary summary = history.dailyAggregates(DAY, DAY);
+			assertEquals(2, summary.getCount(0));
+			assertEquals(2, summary.getUnusable(0));
+			assertEquals(20, summary.getMin(0), 0);
+			assertEquals(40, summary.getMax(0), 0);
+			assertEquals(30, summary.getMean(0), 0);
+		}
+	}
+
+	private static ReadingsStore readings(double firstReading, String... sensors)
+	/**
+	 * Returns a reading for each sensor, counting up from the first reading.
+	 */
+	{
+		var readings = new ReadingsStore();
+		for(int i = 0; i < sensors.length; i++)
+		{
+			readings.add(firstReading + i, 50, -3.19, 55.94, sensors[i]);
+		}
+		return readings;
+	}
+
+	private static void assertReadings(HistoryStore.TimeSeries series, double... expected)
+	{
+		assertEquals(expected.length, series.size());
+		for(int i = 0; i < expected.length; i++)
+		{
+			assertEquals(expected[i], series.getReading(i), 0);
+		}
+	}
+
+	private static int segmentFiles(Path directory) throws IOException
+	{
+		int count = 0;
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.bin"))
+		{
+			for(Path file : stream) count++;
+		}
+		return count;
+	}
+}
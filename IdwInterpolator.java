@@ -0,0 +1,156 @@
+package uk.ac.ed.inf.heatmap;
+
+import java.util.stream.IntStream;
+
+import uk.ac.ed.inf.aqmaps.ReadingClass;
+import uk.ac.ed.inf.aqmaps.ReadingsStore;
+
+/**
+ * The following class estimates the air quality anywhere in the drone's flying zone from the
+ * readings the drone took, using inverse distance weighting: the estimate at a position is the
+ * average of the readings, each weighted by one over its distance to the position raised to a
+ * power.  A reading taken exactly at the position is used as it is.
+ *
+ * The average can be taken over every reading or over only the nearest few, which are found with
+ * a k-d tree.  Distances are measured in degrees, as they are everywhere else in the drone's code.
+ */
+
+public class IdwInterpolator
+{
+	public static final double DEFAULT_POWER = 2;
+
+	private final double[] lng;
+	private final double[] lat;
+	private final double[] values;
+	private final double power;
+	private final int neighbours;
+	private final KdTree tree;
+
+	public IdwInterpolator(double[] lng, double[] lat, double[] values, double power, int neighbours)
+	// The readings 'values' were taken at (lng, lat).  When 'neighbours' is 0, or at least the
+	// number of readings, every reading is used for every estimate
+	{
+		if (lng.length != lat.length || lng.length != values.length)
+		{
+			throw new IllegalArgumentException("Got " + lng.length + " longitudes, " + lat.length + " latitudes and "
+											   + values.length + " readings");
+		}
+		if (power <= 0 || neighbours < 0)
+		{
+			throw new IllegalArgumentException("The power must be positive and the neighbours at least 0, got "
+											   + power + " and " + neighbours);
+		}
+		this.lng = lng.clone();
+		this.lat = lat.clone();
+		this.values = values.clone();
+		this.power = power;
+		this.neighbours = neighbours > 0 && neighbours < values.length ? neighbours : 0;
+		this.tree = this.neighbours > 0 ? new KdTree(lng, lat) : null;
+	}
+
+	public static IdwInterpolator fromReadings(ReadingsStore readings, double power, int neighbours)
+	// This method returns an interpolator over the readings the drone took.  Missing readings and
+	// readings from sensors with a low battery are left out, as they are not drawn in colour either
+	{
+		int count = 0;
+		for (int i = 0; i < readings.size(); i++)
+		{
+			if (readings.getClassCode(i) < ReadingClass.LOW_BATTERY) count++;
+		}
+
+		var lng = new double[count];
+		var lat = new double[count];
+		var values = new double[count];
+		int next = 0;
+		for (int i = 0; i < readings.size(); i++)
+		{
+			if (readings.getClassCode(i) < ReadingClass.LOW_BATTERY)
+			{
+				lng[next] = readings.getLongitude(i);
+				lat[next] = readings.getLatitude(i);
+				values[next] = readings.getReading(i);
+				next++;
+			}
+		}
+		return new IdwInterpolator(lng, lat, values, power, neighbours);
+	}
+
+	public int size()
+	{
+		return values.length;
+	}
+
+	public double valueAt(double lon, double lati)
+	// This method returns the estimate at a single position, or NaN if there are no readings
+	{
+		int k = Math.max(neighbours, 1);
+		return valueAt(lon, lati, new int[k], new double[k]);
+	}
+
+	public double[] interpolate(HeatmapGrid grid)
+	// This method returns the estimate at the centre of every cell of the grid, in the grid's order.
+	// The rows are shared out between the cores, and each row reuses the same space for its searches
+	{
+		var result = new double[grid.size()];
+		int cols = grid.getCols();
+		int k = Math.max(neighbours, 1);
+
+		IntStream.range(0, grid.getRows()).parallel().forEach(row -> {
+			var found = new int[k];
+			var distances = new double[k];
+			for (int index = row * cols; index < (row + 1) * cols; index++)
+			{
+				result[index] = valueAt(grid.centreLon(index), grid.centreLat(index), found, distances);
+			}
+		});
+		return result;
+	}
+
+	private double valueAt(double lon, double lati, int[] found, double[] distances)
+	{
+		if (values.length == 0)
+		{
+			return Double.NaN;
+		}
+
+		double weightedSum = 0;
+		double weightSum = 0;
+		if (tree != null)
+		{
+			int count = tree.nearest(lon, lati, neighbours, found, distances);
+			for (int n = 0; n < count; n++)
+			{
+				if (distances[n] == 0)
+				{
+					return values[found[n]];
+				}
+				double weight = weight(distances[n]);
+				weightedSum += weight * values[found[n]];
+				weightSum += weight;
+			}
+		}
+		else
+		{
+			for (int i = 0; i < values.length; i++)
+			{
+				double dx = lon - lng[i];
+				double dy = lati - lat[i];
+				double distance = dx*dx + dy*dy;
+				if (distance == 0)
+				{
+					return values[i];
+				}
+				double weight = weight(distance);
+				weightedSum += weight * values[i];
+				weightSum += weight;
+			}
+		}
+		return weightedSum / weightSum;
+	}
+
+	private double weight(double squaredDistance)
+	// The distances are kept squared, so the usual power of 2 needs no call to Math.pow
+	{
+		return power == 2 ? 1 / squaredDistance : 1 / Math.pow(squaredDistance, power / 2);
+	}
+}
@@ -0,0 +1,151 @@
+package uk.ac.ed.inf.heatmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.ac.ed.inf.aqmaps.ReadingsStore;
+
+/**
+ * Unit tests for IdwInterpolator, over every reading and over only the nearest few.
+ */
+
+public class IdwInterpolatorTest
+{
+	private static final double[] LNG = { 0, 1, 0, 1, 0.5 };
+	private static final double[] LAT = { 0, 0, 1, 1, 0.5 };
+	private static final double[] VALUES = { 10, 20, 30, 40, 100 };
+
+	@Test
+	public void exactHitReturnsTheReading()
+	{
+		for (int neighbours : new int[] { 0, 2 })
+		{
+			var interpolator = new IdwInterpolator(LNG, LAT, VALUES, IdwInterpolator.DEFAULT_POWER, neighbours);
+			for (int i = 0; i < VALUES.length; i++)
+			{
+				assertEquals(VALUES[i], interpolator.valueAt(LNG[i], LAT[i]), 0);
+			}
+		}
+	}
+
+	@Test
+	public void noReadingsGiveNaN()
+	{
+		var interpolator = new IdwInterpolator(new double[0], new double[0], new double[0], IdwInterpolator.DEFAULT_POWER, 3);
+		assertEquals(0, interpolator.size());
+		assertTrue(Double.isNaN(interpolator.valueAt(0.5, 0.5)));
+
+		var grid = new HeatmapGrid(0, 1, 1, 0, 2, 2);
+		for (double value : interpolator.interpolate(grid))
+		{
+			assertTrue(Double.isNaN(value));
+		}
+	}
+
+	@Test
+	public void equidistantReadingsAreAveraged()
+	{
+		var interpolator = new IdwInterpolator(new double[] { 0, 2 }, new double[] { 0, 0 }, new double[] { 10, 30 },
+											   IdwInterpolator.DEFAULT_POWER, 0);
+		assertEquals(20, interpolator.valueAt(1, 0), 1e-12);
+		assertEquals(20, interpolator.valueAt(1, 5), 1e-12);
+	}
+
+	@Test
+	public void nearestNeighboursMatchBruteForce()
+	{
+		var random = new Random(7);
+		int count = 200;
+		var lng = new double[count];
+		var lat = new double[count];
+		var values = new double[count];
+		for (int i = 0; i < count; i++)
+		{
+			lng[i] = random.nextDouble();
+			lat[i] = random.nextDouble();
+			values[i] = random.nextDouble() * 255;
+		}
+
+		for (double power : new double[] { 1, 2, 3 })
+		{
+			var interpolator = new IdwInterpolator(lng, lat, values, power, 8);
+			for (int query = 0; query < 100; query++)
+			{
+				double lon = random.nextDouble();
+				double lati = random.nextDouble();
+				assertEquals(bruteForce(lng, lat, values, power, 8, lon, lati), interpolator.valueAt(lon, lati), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void neighboursAtLeastTheReadingsUseEveryReading()
+	{
+		var all = new IdwInterpolator(LNG, LAT, VALUES, IdwInterpolator.DEFAULT_POWER, 0);
+		var many = new IdwInterpolator(LNG, LAT, VALUES, IdwInterpolator.DEFAULT_POWER, VALUES.length + 3);
+		assertEquals(all.valueAt(0.3, 0.8), many.valueAt(0.3, 0.8), 0);
+	}
+
+	@Test
+	public void interpolateMatchesValueAtEveryCentre()
+	{
+		var interpolator = new IdwInterpolator(LNG, LAT, VALUES, IdwInterpolator.DEFAULT_POWER, 3);
+		var grid = new HeatmapGrid(0, 1, 1, 0, 7, 5);
+		double[] result = interpolator.interpolate(grid);
+		assertEquals(grid.size(), result.length);
+		for (int index = 0; index < grid.size(); index++)
+		{
+			assertEquals(interpolator.valueAt(grid.centreLon(index), grid.centreLat(index)), result[index], 0);
+		}
+	}
+
+	@Test
+	public void fromReadingsLeavesOutUnusableReadings()
+	{
+		var readings = new ReadingsStore();
+		readings.add(50, 90, 0, 0, "a.b.c");
+		readings.add(Double.NaN, 90, 1, 0, "d.e.f");
+		readings.add(200, 5, 0, 1, "g.h.i");
+		var interpolator = IdwInterpolator.fromReadings(readings, IdwInterpolator.DEFAULT_POWER, 0);
+
+		assertEquals(1, interpolator.size());
+		assertEquals(50, interpolator.valueAt(0, 1), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorRejectsMismatchedArrays()
+	{
+		new IdwInterpolator(new double[2], new double[2], new double[3], IdwInterpolator.DEFAULT_POWER, 0);
+	}
+
+	private static double bruteForce(double[] lng, double[] lat, double[] values, double power, int k, double lon, double lati)
+	// This method weights the k nearest readings by distance, found by trying each reading in turn
+	{
+		var used = new boolean[values.length];
+		double weightedSum = 0;
+		double weightSum = 0;
+		for (int n = 0; n < k; n++)
+		{
+			int nearest = -1;
+			double nearestDistance = 0;
+			for (int i = 0; i < values.length; i++)
+			{
+				double distance = Math.hypot(lon - lng[i], lati - lat[i]);
+				if (!used[i] && (nearest < 0 || distance < nearestDistance))
+				{
+					nearest = i;
+					nearestDistance = distance;
+				}
+			}
+			used[nearest] = true;
+			double weight = 1 / Math.pow(nearestDistance, power);
+			weightedSum += weight * values[nearest];
+			weightSum += weight;
+		}
+		return weightedSum / weightSum;
+	}
+}
@@ -0,0 +1,184 @@
+package uk.ac.ed.inf.heatmap;
+
+/**
+ * The following class is a two dimensional k-d tree over a fixed set of points, used to find the
+ * points nearest to a position.  The tree is balanced and stored implicitly: the points are
+ * reordered so that each range of the array has its splitting point in the middle, with the
+ * points before it on one side and the points after it on the other.
+ *
+ * A tree is never changed once built, so it can be searched by many threads at once.
+ */
+
+public class KdTree
+{
+	private final double[] x;
+	private final double[] y;
+	private final int[] order;
+
+	public KdTree(double[] xs, double[] ys)
+	{
+		if (xs.length != ys.length)
+		{
+			throw new IllegalArgumentException("Got " + xs.length + " x coordinates but " + ys.length + " y coordinates");
+		}
+		this.x = xs.clone();
+		this.y = ys.clone();
+		this.order = new int[xs.length];
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = i;
+		}
+		build(0, order.length, 0);
+	}
+
+	public int size()
+	{
+		return order.length;
+	}
+
+	public int nearest(double qx, double qy, int k, int[] found, double[] distances)
+	// This method finds the k points nearest to (qx, qy), or every point if there are fewer than k.
+	// The indices of the points (as given to the constructor) and their squared distances are put
+	// into 'found' and 'distances', in no particular order, and the number found is returned
+	{
+		if (k < 1 || found.length < k || distances.length < k)
+		{
+			throw new IllegalArgumentException("Need room for " + k + " neighbours");
+		}
+		return search(0, order.length, 0, qx, qy, k, found, distances, 0);
+	}
+
+	private void build(int lo, int hi, int depth)
+	// This method places the median of the range, along the axis of this depth, in the middle of
+	// the range and then does the same for each half
+	{
+		if (hi - lo < 2)
+		{
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, depth % 2 == 0 ? x : y);
+		build(lo, mid, depth + 1);
+		build(mid + 1, hi, depth + 1);
+	}
+
+	private void select(int lo, int hi, int nth, double[] key)
+	// This method partially sorts order[lo..hi] by key so that position 'nth' holds the point that
+	// would be there if it were fully sorted, with no larger points before it and no smaller after
+	{
+		while (lo < hi)
+		{
+			double pivot = key[order[(lo + hi) >>> 1]];
+			int i = lo;
+			int j = hi;
+			while (i <= j)
+			{
+				while (key[order[i]] < pivot) i++;
+				while (key[order[j]] > pivot) j--;
+				if (i <= j)
+				{
+					int swap = order[i];
+					order[i] = order[j];
+					order[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (nth <= j) hi = j;
+			else if (nth >= i) lo = i;
+			else return;
+		}
+	}
+
+	private int search(int lo, int hi, int depth, double qx, double qy, int k, int[] found, double[] distances, int count)
+	// This method searches the range for points nearer than the furthest found so far, keeping the
+	// points found as a max-heap on distance so the furthest can be replaced quickly
+	{
+		if (lo >= hi)
+		{
+			return count;
+		}
+		int mid = (lo + hi) >>> 1;
+		int point = order[mid];
+		double dx = qx - x[point];
+		double dy = qy - y[point];
+		double distance = dx*dx + dy*dy;
+
+		if (count < k)
+		{
+			found[count] = point;
+			distances[count] = distance;
+			siftUp(found, distances, count);
+			count++;
+		}
+		else if (distance < distances[0])
+		{
+			found[0] = point;
+			distances[0] = distance;
+			siftDown(found, distances, count);
+		}
+
+		// Search the side the query is on first, and the other side only if it could hold a nearer point
+		double split = depth % 2 == 0 ? dx : dy;
+		if (split < 0)
+		{
+			count = search(lo, mid, depth + 1, qx, qy, k, found, distances, count);
+			if (count < k || split*split < distances[0])
+			{
+				count = search(mid + 1, hi, depth + 1, qx, qy, k, found, distances, count);
+			}
+		}
+		else
+		{
+			count = search(mid + 1, hi, depth + 1, qx, qy, k, found, distances, count);
+			if (count < k || split*split < distances[0])
+			{
+				count = search(lo, mid, depth + 1, qx, qy, k, found, distances, count);
+			}
+		}
+		return count;
+	}
+
+	private static void siftUp(int[] found, double[] distances, int i)
+	{
+		while (i > 0)
+		{
+			int parent = (i - 1) / 2;
+			if (distances[parent] >= distances[i])
+			{
+				return;
+			}
+			swap(found, distances, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] found, double[] distances, int count)
+	{
+		int i = 0;
+		while (true)
+		{
+			int largest = i;
+			int left = 2*i + 1;
+			int right = left + 1;
+			if (left < count && distances[left] > distances[largest]) largest = left;
+			if (right < count && distances[right] > distances[largest]) largest = right;
+			if (largest == i)
+			{
+				return;
+			}
+			swap(found, distances, i, largest);
+			i = largest;
+		}
+	}
+
+	private static void swap(int[] found, double[] distances, int i, int j)
+	{
+		int point = found[i];
+		found[i] = found[j];
+		found[j] = point;
+		double distance = distances[i];
+		distances[i] = distances[j];
+		distances[j] = distance;
+	}
+}
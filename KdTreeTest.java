@@ -0,0 +1,127 @@
+package uk.ac.ed.inf.heatmap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for KdTree, checking its searches against a brute force search over the same points.
+ */
+
+public class KdTreeTest
+{
+	@Test
+	public void nearestMatchesBruteForce()
+	{
+		var random = new Random(42);
+		var xs = new double[500];
+		var ys = new double[500];
+		for (int i = 0; i < xs.length; i++)
+		{
+			xs[i] = random.nextDouble();
+			ys[i] = random.nextDouble();
+		}
+		var tree = new KdTree(xs, ys);
+
+		for (int k : new int[] { 1, 5, 17 })
+		{
+			for (int query = 0; query < 200; query++)
+			{
+				double qx = random.nextDouble() * 1.2 - 0.1;
+				double qy = random.nextDouble() * 1.2 - 0.1;
+				assertNearest(xs, ys, tree, qx, qy, k);
+			}
+		}
+	}
+
+	@Test
+	public void nearestHandlesRepeatedCoordinates()
+	{
+		// A small lattice with every point given three times, so many splits fall on equal keys
+		var xs = new double[75];
+		var ys = new double[75];
+		for (int i = 0; i < xs.length; i++)
+		{
+			xs[i] = (i / 3) % 5;
+			ys[i] = (i / 3) / 5;
+		}
+		var tree = new KdTree(xs, ys);
+
+		for (double qx = -1; qx <= 5; qx += 0.5)
+		{
+			for (double qy = -1; qy <= 5; qy += 0.5)
+			{
+				assertNearest(xs, ys, tree, qx, qy, 7);
+			}
+		}
+	}
+
+	@Test
+	public void nearestReturnsEveryPointWhenThereAreFewerThanK()
+	{
+		var tree = new KdTree(new double[] { 0, 1, 2 }, new double[] { 0, 1, 2 });
+		var found = new int[5];
+		var distances = new double[5];
+
+		assertEquals(3, tree.nearest(0, 0, 5, found, distances));
+		int[] indices = Arrays.copyOf(found, 3);
+		Arrays.sort(indices);
+		assertArrayEquals(new int[] { 0, 1, 2 }, indices);
+	}
+
+	@Test
+	public void emptyTreeFindsNothing()
+	{
+		var tree = new KdTree(new double[0], new double[0]);
+		assertEquals(0, tree.size());
+		assertEquals(0, tree.nearest(0, 0, 1, new int[1], new double[1]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nearestRejectsTooLittleRoom()
+	{
+		new KdTree(new double[] { 0 }, new double[] { 0 }).nearest(0, 0, 2, new int[1], new double[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorRejectsMismatchedCoordinates()
+	{
+		new KdTree(new double[2], new double[3]);
+	}
+
+	private static void assertNearest(double[] xs, double[] ys, KdTree tree, double qx, double qy, int k)
+	// The points found may differ from brute force where distances tie, so the distances are compared,
+	// after checking that each one belongs to the point it was reported for
+	{
+		var found = new int[k];
+		var distances = new double[k];
+		int count = tree.nearest(qx, qy, k, found, distances);
+		assertEquals(Math.min(k, xs.length), count);
+
+		for (int n = 0; n < count; n++)
+		{
+			assertEquals(squaredDistance(xs, ys, found[n], qx, qy), distances[n], 0);
+		}
+
+		var all = new double[xs.length];
+		for (int i = 0; i < xs.length; i++)
+		{
+			all[i] = squaredDistance(xs, ys, i, qx, qy);
+		}
+		Arrays.sort(all);
+		double[] nearest = Arrays.copyOf(distances, count);
+		Arrays.sort(nearest);
+		assertArrayEquals(Arrays.copyOf(all, count), nearest, 0);
+	}
+
+	private static double squaredDistance(double[] xs, double[] ys, int i, double qx, double qy)
+	{
+		double dx = qx - xs[i];
+		double dy = qy - ys[i];
+		return dx*dx + dy*dy;
+	}
+}
@@ -0,0 +1,263 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.mapbox.geojson.Point;
+
+public class LatticePlanner
+/**
+ * This class plans a single leg of the drone's flight with an A* search over the positions the
+ * drone can actually reach: every move is exactly 0.0003 degrees at one of the 36 headings that
+ * are multiples of 10 degrees. A leg ends once the drone is within 0.0002 degrees of its target,
+ * and no move may cross a 'No Fly Zone' or leave the flying boundary.
+ *
+ * Positions that round to the same point on a fine grid are treated as the same state, which
+ * keeps the search small while giving the fewest moves in practice.
+ */
+{
+	public static final double MOVE_LENGTH = 0.0003;
+	public static final double READ_DISTANCE = 0.0002;
+	public static final int HEADINGS = 36;
+
+	// Size of the grid positions are rounded to when checking whether they have been seen
+	private static final double QUANTUM = 0.00003;
+
+	// Searches that expand more positions than this are abandoned, as the target is unreachable
+	private static final int MAX_EXPANSIONS = 200000;
+
+	// Offsets of a move in each heading, computed exactly as Controller does. Every class that
+	// moves the drone takes its moves from here, through stepLng and stepLat
+	private static final double[] STEP_LNG = new double[HEADINGS];
+	private static final double[] STEP_LAT = new double[HEADINGS];
+	static
+	{
+		for(int h = 0; h < HEADINGS; h++)
+		{
+			STEP_LNG[h] = Math.cos(Math.toRadians(h * 10)) * MOVE_LENGTH;
+			STEP_LAT[h] = Math.sin(Math.toRadians(h * 10)) * MOVE_LENGTH;
+		}
+	}
+
+	public static double stepLng(int angle)
+	/**
+	 * This method returns how far a move in the given heading, in degrees, changes the longitude.
+	 */
+	{
+		return STEP_LNG[angle / 10];
+	}
+
+	public static double stepLat(int angle)
+	{
+		return STEP_LAT[angle / 10];
+	}
+
+	// Define attributes
+	private final NoFlyZoneIndex nfz;
+	private final LegalMoveLattice legalMoves;
+
+	// Search nodes, stored as parallel arrays that grow as needed
+	private double[] lng;
+	private double[] lat;
+	private int[] moves;
+	private int[] parent;
+	private int[] heading;
+	private int nodeCount;
+
+	// Number of moves checked against the 'No Fly Zones' over every plan made
+	private long collisionChecks;
+
+	// Binary heap of node indices ordered by estimated total moves
+	private int[] heap;
+	private int[] priority;
+	private int heapSize;
+
+	// Constructors
+	public LatticePlanner(NoFlyZoneIndex nfz)
+	{
+		this.nfz = nfz;
+		this.legalMoves = null;
+	}
+
+	public LatticePlanner(LegalMoveLattice legalMoves)
+	/**
+	 * Creates a planner that looks up whether moves cross the 'No Fly Zones' in the lattice,
+	 * only testing them exactly near the buildings.
+	 */
+	{
+		this.nfz = legalMoves.getNoFlyZoneIndex();
+		this.legalMoves = legalMoves;
+	}
+
+	public int[] plan(Point start, Point target, int maxMoves)
+	/**
+	 * This method returns the angles of the shortest sequence of legal moves that takes the drone
+	 * from start to within reading distance of target, or null if no such sequence exists within
+	 * maxMoves moves. At least one move is always made, as a reading is taken after a move.
+	 */
+	{
+		reset();
+		double targetLng = target.longitude();
+		double targetLat = target.latitude();
+
+		// Fewest moves found so far to each rounded position
+		var bestMoves = new HashMap<Long, Integer>();
+		addNode(start.longitude(), start.latitude(), 0, -1, -1);
+		push(0, estimate(start.longitude(), start.latitude(), targetLng, targetLat));
+
+		int expansions = 0;
+		while(heapSize > 0 && expansions < MAX_EXPANSIONS)
+		{
+			int node = pop();
+
+			if(moves[node] > 0 && Math.hypot(lng[node] - targetLng, lat[node] - targetLat) <= READ_DISTANCE)
+			{
+				return path(node);
+			}
+			if(moves[node] >= maxMoves) continue;
+
+			// Skip positions that have since been reached in fewer moves
+			if(moves[node] > 0 && bestMoves.get(key(lng[node], lat[node])) < moves[node]) continue;
+			expansions++;
+
+			int childMoves = moves[node] + 1;
+			for(int h = 0; h < HEADINGS; h++)
+			{
+				double nextLng = lng[node] + STEP_LNG[h];
+				double nextLat = lat[node] + STEP_LAT[h];
+
+				if(!MapContext.insideBoundary(nextLng, nextLat)) continue;
+
+				long key = key(nextLng, nextLat);
+				Integer known = bestMoves.get(key);
+				if(known != null && known <= childMoves) continue;
+				collisionChecks++;
+				if(legalMoves != null ? !legalMoves.isLegal(lng[node], lat[node], h * 10, nextLng, nextLat)
+									  : nfz.intersects(lng[node], lat[node], nextLng, nextLat)) continue;
+
+				bestMoves.put(key, childMoves);
+				int child = addNode(nextLng, nextLat, childMoves, node, h * 10);
+				push(child, childMoves + estimate(nextLng, nextLat, targetLng, targetLat));
+			}
+		}
+		return null;
+	}
+
+	public long getCollisionChecks()
+	{
+		return collisionChecks;
+	}
+
+	private static int estimate(double fromLng, double fromLat, double toLng, double toLat)
+	/**
+	 * This method returns a lower bound on the moves needed to get within reading distance,
+	 * as no move can close the distance by more than its length.
+	 */
+	{
+		double dist = Math.hypot(fromLng - toLng, fromLat - toLat);
+		return (int) Math.max(0, Math.ceil((dist - READ_DISTANCE) / MOVE_LENGTH));
+	}
+
+	private static long key(double lng, double lat)
+	{
+		long x = Math.round(lng / QUANTUM);
+		long y = Math.round(lat / QUANTUM);
+		return (x << 32) ^ (y & 0xffffffffL);
+	}
+
+	private int[] path(int node)
+	{
+		int[] angles = new int[moves[node]];
+		for(int i = angles.length - 1; i >= 0; i--)
+		{
+			angles[i] = heading[node];
+			node = parent[node];
+		}
+		return angles;
+	}
+
+	private void reset()
+	{
+		if(lng == null)
+		{
+			lng = new double[1024];
+			lat = new double[1024];
+			moves = new int[1024];
+			parent = new int[1024];
+			heading = new int[1024];
+			heap = new int[1024];
+			priority = new int[1024];
+		}
+		nodeCount = 0;
+		heapSize = 0;
+	}
+
+	private int addNode(double nodeLng, double nodeLat, int nodeMoves, int nodeParent, int nodeHeading)
+	{
+		if(nodeCount == lng.length)
+		{
+			int size = lng.length * 2;
+			lng = Arrays.copyOf(lng, size);
+			lat = Arrays.copyOf(lat, size);
+			moves = Arrays.copyOf(moves, size);
+			parent = Arrays.copyOf(parent, size);
+			heading = Arrays.copyOf(heading, size);
+		}
+		lng[nodeCount] = nodeLng;
+		lat[nodeCount] = nodeLat;
+		moves[nodeCount] = nodeMoves;
+		parent[nodeCount] = nodeParent;
+		heading[nodeCount] = nodeHeading;
+		return nodeCount++;
+	}
+
+	private void push(int node, int f)
+	{
+		if(heapSize == heap.length)
+		{
+			heap = Arrays.copyOf(heap, heapSize * 2);
+			priority = Arrays.copyOf(priority, heapSize * 2);
+		}
+		int i = heapSize++;
+		while(i > 0)
+		{
+			int up = (i - 1) / 2;
+			if(!before(f, node, priority[up], heap[up])) break;
+			heap[i] = heap[up];
+			priority[i] = priority[up];
+			i = up;
+		}
+		heap[i] = node;
+		priority[i] = f;
+	}
+
+	private int pop()
+	{
+		int top = heap[0];
+		int node = heap[--heapSize];
+		int f = priority[heapSize];
+
+		int i = 0;
+		while(true)
+		{
+			int child = 2 * i + 1;
+			if(child >= heapSize) break;
+			if(child + 1 < heapSize && before(priority[child + 1], heap[child + 1], priority[child], heap[child])) child++;
+			if(!before(priority[child], heap[child], f, node)) break;
+			heap[i] = heap[child];
+			priority[i] = priority[child];
+			i = child;
+		}
+		heap[i] = node;
+		priority[i] = f;
+		return top;
+	}
+
+	private boolean before(int f1, int node1, int f2, int node2)
+	{
+		// Among equal estimates prefer the deeper node, which is closer to the target
+		if(f1 != f2) return f1 < f2;
+		if(moves[node1] != moves[node2]) return moves[node1] > moves[node2];
+		return node1 < node2;
+	}
+}
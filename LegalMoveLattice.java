@@ -0,0 +1,419 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.awt.geom.Line2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class LegalMoveLattice
+/**
+ * This class precomputes which of the drone's 36 moves are legal from each part of the flying
+ * zone. The zone is divided into square cells, and each cell has two 36-bit masks: headings
+ * that are legal from anywhere in the cell, and headings that are illegal from anywhere in it.
+ * A move is only tested exactly, against the 'No Fly Zones' and the boundary, when its heading
+ * is in neither mask, which only happens near the edges of buildings and of the boundary.
+ *
+ * Every move is exactly LatticePlanner.MOVE_LENGTH long, so the moves in one heading from
+ * anywhere in a cell sweep out the cell stretched along that heading. The heading is legal
+ * from the whole cell if no building edge comes near that region and the cell moved by one
+ * step lies well inside the boundary. Answers are always the same as the exact test gives.
+ *
+ * The masks depend only on the 'No Fly Zones', so they can be saved to a file along with a
+ * hash of the buildings, and loaded again by later missions over the same buildings.
+ */
+{
+	public static final int HEADINGS = 36;
+	public static final double CELL_SIZE = 0.00003;
+
+	// Regions are widened by this much so rounding can never put a move outside its cell's region
+	private static final double MARGIN = 1e-9;
+
+	// File layout
+	private static final int MAGIC = 0x4c4d4c54; // "LMLT"
+	private static final int VERSION = 1;
+	private static final int HASH_SIZE = 32;
+	private static final int HEADER_SIZE = 16 + HASH_SIZE;
+
+	// Define attributes
+	private final NoFlyZoneIndex nfz;
+	private final byte[] hash;
+	private final int columns;
+	private final int rows;
+	private final long[] legal;
+	private final long[] illegal;
+
+	// Constructor
+	private LegalMoveLattice(NoFlyZoneIndex nfz, byte[] hash, int columns, int rows, long[] legal, long[] illegal)
+	{
+		this.nfz = nfz;
+		this.hash = hash;
+		this.columns = columns;
+		this.rows = rows;
+		this.legal = legal;
+		this.illegal = illegal;
+	}
+
+	public static LegalMoveLattice build(FeatureCollection buildings, NoFlyZoneIndex nfz)
+	/**
+	 * This method works out the masks of every cell for the given 'No Fly Zones'.
+	 */
+	{
+		double[][] edges = edges(buildings);
+		int columns = (int) Math.ceil((MapContext.MAX_LNG_BOUNDARY - MapContext.MIN_LNG_BOUNDARY) / CELL_SIZE);
+		int rows = (int) Math.ceil((MapContext.MAX_LAT_BOUNDARY - MapContext.MIN_LAT_BOUNDARY) / CELL_SIZE);
+		long[] legal = new long[columns * rows];
+		long[] illegal = new long[columns * rows];
+
+		// The region swept from a cell has the same shape for every cell, so it is worked out once
+		// per heading relative to the cell's corner and moved into place for each cell
+		double[][] shapes = new double[HEADINGS][];
+		for(int h = 0; h < HEADINGS; h++)
+		{
+			double[] hull = new double[32];
+			int vertices = sweep(-MARGIN, -MARGIN, CELL_SIZE + MARGIN, CELL_SIZE + MARGIN, LatticePlanner.stepLng(h * 10), LatticePlanner.stepLat(h * 10), hull);
+			shapes[h] = Arrays.copyOf(hull, 2 * vertices);
+		}
+
+		double[] hull = new double[32];
+		double[][] near = new double[edges.length][];
+		double reach = LatticePlanner.MOVE_LENGTH + MARGIN;
+		for(int y = 0; y < rows; y++)
+		{
+			for(int x = 0; x < columns; x++)
+			{
+				double cornerLng = MapContext.MIN_LNG_BOUNDARY + x * CELL_SIZE;
+				double cornerLat = MapContext.MIN_LAT_BOUNDARY + y * CELL_SIZE;
+
+				// Only the edges within one move of the cell can be near any of its regions
+				int nearCount = 0;
+				for(double[] e : edges)
+				{
+					if(Math.max(e[0], e[2]) >= cornerLng - reach && Math.min(e[0], e[2]) <= cornerLng + CELL_SIZE + reach
+							&& Math.max(e[1], e[3]) >= cornerLat - reach && Math.min(e[1], e[3]) <= cornerLat + CELL_SIZE + reach)
+					{
+						near[nearCount++] = e;
+					}
+				}
+
+				for(int h = 0; h < HEADINGS; h++)
+				{
+					// Where the move ends, from anywhere in the cell
+					double stepLng = LatticePlanner.stepLng(h * 10);
+					double stepLat = LatticePlanner.stepLat(h * 10);
+					double endMinLng = cornerLng - MARGIN + stepLng, endMaxLng = cornerLng + CELL_SIZE + MARGIN + stepLng;
+					double endMinLat = cornerLat - MARGIN + stepLat, endMaxLat = cornerLat + CELL_SIZE + MARGIN + stepLat;
+
+					if(endMaxLng <= MapContext.MIN_LNG_BOUNDARY || endMinLng >= MapContext.MAX_LNG_BOUNDARY
+							|| endMaxLat <= MapContext.MIN_LAT_BOUNDARY || endMinLat >= MapContext.MAX_LAT_BOUNDARY)
+					{
+						illegal[y * columns + x] |= 1L << h;
+						continue;
+					}
+					boolean inside = endMinLng > MapContext.MIN_LNG_BOUNDARY && endMaxLng < MapContext.MAX_LNG_BOUNDARY
+								  && endMinLat > MapContext.MIN_LAT_BOUNDARY && endMaxLat < MapContext.MAX_LAT_BOUNDARY;
+					if(!inside) continue;
+
+					if(nearCount == 0)
+					{
+						legal[y * columns + x] |= 1L << h;
+						continue;
+					}
+					double[] shape = shapes[h];
+					for(int v = 0; v < shape.length; v += 2)
+					{
+						hull[v] = cornerLng + shape[v];
+						hull[v + 1] = cornerLat + shape[v + 1];
+					}
+					if(!nearEdge(hull, shape.length / 2, near, nearCount)) legal[y * columns + x] |= 1L << h;
+				}
+			}
+		}
+		return new LegalMoveLattice(nfz, hash(edges), columns, rows, legal, illegal);
+	}
+
+	public static LegalMoveLattice exact(NoFlyZoneIndex nfz)
+	/**
+	 * This method returns a lattice with no cells, which tests every move exactly. It is used
+	 * when a single mission would spend longer building the masks than they would save.
+	 */
+	{
+		return new LegalMoveLattice(nfz, null, 0, 0, new long[0], new long[0]);
+	}
+
+	public static LegalMoveLattice load(Path file, FeatureCollection buildings, NoFlyZoneIndex nfz) throws IOException
+	/**
+	 * This method reads the masks from a file saved for the same 'No Fly Zones'. If the file is
+	 * missing, unreadable or was saved for different buildings, the masks are built again and
+	 * the file is replaced.
+	 */
+	{
+		byte[] expected = hash(edges(buildings));
+		if(Files.isRegularFile(file))
+		{
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+			{
+				if(channel.size() >= HEADER_SIZE && channel.size() <= Integer.MAX_VALUE)
+				{
+					ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+					while(buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+					buffer.flip();
+
+					var lattice = read(buffer, expected, nfz);
+					if(lattice != null) return lattice;
+				}
+			}
+		}
+
+		var lattice = build(buildings, nfz);
+		lattice.save(file);
+		return lattice;
+	}
+
+	public void save(Path file) throws IOException
+	/**
+	 * This method writes the masks to a file, through a temporary file so that a crash never
+	 * leaves half a file behind. The temporary file is created next to the file with the default
+	 * permissions, which the file keeps once it is moved into place.
+	 */
+	{
+		if(hash == null) throw new IllegalStateException("A lattice without cells cannot be saved");
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + legal.length * 16);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(columns).putInt(rows).put(hash);
+		for(long mask : legal) buffer.putLong(mask);
+		for(long mask : illegal) buffer.putLong(mask);
+		buffer.flip();
+
+		// A random suffix keeps saves from separate processes apart
+		Path temp = file.resolveSibling(file.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+		try
+		{
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+			{
+				while(buffer.hasRemaining()) channel.write(buffer);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException | RuntimeException e)
+		{
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+
+	public boolean isLegal(double fromLng, double fromLat, int angle, double toLng, double toLat)
+	/**
+	 * This method returns whether the move in the given heading, in degrees, from one position to
+	 * the next stays inside the boundary and clear of the 'No Fly Zones'.
+	 */
+	{
+		int x = (int) Math.floor((fromLng - MapContext.MIN_LNG_BOUNDARY) / CELL_SIZE);
+		int y = (int) Math.floor((fromLat - MapContext.MIN_LAT_BOUNDARY) / CELL_SIZE);
+		if(x >= 0 && x < columns && y >= 0 && y < rows)
+		{
+			long bit = 1L << (angle / 10);
+			if((legal[y * columns + x] & bit) != 0) return true;
+			if((illegal[y * columns + x] & bit) != 0) return false;
+		}
+		return MapContext.insideBoundary(toLng, toLat) && !nfz.intersects(fromLng, fromLat, toLng, toLat);
+	}
+
+	public boolean isLegal(Point from, int angle, Point to)
+	{
+		return isLegal(from.longitude(), from.latitude(), angle, to.longitude(), to.latitude());
+	}
+
+
+	public NoFlyZoneIndex getNoFlyZoneIndex()
+	{
+		return nfz;
+	}
+
+	public double getDecidedFraction()
+	/**
+	 * This method returns the fraction of cell and heading pairs that need no exact test.
+	 */
+	{
+		long decided = 0;
+		for(int c = 0; c < legal.length; c++)
+		{
+			decided += Long.bitCount(legal[c]) + Long.bitCount(illegal[c]);
+		}
+		return decided / (double) (legal.length * HEADINGS);
+	}
+
+	private static LegalMoveLattice read(ByteBuffer buffer, byte[] expected, NoFlyZoneIndex nfz)
+	{
+		if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+		int columns = buffer.getInt();
+		int rows = buffer.getInt();
+		byte[] hash = new byte[HASH_SIZE];
+		buffer.get(hash);
+		if(!Arrays.equals(hash, expected) || columns <= 0 || rows <= 0) return null;
+		if(buffer.remaining() != (long) columns * rows * 16) return null;
+
+		long[] legal = new long[columns * rows];
+		long[] illegal = new long[columns * rows];
+		buffer.asLongBuffer().get(legal);
+		buffer.position(buffer.position() + legal.length * 8);
+		buffer.asLongBuffer().get(illegal);
+		return new LegalMoveLattice(nfz, hash, columns, rows, legal, illegal);
+	}
+
+	private static int sweep(double minLng, double minLat, double maxLng, double maxLat, double dLng, double dLat, double[] hull)
+	/**
+	 * This method writes the convex hull of the cell and the cell moved by one step, which is
+	 * the region every move from the cell stays within, as anticlockwise vertices. It returns
+	 * the number of vertices.
+	 */
+	{
+		// The eight corners, sorted by longitude then latitude for a monotone chain hull
+		double[][] corners = {
+			{ minLng, minLat }, { minLng, maxLat }, { maxLng, minLat }, { maxLng, maxLat },
+			{ minLng + dLng, minLat + dLat }, { minLng + dLng, maxLat + dLat },
+			{ maxLng + dLng, minLat + dLat }, { maxLng + dLng, maxLat + dLat }
+		};
+		Arrays.sort(corners, (a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0]) : Double.compare(a[1], b[1]));
+
+		// Build the lower hull left to right, then the upper hull right to left
+		int n = 0;
+		for(int pass = 0; pass < 2; pass++)
+		{
+			int chainStart = n;
+			for(int k = 0; k < corners.length; k++)
+			{
+				double[] c = corners[pass == 0 ? k : corners.length - 1 - k];
+				while(n - chainStart >= 2 && cross(hull[2 * (n - 1)] - hull[2 * (n - 2)], hull[2 * (n - 1) + 1] - hull[2 * (n - 2) + 1],
+												   c[0] - hull[2 * (n - 2)], c[1] - hull[2 * (n - 2) + 1]) <= 0)
+				{
+					n--;
+				}
+				hull[2 * n] = c[0];
+				hull[2 * n + 1] = c[1];
+				n++;
+			}
+			// The last point of each chain is the first of the other
+			n--;
+		}
+		return n;
+	}
+
+	private static boolean nearEdge(double[] hull, int vertices, double[][] edges, int edgeCount)
+	/**
+	 * This method returns whether any of the first edgeCount building edges touches or lies
+	 * within the hull.
+	 */
+	{
+		double minLng = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+		double maxLng = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+		for(int v = 0; v < vertices; v++)
+		{
+			minLng = Math.min(minLng, hull[2 * v]);
+			maxLng = Math.max(maxLng, hull[2 * v]);
+			minLat = Math.min(minLat, hull[2 * v + 1]);
+			maxLat = Math.max(maxLat, hull[2 * v + 1]);
+		}
+
+		for(int k = 0; k < edgeCount; k++)
+		{
+			double[] e = edges[k];
+			if(Math.max(e[0], e[2]) < minLng || Math.min(e[0], e[2]) > maxLng
+					|| Math.max(e[1], e[3]) < minLat || Math.min(e[1], e[3]) > maxLat) continue;
+
+			if(inside(hull, vertices, e[0], e[1])) return true;
+			for(int v = 0; v < vertices; v++)
+			{
+				int w = (v + 1) % vertices;
+				if(Line2D.linesIntersect(hull[2 * v], hull[2 * v + 1], hull[2 * w], hull[2 * w + 1], e[0], e[1], e[2], e[3]))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean inside(double[] hull, int vertices, double lng, double lat)
+	{
+		for(int v = 0; v < vertices; v++)
+		{
+			int w = (v + 1) % vertices;
+			if(cross(hull[2 * w] - hull[2 * v], hull[2 * w + 1] - hull[2 * v + 1], lng - hull[2 * v], lat - hull[2 * v + 1]) < 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double cross(double ax, double ay, double bx, double by)
+	{
+		return ax * by - ay * bx;
+	}
+
+	private static double[][] edges(FeatureCollection buildings)
+	{
+		List<Feature> features = buildings.features();
+		int count = 0;
+		for(Feature f : features)
+		{
+			count += Math.max(0, ring(f).size() - 1);
+		}
+
+		double[][] edges = new double[count][];
+		int e = 0;
+		for(Feature f : features)
+		{
+			List<Point> points = ring(f);
+			for(int i = 0; i < points.size() - 1; i++)
+			{
+				edges[e++] = new double[] { points.get(i).longitude(), points.get(i).latitude(),
+											points.get(i + 1).longitude(), points.get(i + 1).latitude() };
+			}
+		}
+		return edges;
+	}
+
+	private static byte[] hash(double[][] edges)
+	/**
+	 * This method returns a SHA-256 hash of the building edges and the lattice's geometry, which
+	 * identifies the 'No Fly Zones' a saved file was built for.
+	 */
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(8 * (5 + edges.length * 4));
+		buffer.putDouble(CELL_SIZE).putDouble(MapContext.MIN_LNG_BOUNDARY).putDouble(MapContext.MIN_LAT_BOUNDARY)
+			  .putDouble(MapContext.MAX_LNG_BOUNDARY).putDouble(MapContext.MAX_LAT_BOUNDARY);
+		for(double[] e : edges)
+		{
+			for(double c : e) buffer.putDouble(c);
+		}
+		try
+		{
+			return MessageDigest.getInstance("SHA-256").digest(buffer.array());
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static List<Point> ring(Feature f)
+	{
+		return ((Polygon) f.geometry()).coordinates().get(0);
+	}
+}
@@ -0,0 +1,109 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class LegalMoveLatticeTest
+/**
+ * Unit tests checking the lattice's answers against the exact test of the boundary and the
+ * 'No Fly Zones' of the fixture buildings.
+ */
+{
+	private static NoFlyZoneIndex nfz;
+	private static LegalMoveLattice lattice;
+	private static List<Point> corners;
+
+	@BeforeClass
+	public static void buildLattice() throws IOException
+	{
+		FeatureCollection buildings = FeatureCollection.fromJson(Files.readString(Path.of("fixtures/buildings/no-fly-zones.geojson")));
+		nfz = new NoFlyZoneIndex(buildings);
+		lattice = LegalMoveLattice.build(buildings, nfz);
+
+		corners = new ArrayList<Point>();
+		for(Feature f : buildings.features())
+		{
+			corners.addAll(((Polygon) f.geometry()).outer().coordinates());
+		}
+	}
+
+	@Test
+	public void agreesWithTheExactTestNearBuildings()
+	{
+		// Most moves starting this close to a corner cross a cell needing the exact test
+		var random = new Random(11);
+		for(int i = 0; i < 20000; i++)
+		{
+			Point corner = corners.get(random.nextInt(corners.size()));
+			double lng = corner.longitude() + (random.nextDouble() * 2 - 1) * 2 * LatticePlanner.MOVE_LENGTH;
+			double lat = corner.latitude() + (random.nextDouble() * 2 - 1) * 2 * LatticePlanner.MOVE_LENGTH;
+			assertAgrees(lng, lat, random.nextInt(LegalMoveLattice.HEADINGS) * 10);
+		}
+	}
+
+	@Test
+	public void agreesWithTheExactTestNearTheBoundary()
+	{
+		var random = new Random(12);
+		for(int i = 0; i < 20000; i++)
+		{
+			double lng, lat;
+			double offset = (random.nextDouble() * 2 - 1) * 2 * LatticePlanner.MOVE_LENGTH;
+			if(random.nextBoolean())
+			{
+				lng = random.nextBoolean() ? MapContext.MIN_LNG_BOUNDARY + offset : MapContext.MAX_LNG_BOUNDARY + offset;
+				lat = MapContext.MIN_LAT_BOUNDARY + random.nextDouble() * (MapContext.MAX_LAT_BOUNDARY - MapContext.MIN_LAT_BOUNDARY);
+			}
+			else
+			{
+				lng = MapContext.MIN_LNG_BOUNDARY + random.nextDouble() * (MapContext.MAX_LNG_BOUNDARY - MapContext.MIN_LNG_BOUNDARY);
+				lat = random.nextBoolean() ? MapContext.MIN_LAT_BOUNDARY + offset : MapContext.MAX_LAT_BOUNDARY + offset;
+			}
+			assertAgrees(lng, lat, random.nextInt(LegalMoveLattice.HEADINGS) * 10);
+		}
+	}
+
+	@Test
+	public void agreesWithTheExactTestOnCellCorners()
+	{
+		// Positions on the edges between cells are where rounding would first show
+		int columns = (int) ((MapContext.MAX_LNG_BOUNDARY - MapContext.MIN_LNG_BOUNDARY) / LegalMoveLattice.CELL_SIZE);
+		int rows = (int) ((MapContext.MAX_LAT_BOUNDARY - MapContext.MIN_LAT_BOUNDARY) / LegalMoveLattice.CELL_SIZE);
+		var random = new Random(13);
+		for(int i = 0; i < 20000; i++)
+		{
+			double lng = MapContext.MIN_LNG_BOUNDARY + random.nextInt(columns + 1) * LegalMoveLattice.CELL_SIZE;
+			double lat = MapContext.MIN_LAT_BOUNDARY + random.nextInt(rows + 1) * LegalMoveLattice.CELL_SIZE;
+			assertAgrees(lng, lat, random.nextInt(LegalMoveLattice.HEADINGS) * 10);
+		}
+	}
+
+	@Test
+	public void masksDecideMostMoves()
+	{
+		assertTrue(lattice.getDecidedFraction() > 0.5);
+	}
+
+	private static void assertAgrees(double lng, double lat, int angle)
+	{
+		double toLng = lng + LatticePlanner.stepLng(angle);
+		double toLat = lat + LatticePlanner.stepLat(angle);
+		boolean exact = MapContext.insideBoundary(toLng, toLat) && !nfz.intersects(lng, lat, toLng, toLat);
+		assertEquals("Move from " + lng + ", " + lat + " in heading " + angle, exact, lattice.isLegal(lng, lat, angle, toLng, toLat));
+	}
+}
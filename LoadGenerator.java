@@ -0,0 +1,240 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LoadGenerator
+/**
+ * This class puts load on a webserver through many Server clients at once and reports the
+ * throughput and latency seen. Each client runs on its own thread and makes its requests one
+ * after another, cycling through dailySensors, noFlyZones and pointFromW3W for one of the day's
+ * sensors, so the number of clients is the number of requests in flight.
+ *
+ * The webserver can be the real one, a separately started StandInServer, or one started by the
+ * load generator itself with --serve.
+ */
+{
+	private static final String[] METHODS = { "dailySensors", "noFlyZones", "pointFromW3W" };
+
+	// How many times the sensor list is asked for before the load test gives up
+	private static final int SETUP_ATTEMPTS = 5;
+
+	public static void main(String[] args) throws Exception
+	// Usage: LoadGenerator <port> <clients> <requests per client> [--date=DD-MM-YYYY] [--serve=<directory>]
+	//                      [--latency=ms] [--jitter=ms] [--error-rate=fraction] [--threads=n] [--no-validators]
+	// The options after --serve only apply to a server started with it
+	{
+		int port = Integer.parseInt(args[0]);
+		int clients = Integer.parseInt(args[1]);
+		int requests = Integer.parseInt(args[2]);
+
+		var options = new StandInServer.Options(args, 3);
+		String[] date = { "01", "01", "2020" };
+		Path serve = null;
+		for(String arg : options.others)
+		{
+			if(arg.startsWith("--date=")) date = arg.substring("--date=".length()).split("-");
+			else if(arg.startsWith("--serve=")) serve = Path.of(arg.substring("--serve=".length()));
+			else throw new IllegalArgumentException("Unknown option: " + arg);
+		}
+
+		StandInServer standIn = null;
+		if(serve != null)
+		{
+			StandInServer.useNoDelay();
+			standIn = new StandInServer(serve, port, options.threads);
+			standIn.setLatency(options.latencyMillis, options.jitterMillis);
+			standIn.setErrorRate(options.errorRate);
+			standIn.setValidators(options.validators);
+			port = standIn.start().getPort();
+		}
+
+		try
+		{
+			var report = run("http://localhost:", String.valueOf(port), date, clients, requests);
+			System.out.print(report);
+		}
+		finally
+		{
+			if(standIn != null) standIn.close();
+		}
+	}
+
+	public static String run(String host, String port, String[] date, int clients, int requests)
+			throws IOException, InterruptedException
+	/**
+	 * This method runs the load and returns a report of the requests made by each method. The
+	 * day's sensor list is fetched once beforehand to know which What3Words addresses to ask for.
+	 */
+	{
+		List<String> words = setupWords(new Server(host, port), date);
+		String[] day = date;
+
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		var ready = new CountDownLatch(clients);
+		var go = new CountDownLatch(1);
+		var results = new ArrayList<Future<ClientResult>>();
+
+		for(int c = 0; c < clients; c++)
+		{
+			long seed = c;
+			results.add(pool.submit(() -> {
+				var server = new Server(host, port);
+				var result = new ClientResult(requests);
+				var rand = new Random(seed);
+
+				// Start every client together so the load is applied all at once
+				ready.countDown();
+				go.await();
+
+				for(int r = 0; r < requests; r++)
+				{
+					int method = (int) ((r + seed) % METHODS.length);
+					long start = System.nanoTime();
+					boolean failed = false;
+					try
+					{
+						if(method == 0) server.dailySensors(day);
+						else if(method == 1) server.noFlyZones();
+						else server.pointFromW3W(words.get(rand.nextInt(words.size())));
+					}
+					catch(IOException | RuntimeException e)
+					{
+						failed = true;
+					}
+					result.add(method, System.nanoTime() - start, failed);
+				}
+				return result;
+			}));
+		}
+
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+
+		var merged = new ArrayList<ClientResult>();
+		try
+		{
+			for(var result : results)
+			{
+				merged.add(result.get());
+			}
+		}
+		catch(ExecutionException e)
+		{
+			throw new IOException("A load generator client failed", e.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		return report(merged, clients, elapsed);
+	}
+
+	private static List<String> setupWords(Server server, String[] date) throws IOException, InterruptedException
+	/**
+	 * This method returns the What3Words addresses of the day's sensors. The webserver may be
+	 * failing a share of requests on purpose, so a failed request is tried again a few times
+	 * rather than ending the load test before it starts.
+	 */
+	{
+		for(int attempt = 1; ; attempt++)
+		{
+			try
+			{
+				var words = new ArrayList<String>();
+				for(Sensor s : server.dailySensors(date))
+				{
+					words.add(s.getLocation());
+				}
+				return words;
+			}
+			catch(IOException e)
+			{
+				if(attempt == SETUP_ATTEMPTS) throw new IOException("Could not get the sensor list to set up the load", e);
+			}
+		}
+	}
+
+	private static String report(List<ClientResult> results, int clients, long elapsedNanos)
+	{
+		var out = new StringBuilder();
+		long total = 0;
+		long errors = 0;
+
+		out.append(String.format("%-14s %9s %7s %10s %10s %10s%n", "method", "requests", "errors", "p50 ms", "p99 ms", "max ms"));
+		for(int m = 0; m < METHODS.length; m++)
+		{
+			// Gather every client's latencies for this method into one sorted array
+			int count = 0;
+			for(var r : results) count += r.counts[m];
+			long[] latencies = new long[count];
+			int k = 0;
+			long methodErrors = 0;
+			for(var r : results)
+			{
+				System.arraycopy(r.latencies[m], 0, latencies, k, r.counts[m]);
+				k += r.counts[m];
+				methodErrors += r.errors[m];
+			}
+			Arrays.sort(latencies);
+
+			out.append(String.format("%-14s %9d %7d %10.2f %10.2f %10.2f%n", METHODS[m], count, methodErrors,
+									 percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+									 count == 0 ? 0 : latencies[count - 1] / 1e6));
+			total += count;
+			errors += methodErrors;
+		}
+
+		double seconds = elapsedNanos / 1e9;
+		out.append(String.format("%d requests (%d failed) from %d clients in %.2f s: %.1f requests/s%n",
+								 total, errors, clients, seconds, total / seconds));
+		return out.toString();
+	}
+
+	private static long percentile(long[] sorted, int p)
+	/**
+	 * This method returns the nearest-rank percentile of an array sorted in ascending order.
+	 */
+	{
+		if(sorted.length == 0) return 0;
+
+		int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	private static class ClientResult
+	/**
+	 * The latencies recorded by a single client, kept per client so that recording needs no
+	 * synchronisation.
+	 */
+	{
+		final long[][] latencies;
+		final int[] counts;
+		final long[] errors;
+
+		ClientResult(int requests)
+		{
+			this.latencies = new long[METHODS.length][requests];
+			this.counts = new int[METHODS.length];
+			this.errors = new long[METHODS.length];
+		}
+
+		void add(int method, long nanos, boolean failed)
+		{
+			latencies[method][counts[method]++] = nanos;
+			if(failed) errors[method]++;
+		}
+	}
+}
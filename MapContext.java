@@ -0,0 +1,137 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+
+public class MapContext
+/**
+ * This class holds the parts of a mission that do not change from day to day: the webserver
+ * connection, the 'No Fly Zones' (and their compiled index), the flying boundary and the
+ * What3Words coordinate cache. It is never modified after construction, apart from building
+ * the visibility graph and the legal move lattice on first use, so a single instance can be
+ * shared by many Controllers flying missions at the same time.
+ */
+{
+	// Boundary of the drone's flying zone, as given in the specification
+	public static final double MAX_LAT_BOUNDARY = 55.946233;
+	public static final double MIN_LAT_BOUNDARY = 55.942617;
+	public static final double MAX_LNG_BOUNDARY = -3.184319;
+	public static final double MIN_LNG_BOUNDARY = -3.192473;
+
+	// Define attributes
+	private final Server server;
+	private final FeatureCollection nfz;
+	private final NoFlyZoneIndex nfzIndex;
+	private final CoordinateCache coordinateCache;
+	private volatile VisibilityGraph visibilityGraph;
+	private volatile LegalMoveLattice legalMoves;
+
+	// Constructors
+	public MapContext(Server server, FeatureCollection nfz)
+	{
+		this(server, nfz, null);
+	}
+
+	public MapContext(Server server, FeatureCollection nfz, CoordinateCache coordinateCache)
+	{
+		this.server = server;
+		this.nfz = nfz;
+		this.nfzIndex = new NoFlyZoneIndex(nfz);
+		this.coordinateCache = coordinateCache;
+	}
+
+	public static MapContext download(Server server, CoordinateCache coordinateCache) throws IOException, InterruptedException
+	/**
+	 * This method downloads the 'No Fly Zones' from the webserver once and returns a
+	 * context that can be shared between missions.
+	 */
+	{
+		return new MapContext(server, server.noFlyZones(), coordinateCache);
+	}
+
+	// Getters
+	public Server getServer()
+	{
+		return server;
+	}
+
+	public FeatureCollection getNoFlyZones()
+	{
+		return nfz;
+	}
+
+	public NoFlyZoneIndex getNoFlyZoneIndex()
+	{
+		return nfzIndex;
+	}
+
+	public VisibilityGraph getVisibilityGraph()
+	/**
+	 * This method returns the visibility graph of the 'No Fly Zones', building it the first
+	 * time it is asked for.
+	 */
+	{
+		VisibilityGraph graph = visibilityGraph;
+		if(graph == null)
+		{
+			synchronized(this)
+			{
+				graph = visibilityGraph;
+				if(graph == null)
+				{
+					graph = new VisibilityGraph(nfz, nfzIndex);
+					visibilityGraph = graph;
+				}
+			}
+		}
+		return graph;
+	}
+
+	public LegalMoveLattice getLegalMoveLattice(Path file) throws IOException
+	/**
+	 * This method returns the legal move lattice of the 'No Fly Zones'. The first time it is
+	 * asked for it is loaded from the given file if that was saved for the same buildings, and
+	 * built and saved to the file otherwise.
+	 */
+	{
+		LegalMoveLattice lattice = legalMoves;
+		if(lattice == null)
+		{
+			synchronized(this)
+			{
+				lattice = legalMoves;
+				if(lattice == null)
+				{
+					lattice = LegalMoveLattice.load(file, nfz, nfzIndex);
+					legalMoves = lattice;
+				}
+			}
+		}
+		return lattice;
+	}
+
+	public CoordinateCache getCoordinateCache()
+	{
+		return coordinateCache;
+	}
+
+	public static boolean insideBoundary(double lng, double lat)
+	/**
+	 * This method determines whether a position lies strictly within the
+	 * boundaries given in the specification.
+	 */
+	{
+		return lat < MAX_LAT_BOUNDARY
+			 & lat > MIN_LAT_BOUNDARY
+			 & lng < MAX_LNG_BOUNDARY
+			 & lng > MIN_LNG_BOUNDARY;
+	}
+
+	public static boolean insideBoundary(Point pos)
+	{
+		return insideBoundary(pos.longitude(), pos.latitude());
+	}
+}
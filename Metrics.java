@@ -0,0 +1,258 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+public class Metrics
+/**
+ * This class records where the time of a mission goes: the wall time and memory allocated by
+ * each phase of the Controller, the number and latency of requests made by each Server method,
+ * and counters such as the collision checks made during the drone's flight. Everything can be
+ * written out at the end of a run as a JSON summary or in the Prometheus text format.
+ *
+ * All methods are thread-safe. Recording only touches striped counters, so many threads can
+ * record at once without contending, and the DISABLED instance records nothing at all.
+ */
+{
+	public static final Metrics DISABLED = new Metrics(false);
+
+	private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+	// Define attributes
+	private final boolean enabled;
+	private final ConcurrentHashMap<String, Stats> phases;
+	private final ConcurrentHashMap<String, Stats> requests;
+	private final ConcurrentHashMap<String, LongAdder> counters;
+
+	// Constructors
+	public Metrics()
+	{
+		this(true);
+	}
+
+	private Metrics(boolean enabled)
+	{
+		this.enabled = enabled;
+		this.phases = new ConcurrentHashMap<String, Stats>();
+		this.requests = new ConcurrentHashMap<String, Stats>();
+		this.counters = new ConcurrentHashMap<String, LongAdder>();
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	public Phase startPhase(String name)
+	/**
+	 * This method starts timing a phase on the current thread. Memory is only counted for the
+	 * current thread, so work handed to other threads adds to the wall time but not the bytes.
+	 */
+	{
+		if(!enabled) return Phase.NONE;
+
+		return new Phase(phases.computeIfAbsent(name, k -> new Stats()), System.nanoTime(), allocatedBytes());
+	}
+
+	public void recordRequest(String method, long nanos, boolean failed)
+	/**
+	 * This method records one request made by the given Server method and how long it took.
+	 */
+	{
+		if(!enabled) return;
+
+		requests.computeIfAbsent(method, k -> new Stats()).add(nanos, 0, failed);
+	}
+
+	public void count(String name, long delta)
+	{
+		if(!enabled) return;
+
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+	}
+
+	public long getCount(String name)
+	{
+		var counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	public String toJson()
+	/**
+	 * This method returns a summary of everything recorded, with the names in sorted order.
+	 */
+	{
+		var root = new JsonObject();
+
+		var phaseJson = new JsonObject();
+		for(var e : new TreeMap<String, Stats>(phases).entrySet())
+		{
+			var stats = e.getValue();
+			var json = new JsonObject();
+			json.addProperty("count", stats.count.sum());
+			json.addProperty("wallMillis", stats.nanos.sum() / 1e6);
+			json.addProperty("allocatedBytes", stats.bytes.sum());
+			phaseJson.add(e.getKey(), json);
+		}
+		root.add("phases", phaseJson);
+
+		var requestJson = new JsonObject();
+		for(var e : new TreeMap<String, Stats>(requests).entrySet())
+		{
+			var stats = e.getValue();
+			long count = stats.count.sum();
+			var json = new JsonObject();
+			json.addProperty("count", count);
+			json.addProperty("errors", stats.errors.sum());
+			json.addProperty("totalMillis", stats.nanos.sum() / 1e6);
+			json.addProperty("meanMillis", count == 0 ? 0 : stats.nanos.sum() / 1e6 / count);
+			json.addProperty("maxMillis", stats.maxNanos.get() / 1e6);
+			requestJson.add(e.getKey(), json);
+		}
+		root.add("requests", requestJson);
+
+		var counterJson = new JsonObject();
+		for(var e : new TreeMap<String, LongAdder>(counters).entrySet())
+		{
+			counterJson.addProperty(e.getKey(), e.getValue().sum());
+		}
+		root.add("counters", counterJson);
+
+		return new GsonBuilder().setPrettyPrinting().create().toJson(root);
+	}
+
+	public String toPrometheus()
+	/**
+	 * This method returns everything recorded in the Prometheus text exposition format. Times
+	 * are given in seconds, as Prometheus expects.
+	 */
+	{
+		var out = new StringBuilder();
+
+		var sortedPhases = new TreeMap<String, Stats>(phases);
+		family(out, "aqmaps_phase_runs_total", "Number of times each Controller phase has run", sortedPhases, "phase", s -> s.count.sum());
+		family(out, "aqmaps_phase_seconds_total", "Wall time spent in each Controller phase", sortedPhases, "phase", s -> s.nanos.sum() / 1e9);
+		family(out, "aqmaps_phase_allocated_bytes_total", "Bytes allocated by the thread running each Controller phase", sortedPhases, "phase", s -> s.bytes.sum());
+
+		var sortedRequests = new TreeMap<String, Stats>(requests);
+		family(out, "aqmaps_http_requests_total", "Requests made by each Server method", sortedRequests, "method", s -> s.count.sum());
+		family(out, "aqmaps_http_request_errors_total", "Requests made by each Server method that failed", sortedRequests, "method", s -> s.errors.sum());
+		family(out, "aqmaps_http_request_seconds_total", "Time spent waiting for each Server method's responses", sortedRequests, "method", s -> s.nanos.sum() / 1e9);
+		family(out, "aqmaps_http_request_max_seconds", "Slowest response to each Server method", sortedRequests, "method", s -> s.maxNanos.get() / 1e9);
+
+		for(var e : new TreeMap<String, LongAdder>(counters).entrySet())
+		{
+			String name = "aqmaps_" + e.getKey() + "_total";
+			out.append("# TYPE ").append(name).append(" counter\n");
+			out.append(name).append(' ').append(e.getValue().sum()).append('\n');
+		}
+		return out.toString();
+	}
+
+	public void writeJson(Path file) throws IOException
+	{
+		Files.writeString(file, toJson(), StandardCharsets.UTF_8);
+	}
+
+	public void writePrometheus(Path file) throws IOException
+	{
+		Files.writeString(file, toPrometheus(), StandardCharsets.UTF_8);
+	}
+
+	private static void family(StringBuilder out, String name, String help, Map<String, Stats> stats, String label,
+							   ToDoubleFunction<Stats> value)
+	{
+		if(stats.isEmpty()) return;
+
+		boolean total = name.endsWith("_total");
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(total ? " counter\n" : " gauge\n");
+		for(var e : stats.entrySet())
+		{
+			double v = value.applyAsDouble(e.getValue());
+			out.append(name).append('{').append(label).append("=\"").append(e.getKey()).append("\"} ");
+			// Whole numbers are written without a fraction, as Prometheus does
+			if(v == Math.rint(v) && Math.abs(v) < 1e15) out.append((long) v);
+			else out.append(v);
+			out.append('\n');
+		}
+	}
+
+	private static long allocatedBytes()
+	{
+		if(THREADS == null) return 0;
+
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static com.sun.management.ThreadMXBean threadBean()
+	{
+		// Allocation counting is a HotSpot extension, so other JVMs only get wall times
+		var bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+
+		var threads = (com.sun.management.ThreadMXBean) bean;
+		if(!threads.isThreadAllocatedMemorySupported()) return null;
+		if(!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+		return threads;
+	}
+
+	private static class Stats
+	{
+		final LongAdder count = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		void add(long elapsedNanos, long allocated, boolean failed)
+		{
+			count.increment();
+			nanos.add(elapsedNanos);
+			bytes.add(allocated);
+			maxNanos.accumulate(elapsedNanos);
+			if(failed) errors.increment();
+		}
+	}
+
+	public static class Phase
+	/**
+	 * A phase that has been started and not yet ended. Ending a phase more than once only
+	 * records it the first time.
+	 */
+	{
+		static final Phase NONE = new Phase(null, 0, 0);
+
+		private final Stats stats;
+		private final long startNanos;
+		private final long startBytes;
+		private boolean ended;
+
+		private Phase(Stats stats, long startNanos, long startBytes)
+		{
+			this.stats = stats;
+			this.startNanos = startNanos;
+			this.startBytes = startBytes;
+		}
+
+		public void end()
+		{
+			if(stats == null || ended) return;
+			ended = true;
+
+			stats.add(System.nanoTime() - startNanos, allocatedBytes() - startBytes, false);
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.gson.Gson;
+import com.mapbox.geojson.Point;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class MissionService implements AutoCloseable
+/**
+ * This class keeps a JVM running and flies missions on request, so that JVM startup, warm-up,
+ * the 'No Fly Zone' download and the legal move lattice are paid once rather than for every
+ * date. The map context, coordinate cache and response cache are shared by every mission, and
+ * missions run concurrently on a fixed pool of threads.
+ *
+ * Missions can be requested in two ways:
+ *  - over HTTP, with GET /mission?date=DD-MM-YYYY&lat=..&lng=..&seed=.. which answers with a
+ *    JSON object holding the moves, the flightpath text and the readings GeoJSON. Adding
+ *    &output=files writes the usual files instead and leaves them out of the answer.
+ *    GET /metrics returns the service's metrics in the Prometheus text format. Requests are
+ *    answered once their mission finishes, without holding a thread while they wait.
+ *  - on standard input, one mission per line in the same order as DroneApp's arguments:
+ *    'DD MM YYYY latitude longitude seed'. The files are written and a line reporting the
+ *    result is printed once each mission is done.
+ */
+{
+	private static final Gson GSON = new Gson();
+	private static final Path LEGAL_MOVES = Path.of("legal-moves.bin");
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-uuuu").withResolverStyle(ResolverStyle.STRICT);
+
+	// Define attributes
+	private final MapContext context;
+	private final ExecutorService missions;
+	private final Metrics metrics;
+	private final Path outputDirectory;
+	private HttpServer http;
+
+	// Constructor
+	public MissionService(MapContext context, int threads, Path outputDirectory, Metrics metrics)
+	{
+		this.context = context;
+		this.missions = Executors.newFixedThreadPool(threads);
+		this.metrics = metrics;
+		this.outputDirectory = outputDirectory;
+	}
+
+	public static void main(String[] args) throws Exception
+	// Usage: MissionService <webserver port> [--http=<port>] [--threads=n] [--output=<directory>]
+	{
+		String port = args[0];
+		int httpPort = -1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path outputDirectory = Path.of("");
+		for(int i = 1; i < args.length; i++)
+		{
+			if(args[i].startsWith("--http=")) httpPort = Integer.parseInt(args[i].substring("--http=".length()));
+			else if(args[i].startsWith("--threads=")) threads = Integer.parseInt(args[i].substring("--threads=".length()));
+			else if(args[i].startsWith("--output=")) outputDirectory = Path.of(args[i].substring("--output=".length()));
+			else throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+
+		// Everything that does not depend on the date is set up once, here
+		var metrics = new Metrics();
+		var server = new Server("http://localhost:", port);
+		server.setMetrics(metrics);
+		server.setResponseCache(new ResponseCache(Path.of("http-cache")));
+		var cache = new CoordinateCache(Path.of("w3w-cache.bin"));
+		var context = MapContext.download(server, cache);
+		context.getLegalMoveLattice(LEGAL_MOVES);
+
+		try(var service = new MissionService(context, threads, outputDirectory, metrics))
+		{
+			if(httpPort >= 0)
+			{
+				var http = service.listen(httpPort);
+				System.out.println("Listening for missions on port " + http.getAddress().getPort());
+			}
+			service.readCommands(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+
+			// With an HTTP endpoint the service keeps running after standard input is closed
+			if(httpPort >= 0) Thread.currentThread().join();
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+
+	public CompletableFuture<MissionResult> submit(String[] date, Point startPosition, long seed, boolean toFiles)
+	/**
+	 * This method queues a mission and returns its result once it has flown. When toFiles is
+	 * set the flightpath and readings are written to a 'seed-<seed>' directory as DroneApp
+	 * would write them; otherwise they are kept in memory and returned in the result.
+	 */
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try
+			{
+				return fly(date, startPosition, seed, toFiles);
+			}
+			catch(IOException | RuntimeException e)
+			{
+				throw new CompletionException(e);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new CompletionException(e);
+			}
+		}, missions);
+	}
+
+	private MissionResult fly(String[] date, Point startPosition, long seed, boolean toFiles) throws IOException, InterruptedException
+	{
+		var controller = new Controller(date, startPosition, seed, context);
+		controller.setMetrics(metrics);
+		controller.setLegalMoveFile(LEGAL_MOVES);
+
+		if(toFiles)
+		{
+			Path directory = outputDirectory.resolve("seed-" + seed);
+			Files.createDirectories(directory);
+			controller.setOutputDirectory(directory);
+			controller.serverDownload();
+			controller.orderSensors();
+			controller.droneFlight();
+			controller.logToFile();
+			controller.hexCodeConversion();
+			controller.geojsonConvert();
+			return new MissionResult(date, seed, controller.getMoves(), null, null);
+		}
+
+		var flightpath = new ByteArrayOutputStream();
+		controller.setFlightLog(new CsvFlightLog(Channels.newChannel(flightpath)));
+		controller.serverDownload();
+		controller.orderSensors();
+		controller.droneFlight();
+		controller.logToFile();
+		controller.hexCodeConversion();
+
+		var readings = new ByteArrayOutputStream();
+		try(var jsonFile = new GeoJsonWriter(Channels.newChannel(readings), false))
+		{
+			controller.writeFeatures(jsonFile);
+		}
+		return new MissionResult(date, seed, controller.getMoves(), flightpath.toString(StandardCharsets.UTF_8),
+								 readings.toString(StandardCharsets.UTF_8));
+	}
+
+	public synchronized HttpServer listen(int port) throws IOException
+	/**
+	 * This method starts answering mission requests over HTTP on the given local port. The
+	 * handlers never wait for a mission, so the server's own dispatcher thread runs them.
+	 */
+	{
+		if(http != null) throw new IllegalStateException("Already listening on port " + http.getAddress().getPort());
+
+		http = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		http.createContext("/mission", this::handleMission);
+		http.createContext("/metrics", exchange -> {
+			if(!isGet(exchange)) return;
+			respond(exchange, 200, "text/plain; version=0.0.4", metrics.toPrometheus());
+		});
+		http.start();
+		return http;
+	}
+
+	public void readCommands(BufferedReader in) throws IOException
+	/**
+	 * This method reads missions from the given input, one per line, until it is closed. Each
+	 * mission is started as soon as its line is read, and blank lines and lines starting with
+	 * '#' are ignored. It returns once every mission read has finished.
+	 */
+	{
+		var pending = new ArrayList<CompletableFuture<Void>>();
+		String line;
+		while((line = in.readLine()) != null)
+		{
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+
+			String[] parts = line.split("\\s+");
+			if(parts.length != 6)
+			{
+				System.out.println("Expected 'DD MM YYYY latitude longitude seed' but got: " + line);
+				continue;
+			}
+			String request = line;
+			try
+			{
+				String[] date = dateParts(LocalDate.of(Integer.parseInt(parts[2]), Integer.parseInt(parts[1]), Integer.parseInt(parts[0])));
+				Point start = Point.fromLngLat(Double.parseDouble(parts[4]), Double.parseDouble(parts[3]));
+				long seed = Long.parseLong(parts[5]);
+				pending.add(submit(date, start, seed, true).handle((result, error) -> {
+					System.out.println(error == null ? result.toString() : request + " failed: " + unwrap(error));
+					return null;
+				}));
+			}
+			catch(NumberFormatException | DateTimeException e)
+			{
+				System.out.println(request + " failed: " + e);
+			}
+		}
+		CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	@Override
+	public synchronized void close()
+	/**
+	 * This method stops answering HTTP requests, if it was listening, and lets the missions
+	 * already started finish without accepting any more.
+	 */
+	{
+		if(http != null)
+		{
+			http.stop(0);
+			http = null;
+		}
+		missions.shutdown();
+	}
+
+	private void handleMission(HttpExchange exchange) throws IOException
+	{
+		if(!isGet(exchange)) return;
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+		String[] date;
+		Point start;
+		long seed;
+		try
+		{
+			date = dateParts(LocalDate.parse(query.getOrDefault("date", ""), DATE_FORMAT));
+			start = Point.fromLngLat(Double.parseDouble(query.get("lng")), Double.parseDouble(query.get("lat")));
+			seed = Long.parseLong(query.get("seed"));
+		}
+		catch(DateTimeException e)
+		{
+			respond(exchange, 400, "text/plain", "Bad mission request: date must be a real day given as DD-MM-YYYY\n");
+			return;
+		}
+		catch(RuntimeException e)
+		{
+			respond(exchange, 400, "text/plain", "Bad mission request: " + e.getMessage() + "\n");
+			return;
+		}
+
+		// The exchange is answered from the mission's future, so no thread waits for the mission
+		submit(date, start, seed, "files".equals(query.get("output"))).whenComplete((result, error) -> {
+			try
+			{
+				if(error == null) respond(exchange, 200, "application/json", result.toJson());
+				else respond(exchange, 500, "text/plain", "Mission failed: " + unwrap(error) + "\n");
+			}
+			catch(IOException e)
+			{
+				// The client has gone away, and respond has already closed the exchange
+			}
+		});
+	}
+
+	private static boolean isGet(HttpExchange exchange) throws IOException
+	/**
+	 * This method returns whether the request is a GET, answering it with 405 if it is not.
+	 */
+	{
+		if(exchange.getRequestMethod().equals("GET")) return true;
+
+		exchange.getResponseHeaders().set("Allow", "GET");
+		respond(exchange, 405, "text/plain", exchange.getRequestMethod() + " is not allowed\n");
+		return false;
+	}
+
+	private static String[] dateParts(LocalDate day)
+	/**
+	 * This method returns the day as DroneApp takes it: 'DD', 'MM' and 'YYYY'.
+	 */
+	{
+		return new String[] { String.format("%02d", day.getDayOfMonth()), String.format("%02d", day.getMonthValue()),
+							  String.valueOf(day.getYear()) };
+	}
+
+	private static Map<String, String> parseQuery(String query)
+	{
+		var params = new HashMap<String, String>();
+		if(query == null) return params;
+
+		for(String pair : query.split("&"))
+		{
+			int eq = pair.indexOf('=');
+			if(eq < 0) continue;
+			params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+					   URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException
+	{
+		try
+		{
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			exchange.sendResponseHeaders(status, bytes.length);
+			exchange.getResponseBody().write(bytes);
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	private static Throwable unwrap(Throwable error)
+	{
+		while(error instanceof CompletionException && error.getCause() != null)
+		{
+			error = error.getCause();
+		}
+		return error;
+	}
+
+	public static class MissionResult
+	/**
+	 * The outcome of a mission. The flightpath and readings are null if they were written to
+	 * files rather than kept in memory.
+	 */
+	{
+		private final String[] date;
+		private final long seed;
+		private final int moves;
+		private final String flightpath;
+		private final String readings;
+
+		MissionResult(String[] date, long seed, int moves, String flightpath, String readings)
+		{
+			this.date = date;
+			this.seed = seed;
+			this.moves = moves;
+			this.flightpath = flightpath;
+			this.readings = readings;
+		}
+
+		public int getMoves()
+		{
+			return moves;
+		}
+
+		public String getFlightpath()
+		{
+			return flightpath;
+		}
+
+		public String getReadings()
+		{
+			return readings;
+		}
+
+		public String toJson()
+		{
+			// The readings are already GeoJSON, so they are written as they are rather than as a string
+			var out = new StringBuilder();
+			out.append("{\"date\":").append(GSON.toJson(String.join("-", date)))
+			   .append(",\"seed\":").append(seed)
+			   .append(",\"moves\":").append(moves);
+			if(flightpath != null) out.append(",\"flightpath\":").append(GSON.toJson(flightpath));
+			if(readings != null) out.append(",\"readings\":").append(readings);
+			return out.append("}\n").toString();
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.join("-", date) + " seed " + seed + ": " + moves + " moves";
+		}
+	}
+}
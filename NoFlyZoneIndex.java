@@ -0,0 +1,211 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.awt.geom.Line2D;
+import java.util.List;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class NoFlyZoneIndex
+/**
+ * This class is a compiled form of the 'No Fly Zones' used to quickly check whether a move
+ * crosses a building. The edges of every polygon are stored in flat arrays of coordinates,
+ * each polygon has a bounding box, and the edges are bucketed into a uniform grid so that
+ * a query only tests the edges close to the move.
+ *
+ * Queries allocate nothing and give the same answers as testing the move against every
+ * edge with Line2D.intersectsLine, as Controller.lineIntersectPolygon does.
+ */
+{
+	// Bounding boxes are widened by this much so rounding in Line2D.linesIntersect can never
+	// find an intersection the grid has filtered out
+	private static final double PAD = 1e-12;
+	private static final int MAX_GRID_SIZE = 64;
+
+	// Define attributes
+	private final int edgeCount;
+	private final double[] startLng;
+	private final double[] startLat;
+	private final double[] endLng;
+	private final double[] endLat;
+
+	private final double[] polyMinLng;
+	private final double[] polyMinLat;
+	private final double[] polyMaxLng;
+	private final double[] polyMaxLat;
+
+	private final double minLng;
+	private final double minLat;
+	private final double cellLng;
+	private final double cellLat;
+	private final int gridSize;
+	private final int[] cellStart;
+	private int[] cellEdges;
+
+	// Constructor
+	public NoFlyZoneIndex(FeatureCollection nfz)
+	{
+		List<Feature> features = nfz.features();
+		int polygons = features.size();
+
+		// Count the edges so the arrays can be sized up front
+		int edges = 0;
+		for(Feature f : features)
+		{
+			edges += Math.max(0, ring(f).size() - 1);
+		}
+
+		this.edgeCount = edges;
+		this.startLng = new double[edges];
+		this.startLat = new double[edges];
+		this.endLng = new double[edges];
+		this.endLat = new double[edges];
+		this.polyMinLng = new double[polygons];
+		this.polyMinLat = new double[polygons];
+		this.polyMaxLng = new double[polygons];
+		this.polyMaxLat = new double[polygons];
+
+		double allMinLng = Double.POSITIVE_INFINITY, allMinLat = Double.POSITIVE_INFINITY;
+		double allMaxLng = Double.NEGATIVE_INFINITY, allMaxLat = Double.NEGATIVE_INFINITY;
+
+		// Flatten the polygons' edges, in the same order lineIntersectPolygon visits them
+		int e = 0;
+		for(int p = 0; p < polygons; p++)
+		{
+			var points = ring(features.get(p));
+			polyMinLng[p] = polyMinLat[p] = Double.POSITIVE_INFINITY;
+			polyMaxLng[p] = polyMaxLat[p] = Double.NEGATIVE_INFINITY;
+
+			for(int i = 0; i < points.size(); i++)
+			{
+				double lng = points.get(i).longitude();
+				double lat = points.get(i).latitude();
+				polyMinLng[p] = Math.min(polyMinLng[p], lng - PAD);
+				polyMinLat[p] = Math.min(polyMinLat[p], lat - PAD);
+				polyMaxLng[p] = Math.max(polyMaxLng[p], lng + PAD);
+				polyMaxLat[p] = Math.max(polyMaxLat[p], lat + PAD);
+
+				if(i < points.size() - 1)
+				{
+					startLng[e] = lng;
+					startLat[e] = lat;
+					endLng[e] = points.get(i+1).longitude();
+					endLat[e] = points.get(i+1).latitude();
+					e++;
+				}
+			}
+			allMinLng = Math.min(allMinLng, polyMinLng[p]);
+			allMinLat = Math.min(allMinLat, polyMinLat[p]);
+			allMaxLng = Math.max(allMaxLng, polyMaxLng[p]);
+			allMaxLat = Math.max(allMaxLat, polyMaxLat[p]);
+		}
+
+		// Size the grid so each cell holds roughly one edge
+		this.gridSize = Math.max(1, Math.min(MAX_GRID_SIZE, (int) Math.ceil(Math.sqrt(edges))));
+		this.minLng = edges == 0 ? 0 : allMinLng;
+		this.minLat = edges == 0 ? 0 : allMinLat;
+		this.cellLng = edges == 0 ? 1 : Math.max((allMaxLng - allMinLng) / gridSize, Double.MIN_NORMAL);
+		this.cellLat = edges == 0 ? 1 : Math.max((allMaxLat - allMinLat) / gridSize, Double.MIN_NORMAL);
+
+		// Bucket every edge into each cell its bounding box overlaps, as a compressed list per cell
+		this.cellStart = new int[gridSize * gridSize + 1];
+		for(int pass = 0; pass < 2; pass++)
+		{
+			int[] fill = pass == 0 ? null : cellStart.clone();
+			for(int i = 0; i < edges; i++)
+			{
+				int x0 = cellX(Math.min(startLng[i], endLng[i]) - PAD);
+				int x1 = cellX(Math.max(startLng[i], endLng[i]) + PAD);
+				int y0 = cellY(Math.min(startLat[i], endLat[i]) - PAD);
+				int y1 = cellY(Math.max(startLat[i], endLat[i]) + PAD);
+				for(int y = y0; y <= y1; y++)
+				{
+					for(int x = x0; x <= x1; x++)
+					{
+						if(pass == 0) cellStart[y * gridSize + x + 1]++;
+						else cellEdges[fill[y * gridSize + x]++] = i;
+					}
+				}
+			}
+			if(pass == 0)
+			{
+				for(int c = 0; c < gridSize * gridSize; c++)
+				{
+					cellStart[c + 1] += cellStart[c];
+				}
+				cellEdges = new int[cellStart[gridSize * gridSize]];
+			}
+		}
+	}
+
+	public boolean intersects(double fromLng, double fromLat, double toLng, double toLat)
+	/**
+	 * This method returns whether the move between the two positions crosses or touches any
+	 * edge of the 'No Fly Zones'.
+	 */
+	{
+		double segMinLng = Math.min(fromLng, toLng);
+		double segMaxLng = Math.max(fromLng, toLng);
+		double segMinLat = Math.min(fromLat, toLat);
+		double segMaxLat = Math.max(fromLat, toLat);
+
+		// Most moves are nowhere near a building, so rule them out with the polygons' boxes first
+		boolean nearPolygon = false;
+		for(int p = 0; p < polyMinLng.length && !nearPolygon; p++)
+		{
+			nearPolygon = segMaxLng >= polyMinLng[p] && segMinLng <= polyMaxLng[p]
+					   && segMaxLat >= polyMinLat[p] && segMinLat <= polyMaxLat[p];
+		}
+		if(!nearPolygon) return false;
+
+		int x0 = cellX(segMinLng), x1 = cellX(segMaxLng);
+		int y0 = cellY(segMinLat), y1 = cellY(segMaxLat);
+
+		for(int y = y0; y <= y1; y++)
+		{
+			for(int x = x0; x <= x1; x++)
+			{
+				int cell = y * gridSize + x;
+				for(int k = cellStart[cell]; k < cellStart[cell + 1]; k++)
+				{
+					int e = cellEdges[k];
+					// Same argument order as polyLine.intersectsLine(droneLine)
+					if(Line2D.linesIntersect(fromLng, fromLat, toLng, toLat, startLng[e], startLat[e], endLng[e], endLat[e]))
+					{
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	public boolean intersects(Point startPos, Point endPos)
+	{
+		return intersects(startPos.longitude(), startPos.latitude(), endPos.longitude(), endPos.latitude());
+	}
+
+	public int getEdgeCount()
+	{
+		return edgeCount;
+	}
+
+	private int cellX(double lng)
+	{
+		int x = (int) Math.floor((lng - minLng) / cellLng);
+		return Math.max(0, Math.min(gridSize - 1, x));
+	}
+
+	private int cellY(double lat)
+	{
+		int y = (int) Math.floor((lat - minLat) / cellLat);
+		return Math.max(0, Math.min(gridSize - 1, y));
+	}
+
+	private static List<Point> ring(Feature f)
+	{
+		return ((Polygon) f.geometry()).coordinates().get(0);
+	}
+}
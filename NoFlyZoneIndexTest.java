@@ -0,0 +1,115 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class NoFlyZoneIndexTest
+/**
+ * Unit tests checking the compiled 'No Fly Zones' against Controller.lineIntersectPolygon,
+ * which tests a move against every edge of the fixture buildings.
+ */
+{
+	private static FeatureCollection buildings;
+	private static NoFlyZoneIndex nfz;
+	private static List<Point> corners;
+
+	@BeforeClass
+	public static void loadBuildings() throws IOException
+	{
+		buildings = FeatureCollection.fromJson(Files.readString(Path.of("fixtures/buildings/no-fly-zones.geojson")));
+		nfz = new NoFlyZoneIndex(buildings);
+
+		corners = new ArrayList<Point>();
+		for(Feature f : buildings.features())
+		{
+			corners.addAll(((Polygon) f.geometry()).outer().coordinates());
+		}
+	}
+
+	@Test
+	public void agreesWithControllerForMovesAcrossTheMap()
+	{
+		var random = new Random(21);
+		for(int i = 0; i < 50000; i++)
+		{
+			double lng = MapContext.MIN_LNG_BOUNDARY + random.nextDouble() * (MapContext.MAX_LNG_BOUNDARY - MapContext.MIN_LNG_BOUNDARY);
+			double lat = MapContext.MIN_LAT_BOUNDARY + random.nextDouble() * (MapContext.MAX_LAT_BOUNDARY - MapContext.MIN_LAT_BOUNDARY);
+			int angle = random.nextInt(36) * 10;
+			assertAgrees(lng, lat, lng + LatticePlanner.stepLng(angle), lat + LatticePlanner.stepLat(angle));
+		}
+	}
+
+	@Test
+	public void agreesWithControllerForMovesNearCorners()
+	{
+		// Moves from, to and around the corners of the buildings, where edges meet
+		var random = new Random(22);
+		for(int i = 0; i < 50000; i++)
+		{
+			Point corner = corners.get(random.nextInt(corners.size()));
+			double lng = corner.longitude();
+			double lat = corner.latitude();
+			if(random.nextBoolean())
+			{
+				lng += (random.nextDouble() * 2 - 1) * LatticePlanner.MOVE_LENGTH;
+				lat += (random.nextDouble() * 2 - 1) * LatticePlanner.MOVE_LENGTH;
+			}
+			double heading = random.nextDouble() * 2 * Math.PI;
+			double length = random.nextDouble() * 2 * LatticePlanner.MOVE_LENGTH;
+			assertAgrees(lng, lat, lng + Math.cos(heading) * length, lat + Math.sin(heading) * length);
+		}
+	}
+
+	@Test
+	public void agreesWithControllerForLongMoves()
+	{
+		// Moves spanning many cells of the grid, and some starting outside it
+		var random = new Random(23);
+		double width = MapContext.MAX_LNG_BOUNDARY - MapContext.MIN_LNG_BOUNDARY;
+		double height = MapContext.MAX_LAT_BOUNDARY - MapContext.MIN_LAT_BOUNDARY;
+		for(int i = 0; i < 10000; i++)
+		{
+			double fromLng = MapContext.MIN_LNG_BOUNDARY + (random.nextDouble() * 1.4 - 0.2) * width;
+			double fromLat = MapContext.MIN_LAT_BOUNDARY + (random.nextDouble() * 1.4 - 0.2) * height;
+			double toLng = MapContext.MIN_LNG_BOUNDARY + (random.nextDouble() * 1.4 - 0.2) * width;
+			double toLat = MapContext.MIN_LAT_BOUNDARY + (random.nextDouble() * 1.4 - 0.2) * height;
+			assertAgrees(fromLng, fromLat, toLng, toLat);
+		}
+	}
+
+	@Test
+	public void movesTouchingABuildingIntersect()
+	{
+		// Moves along an edge or ending on a corner only touch the building, which still counts
+		Point a = corners.get(0);
+		Point b = corners.get(1);
+		assertTrue(nfz.intersects(a, b));
+		assertTrue(nfz.intersects(a, Point.fromLngLat(a.longitude() - 0.0001, a.latitude())));
+		assertFalse(nfz.intersects(MapContext.MIN_LNG_BOUNDARY + 1e-6, MapContext.MIN_LAT_BOUNDARY + 1e-6,
+								   MapContext.MIN_LNG_BOUNDARY + 2e-6, MapContext.MIN_LAT_BOUNDARY + 1e-6));
+	}
+
+	private static void assertAgrees(double fromLng, double fromLat, double toLng, double toLat)
+	{
+		Point from = Point.fromLngLat(fromLng, fromLat);
+		Point to = Point.fromLngLat(toLng, toLat);
+		assertEquals("Move from " + from.coordinates() + " to " + to.coordinates(),
+					 Controller.lineIntersectPolygon(from, to, buildings), nfz.intersects(from, to));
+	}
+}
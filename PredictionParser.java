@@ -0,0 +1,141 @@
+package uk.ac.ed.inf.heatmap;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The following class reads a predictions file straight into an array of integers.  The file
+ * is memory mapped and scanned one byte at a time, building each value up digit by digit, so
+ * no Strings are created and files with millions of values can be read quickly.
+ * 
+ * Values are separated by commas and new lines, spaces and carriage returns are ignored and
+ * blank lines are skipped.  Anything else is reported with the line and column it was found at.
+ */
+
+public class PredictionParser 
+{
+	// Files larger than this are mapped a piece at a time
+	private static final long CHUNK_SIZE = 1L << 30;
+	
+    public static int[] parse(Path file) throws IOException
+    // This method returns every value in the file, in the order they appear
+    {
+    	int[] values = new int[1024];
+    	int count = 0;
+    	
+    	// State of the value currently being read
+    	long value = 0;
+    	boolean negative = false;
+    	boolean inValue = false;
+    	boolean endedValue = false;
+    	boolean cellStarted = false;
+    	boolean lineBlank = true;
+    	
+    	// Position in the file, for error messages
+    	long line = 1;
+    	long column = 1;
+    	
+    	try (var channel = FileChannel.open(file, StandardOpenOption.READ))
+    	{
+    		long size = channel.size();
+    		for (long start = 0; start < size; start += CHUNK_SIZE)
+    		{
+    			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+    			
+    			while (buffer.hasRemaining())
+    			{
+    				byte b = buffer.get();
+    				
+    				if (b >= '0' && b <= '9')
+    				{
+    					if (endedValue)
+    					{
+    						throw malformed(file, line, column, "missing comma between values");
+    					}
+    					value = value * 10 + (b - '0');
+    					if (value > (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE))
+    					{
+    						throw malformed(file, line, column, "value is too large");
+    					}
+    					inValue = true;
+    					cellStarted = true;
+    					lineBlank = false;
+    				}
+    				else if (b == '-' && !cellStarted)
+    				{
+    					negative = true;
+    					cellStarted = true;
+    					lineBlank = false;
+    				}
+    				else if (b == ' ' || b == '\t' || b == '\r')
+    				{
+    					// A space after a value ends it, so "1 2" is not read as 12
+    					endedValue = inValue;
+    				}
+    				else if (b == ',' || b == '\n')
+    				{
+    					if (inValue)
+    					{
+    						if (count == values.length)
+    						{
+    							values = Arrays.copyOf(values, count * 2);
+    						}
+    						values[count++] = (int) (negative ? -value : value);
+    					}
+    					else if (b == ',' || cellStarted || !lineBlank)
+    					{
+    						// Only a completely blank line may be without a value
+    						throw malformed(file, line, column, "empty or incomplete cell");
+    					}
+    					
+    					value = 0;
+    					negative = false;
+    					inValue = false;
+    					endedValue = false;
+    					cellStarted = false;
+    					lineBlank = b == '\n';
+    				}
+    				else
+    				{
+    					throw malformed(file, line, column, "unexpected character '" + (char) (b & 0xff) + "'");
+    				}
+    				
+    				if (b == '\n')
+    				{
+    					line++;
+    					column = 1;
+    				}
+    				else
+    				{
+    					column++;
+    				}
+    			}
+    		}
+    	}
+    	
+    	// The last value may not be followed by a new line
+    	if (inValue)
+    	{
+    		if (count == values.length)
+    		{
+    			values = Arrays.copyOf(values, count + 1);
+    		}
+    		values[count++] = (int) (negative ? -value : value);
+    	}
+    	else if (cellStarted)
+    	{
+    		throw malformed(file, line, column, "empty or incomplete cell");
+    	}
+    	
+    	return Arrays.copyOf(values, count);
+    }
+    
+    private static IOException malformed(Path file, long line, long column, String reason)
+    {
+    	return new IOException(file + ":" + line + ":" + column + ": malformed prediction, " + reason);
+    }
+}
@@ -0,0 +1,64 @@
+package uk.ac.ed.inf.aqmaps;
+
+public final class ReadingClass
+/**
+ * This class maps air quality readings to the colour and symbol they are drawn with on the
+ * GeoJSON maps. Readings from 0 up to 256 fall into eight buckets 32 wide, numbered 0 to 7;
+ * sensors with low battery and readings that are missing or out of range have classes of
+ * their own. The bucket of every whole reading is worked out once, up front.
+ */
+{
+	// Classes other than the eight reading buckets
+	public static final byte LOW_BATTERY = 8;
+	public static final byte NO_READING = 9;
+	
+	// Batteries below this level give unreliable readings
+	public static final double MIN_BATTERY = 10;
+	
+	// Colour and symbol of each class, indexed by class
+	private static final String[] COLOURS = { "#00ff00", "#40ff00", "#80ff00", "#c0ff00",
+											  "#ffc000", "#ff8000", "#ff4000", "#ff0000",
+											  "#000000", "#aaaaaa" };
+	private static final String[] SYMBOLS = { "lighthouse", "lighthouse", "lighthouse", "lighthouse",
+											  "danger", "danger", "danger", "danger",
+											  "cross", "" };
+	
+	// Bucket of every whole reading from 0 to 255
+	private static final byte[] BUCKETS = new byte[256];
+	static
+	{
+		for(int reading = 0; reading < BUCKETS.length; reading++)
+		{
+			BUCKETS[reading] = (byte) (reading / 32);
+		}
+	}
+	
+	public static byte ofReading(double reading)
+	/**
+	 * This method returns the class of a reading on its own. NaN, negative readings and
+	 * readings of 256 or more are NO_READING.
+	 */
+	{
+		if(!(reading >= 0 && reading < BUCKETS.length)) return NO_READING;
+		return BUCKETS[(int) reading];
+	}
+	
+	public static byte of(double reading, double battery)
+	/**
+	 * This method returns the class of a sensor's reading, taking its battery level into account.
+	 */
+	{
+		if(battery < MIN_BATTERY) return LOW_BATTERY;
+		return ofReading(reading);
+	}
+	
+	public static String colour(byte readingClass)
+	{
+		return COLOURS[readingClass];
+	}
+	
+	public static String symbol(byte readingClass)
+	{
+		return SYMBOLS[readingClass];
+	}
+}
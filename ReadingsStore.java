@@ -0,0 +1,117 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+
+public class ReadingsStore
+/**
+ * This class holds the readings the drone has taken, in the order they were taken. Each
+ * field is kept in its own primitive array (a column) so that the readings are parsed only
+ * once, when they are collected, and can then be scanned without any further conversion.
+ * Missing readings ("null" or "NaN") are stored as NaN.
+ */
+{
+	// Define attributes
+	private int size;
+	private double[] reading;
+	private double[] battery;
+	private byte[] classCode;
+	private double[] lng;
+	private double[] lat;
+	private String[] location;
+	
+	// Constructor
+	public ReadingsStore()
+	{
+		this(64);
+	}
+	
+	public ReadingsStore(int capacity)
+	{
+		capacity = Math.max(capacity, 1);
+		this.reading = new double[capacity];
+		this.battery = new double[capacity];
+		this.classCode = new byte[capacity];
+		this.lng = new double[capacity];
+		this.lat = new double[capacity];
+		this.location = new String[capacity];
+	}
+	
+	public void add(Sensor sensor)
+	/**
+	 * This method records the reading of a sensor the drone has just visited.
+	 */
+	{
+		add(parseReading(sensor.getReading()), sensor.getBattery(), sensor.getCoordinates().longitude(),
+			sensor.getCoordinates().latitude(), sensor.getLocation());
+	}
+	
+	public void add(double sensorReading, double sensorBattery, double sensorLng, double sensorLat, String sensorLocation)
+	{
+		if(size == reading.length) grow();
+		
+		reading[size] = sensorReading;
+		battery[size] = sensorBattery;
+		classCode[size] = ReadingClass.of(sensorReading, sensorBattery);
+		lng[size] = sensorLng;
+		lat[size] = sensorLat;
+		location[size] = sensorLocation;
+		size++;
+	}
+	
+	public static double parseReading(String value)
+	/**
+	 * This method converts a reading as sent by the webserver to a number, with NaN for
+	 * readings that are missing.
+	 */
+	{
+		if(value == null || value.equals("null") || value.equals("NaN")) return Double.NaN;
+		return Double.parseDouble(value);
+	}
+	
+	// Getters
+	public int size()
+	{
+		return size;
+	}
+	
+	public double getReading(int i)
+	{
+		return reading[i];
+	}
+	
+	public double getBattery(int i)
+	{
+		return battery[i];
+	}
+	
+	public byte getClassCode(int i)
+	{
+		return classCode[i];
+	}
+	
+	public double getLongitude(int i)
+	{
+		return lng[i];
+	}
+	
+	public double getLatitude(int i)
+	{
+		return lat[i];
+	}
+	
+	public String getLocation(int i)
+	{
+		return location[i];
+	}
+	
+	private void grow()
+	{
+		int capacity = reading.length * 2;
+		reading = Arrays.copyOf(reading, capacity);
+		battery = Arrays.copyOf(battery, capacity);
+		classCode = Arrays.copyOf(classCode, capacity);
+		lng = Arrays.copyOf(lng, capacity);
+		lat = Arrays.copyOf(lat, capacity);
+		location = Arrays.copyOf(location, capacity);
+	}
+}
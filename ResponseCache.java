@@ -0,0 +1,250 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+public class ResponseCache
+/**
+ * This class keeps the bodies of webserver responses on disk, keyed by URL, along with the
+ * ETag and Last-Modified validators the webserver sent with them. Server uses these to make
+ * conditional requests, so that a file that has not changed is not sent again. Responses that
+ * came without validators are instead trusted for a fixed time after they were fetched.
+ *
+ * Each URL is stored as two files named after the SHA-256 hash of the URL: the body, and a
+ * small properties file holding the URL, the validators, when the body was fetched and the
+ * SHA-256 hash of the body. Both are written to a temporary file first and moved into place,
+ * the properties before the body. A crash between the two moves leaves a body whose hash does
+ * not match, which is then treated as not cached, so a body is never used with another's
+ * validators.
+ *
+ * Parsed forms of the bodies, such as the 'No Fly Zones' FeatureCollection, can also be kept
+ * in memory for as long as the cache object lives. All methods are synchronised.
+ */
+{
+	public static final Duration DEFAULT_MAX_AGE = Duration.ofHours(1);
+
+	// Define attributes
+	private final Path directory;
+	private final Duration maxAge;
+	private final Map<String, Object> parsed;
+
+	// Constructors
+	public ResponseCache(Path directory) throws IOException
+	{
+		this(directory, DEFAULT_MAX_AGE);
+	}
+
+	public ResponseCache(Path directory, Duration maxAge) throws IOException
+	{
+		this.directory = directory;
+		this.maxAge = maxAge;
+		this.parsed = new HashMap<String, Object>();
+		Files.createDirectories(directory);
+	}
+
+	public synchronized Entry get(String url) throws IOException
+	/**
+	 * This method returns the cached response for the given URL, or null if there is none.
+	 */
+	{
+		Path meta = metaFile(url);
+		Path body = bodyFile(url);
+		if(!Files.exists(meta) || !Files.exists(body)) return null;
+
+		var properties = new Properties();
+		try(Reader in = Files.newBufferedReader(meta, StandardCharsets.UTF_8))
+		{
+			properties.load(in);
+		}
+		// Two URLs with the same hash would be astonishing, but cost nothing to rule out
+		if(!url.equals(properties.getProperty("url"))) return null;
+
+		String text = Files.readString(body, StandardCharsets.UTF_8);
+		if(!hash(text).equals(properties.getProperty("bodyHash"))) return null;
+
+		return new Entry(text, properties.getProperty("etag"), properties.getProperty("lastModified"),
+						 Long.parseLong(properties.getProperty("fetchedAt", "0")));
+	}
+
+	public synchronized void put(String url, String body, String etag, String lastModified) throws IOException
+	/**
+	 * This method stores a fresh response for the given URL, replacing any earlier one. Either
+	 * validator may be null if the webserver did not send it.
+	 */
+	{
+		writeMeta(url, etag, lastModified, hash(body));
+		replace(bodyFile(url), body);
+		parsed.remove(url);
+	}
+
+	public synchronized void revalidated(String url) throws IOException
+	/**
+	 * This method records that the webserver has confirmed the cached response is still current,
+	 * restarting the time it is trusted for.
+	 */
+	{
+		var entry = get(url);
+		if(entry != null) writeMeta(url, entry.etag, entry.lastModified, hash(entry.body));
+	}
+
+	public boolean isFresh(Entry entry)
+	/**
+	 * This method returns whether a response can be used without asking the webserver. Only
+	 * responses without validators are used unchecked, and only until they reach the maximum age.
+	 */
+	{
+		if(entry.hasValidators()) return false;
+
+		return System.currentTimeMillis() - entry.fetchedAt < maxAge.toMillis();
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized <T> T parsed(String url, String body, Function<String, T> parser)
+	/**
+	 * This method returns the parsed form of a cached body, parsing it only the first time it is
+	 * asked for. The parsed form is shared, so it must not be modified by the caller.
+	 */
+	{
+		var cached = (Parsed<T>) parsed.get(url);
+		if(cached != null && cached.body.equals(body)) return cached.value;
+
+		T value = parser.apply(body);
+		parsed.put(url, new Parsed<T>(body, value));
+		return value;
+	}
+
+	public synchronized void clear() throws IOException
+	{
+		parsed.clear();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{body,properties}"))
+		{
+			for(Path file : files)
+			{
+				Files.delete(file);
+			}
+		}
+	}
+
+	private void writeMeta(String url, String etag, String lastModified, String bodyHash) throws IOException
+	{
+		var properties = new Properties();
+		properties.setProperty("url", url);
+		properties.setProperty("bodyHash", bodyHash);
+		properties.setProperty("fetchedAt", Long.toString(System.currentTimeMillis()));
+		if(etag != null) properties.setProperty("etag", etag);
+		if(lastModified != null) properties.setProperty("lastModified", lastModified);
+
+		Path temp = Files.createTempFile(directory, "meta", ".tmp");
+		try(Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+		{
+			properties.store(out, null);
+		}
+		Files.move(temp, metaFile(url), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void replace(Path file, String contents) throws IOException
+	{
+		Path temp = Files.createTempFile(directory, "body", ".tmp");
+		Files.writeString(temp, contents, StandardCharsets.UTF_8);
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Path bodyFile(String url)
+	{
+		return directory.resolve(hash(url) + ".body");
+	}
+
+	private Path metaFile(String url)
+	{
+		return directory.resolve(hash(url) + ".properties");
+	}
+
+	private static String hash(String text)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+			var hex = new StringBuilder(digest.length * 2);
+			for(byte b : digest)
+			{
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static class Entry
+	/**
+	 * A cached response: its body, the validators sent with it (either may be null) and when
+	 * it was last fetched or confirmed, in milliseconds since the epoch.
+	 */
+	{
+		private final String body;
+		private final String etag;
+		private final String lastModified;
+		private final long fetchedAt;
+
+		Entry(String body, String etag, String lastModified, long fetchedAt)
+		{
+			this.body = body;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.fetchedAt = fetchedAt;
+		}
+
+		public String getBody()
+		{
+			return body;
+		}
+
+		public String getEtag()
+		{
+			return etag;
+		}
+
+		public String getLastModified()
+		{
+			return lastModified;
+		}
+
+		public long getFetchedAt()
+		{
+			return fetchedAt;
+		}
+
+		public boolean hasValidators()
+		{
+			return etag != null || lastModified != null;
+		}
+	}
+
+	private static class Parsed<T>
+	{
+		final String body;
+		final T value;
+
+		Parsed(String body, T value)
+		{
+			this.body = body;
+			this.value = value;
+		}
+	}
+}
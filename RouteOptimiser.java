@@ -0,0 +1,321 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+public class RouteOptimiser
+/**
+ * This class improves the order in which the drone visits the sensors. Starting from the
+ * 'Greedy' tour found by Controller.orderSensors, it applies 2-opt and Or-opt moves until no
+ * move shortens the tour, then keeps kicking the tour and repeating the descent until the
+ * time budget runs out. Several of these searches are run in parallel, one per core, and
+ * the shortest tour any of them finds is returned.
+ *
+ * Distances are given as a matrix in which index 0 is the drone's start position and
+ * indices 1 to n are the sensors. The cost of a tour includes flying from the start to
+ * the first sensor and from the last sensor back to the start.
+ */
+{
+	// Improvements smaller than this are treated as rounding noise
+	private static final double EPSILON = 1e-12;
+	private static final int MAX_SEGMENT = 3;
+
+	// Define attributes
+	private final double[][] dist;
+	private final int n;
+
+	// Constructor
+	public RouteOptimiser(double[][] dist)
+	{
+		this.dist = dist;
+		this.n = dist.length - 1;
+	}
+
+	public int[] optimise(int[] initialTour, long budgetMillis)
+	/**
+	 * This method returns the best tour found within the time budget, as a permutation of
+	 * the sensor indices 1 to n. With a budget of zero only a single descent is made from
+	 * the initial tour, which always gives the same result.
+	 */
+	{
+		int[] route = toRoute(initialTour);
+		if(n < 3) return initialTour.clone();
+
+		if(budgetMillis <= 0)
+		{
+			improve(route, Long.MAX_VALUE);
+			return toTour(route);
+		}
+
+		long deadline = System.nanoTime() + budgetMillis * 1_000_000L;
+		int restarts = Runtime.getRuntime().availableProcessors();
+
+		// Run one search per core, each with its own random kicks
+		var searches = new ArrayList<CompletableFuture<int[]>>();
+		for(int r = 0; r < restarts; r++)
+		{
+			long seed = r;
+			searches.add(CompletableFuture.supplyAsync(() -> search(route.clone(), seed, deadline)));
+		}
+
+		int[] best = route;
+		double bestCost = cost(route);
+		for(var search : searches)
+		{
+			int[] candidate = search.join();
+			double candidateCost = cost(candidate);
+			if(candidateCost < bestCost - EPSILON)
+			{
+				best = candidate;
+				bestCost = candidateCost;
+			}
+		}
+
+		return toTour(best);
+	}
+
+	public double tourCost(int[] tour)
+	/**
+	 * This method returns the length of a tour, including the legs to and from the start.
+	 */
+	{
+		return cost(toRoute(tour));
+	}
+
+	private int[] search(int[] route, long seed, long deadline)
+	/**
+	 * This method performs an iterated local search: the best route found so far is perturbed
+	 * with a random double-bridge move and improved again, and the result is kept if it is
+	 * shorter. The first search starts from the unperturbed initial tour.
+	 */
+	{
+		var rand = new Random(seed);
+		if(seed != 0) doubleBridge(route, rand);
+		improve(route, deadline);
+
+		int[] best = route.clone();
+		double bestCost = cost(best);
+
+		while(System.nanoTime() < deadline)
+		{
+			int[] candidate = best.clone();
+			doubleBridge(candidate, rand);
+			improve(candidate, deadline);
+
+			double candidateCost = cost(candidate);
+			if(candidateCost < bestCost - EPSILON)
+			{
+				best = candidate;
+				bestCost = candidateCost;
+			}
+		}
+		return best;
+	}
+
+	private void improve(int[] route, long deadline)
+	/**
+	 * This method applies 2-opt and Or-opt moves to the route until neither finds an
+	 * improvement, or the deadline passes.
+	 */
+	{
+		boolean improved = true;
+		while(improved && System.nanoTime() < deadline)
+		{
+			improved = twoOpt(route, deadline);
+			improved |= orOpt(route);
+		}
+	}
+
+	private boolean twoOpt(int[] route, long deadline)
+	/**
+	 * This method reverses sections of the route wherever doing so removes two crossing or
+	 * otherwise wasteful legs.
+	 */
+	{
+		int size = route.length;
+		boolean improved = false;
+
+		for(int i = 0; i < size - 2; i++)
+		{
+			if(System.nanoTime() >= deadline) return improved;
+
+			int a = route[i];
+			int b = route[i + 1];
+			for(int j = i + 2; j < size; j++)
+			{
+				int c = route[j];
+				int d = route[(j + 1) % size];
+				// The two legs share a point, so reversing between them changes nothing
+				if(d == a) continue;
+
+				double delta = dist[a][c] + dist[b][d] - dist[a][b] - dist[c][d];
+				if(delta < -EPSILON)
+				{
+					reverse(route, i + 1, j);
+					b = route[i + 1];
+					improved = true;
+				}
+			}
+		}
+		return improved;
+	}
+
+	private boolean orOpt(int[] route)
+	/**
+	 * This method moves short runs of one to three sensors to a cheaper place in the route,
+	 * trying both orientations of the run.
+	 */
+	{
+		int size = route.length;
+		boolean improved = false;
+
+		for(int length = 1; length <= MAX_SEGMENT && length < size - 1; length++)
+		{
+			// The start position stays at index 0, so runs start from index 1
+			for(int i = 1; i + length <= size; i++)
+			{
+				int first = route[i];
+				int last = route[i + length - 1];
+				int prev = route[i - 1];
+				int next = route[(i + length) % size];
+
+				double removeGain = dist[prev][first] + dist[last][next] - dist[prev][next];
+
+				int bestPos = -1;
+				boolean bestReversed = false;
+				double bestDelta = -EPSILON;
+
+				for(int j = 0; j < size; j++)
+				{
+					// Skip the legs touching the run itself
+					if(j >= i - 1 && j < i + length) continue;
+
+					int a = route[j];
+					int b = route[(j + 1) % size];
+
+					double forward = dist[a][first] + dist[last][b] - dist[a][b] - removeGain;
+					double backward = dist[a][last] + dist[first][b] - dist[a][b] - removeGain;
+					if(forward < bestDelta)
+					{
+						bestDelta = forward;
+						bestPos = j;
+						bestReversed = false;
+					}
+					if(backward < bestDelta)
+					{
+						bestDelta = backward;
+						bestPos = j;
+						bestReversed = true;
+					}
+				}
+
+				if(bestPos >= 0)
+				{
+					moveSegment(route, i, length, bestPos, bestReversed);
+					improved = true;
+				}
+			}
+		}
+		return improved;
+	}
+
+	private static void moveSegment(int[] route, int start, int length, int after, boolean reversed)
+	/**
+	 * This method removes route[start .. start+length-1] and reinserts it after the point
+	 * that was at index 'after' before the removal.
+	 */
+	{
+		int[] segment = new int[length];
+		System.arraycopy(route, start, segment, 0, length);
+		if(reversed) reverse(segment, 0, length - 1);
+
+		var rest = new int[route.length - length];
+		int k = 0;
+		int insertAt = -1;
+		for(int i = 0; i < route.length; i++)
+		{
+			if(i >= start && i < start + length) continue;
+			rest[k++] = route[i];
+			if(i == after) insertAt = k;
+		}
+
+		System.arraycopy(rest, 0, route, 0, insertAt);
+		System.arraycopy(segment, 0, route, insertAt, length);
+		System.arraycopy(rest, insertAt, route, insertAt + length, rest.length - insertAt);
+	}
+
+	private void doubleBridge(int[] route, Random rand)
+	/**
+	 * This method cuts the route into four parts and reconnects them in a different order,
+	 * a kick that 2-opt and Or-opt cannot undo in a single move.
+	 */
+	{
+		int size = route.length;
+		if(size < 8)
+		{
+			// Too short for a double bridge, so swap two sensors instead
+			int i = 1 + rand.nextInt(size - 1);
+			int j = 1 + rand.nextInt(size - 1);
+			int tmp = route[i];
+			route[i] = route[j];
+			route[j] = tmp;
+			return;
+		}
+
+		int p1 = 1 + rand.nextInt(size / 4);
+		int p2 = p1 + 1 + rand.nextInt(size / 4);
+		int p3 = p2 + 1 + rand.nextInt(size / 4);
+
+		int[] kicked = new int[size];
+		int k = 0;
+		for(int i = 0; i < p1; i++) kicked[k++] = route[i];
+		for(int i = p3; i < size; i++) kicked[k++] = route[i];
+		for(int i = p2; i < p3; i++) kicked[k++] = route[i];
+		for(int i = p1; i < p2; i++) kicked[k++] = route[i];
+
+		System.arraycopy(kicked, 0, route, 0, size);
+	}
+
+	private double cost(int[] route)
+	{
+		double total = 0;
+		for(int i = 0; i < route.length; i++)
+		{
+			total += dist[route[i]][route[(i + 1) % route.length]];
+		}
+		return total;
+	}
+
+	private static void reverse(int[] route, int from, int to)
+	{
+		while(from < to)
+		{
+			int tmp = route[from];
+			route[from++] = route[to];
+			route[to--] = tmp;
+		}
+	}
+
+	private static int[] toRoute(int[] tour)
+	{
+		// A route is a tour with the start position prepended at index 0
+		int[] route = new int[tour.length + 1];
+		System.arraycopy(tour, 0, route, 1, tour.length);
+		return route;
+	}
+
+	private static int[] toTour(int[] route)
+	{
+		// 2-opt may reverse the start position into the middle of the route, so rotate it back
+		int zero = 0;
+		while(route[zero] != 0) zero++;
+
+		int[] tour = new int[route.length - 1];
+		for(int i = 1; i < route.length; i++)
+		{
+			tour[i - 1] = route[(zero + i) % route.length];
+		}
+		return tour;
+	}
+}
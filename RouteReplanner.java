@@ -0,0 +1,455 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mapbox.geojson.Point;
+
+public class RouteReplanner
+/**
+ * This class keeps a planned route up to date when the day's sensors change part way through a
+ * mission, without ordering and flying the whole route again. A Plan holds the drone's current
+ * position, the sensors it has still to visit in order, and the moves of every leg from there
+ * back to the start. A Delta adds, removes or moves one sensor:
+ *  - the order is patched by cheapest insertion or removal, then repaired with 2-opt moves
+ *    in a small window around the change, using straight-line distances as orderSensors does;
+ *  - only legs whose ends have changed are searched again with the LatticePlanner. A leg whose
+ *    ends are unchanged but which now starts from a slightly different position is shifted
+ *    to start there, and is kept if the shifted moves are still legal and still end within
+ *    reading distance.
+ *
+ * Legs are planned with the LatticePlanner rather than the reactive search, as its legs do not
+ * depend on the moves before them and so can be replaced one at a time.
+ *
+ * A plan may need more moves than the drone has left, as adding sensors lengthens the route.
+ * Such plans are still returned, so the caller can drop sensors, but isWithinMoveLimit is false.
+ */
+{
+	// Positions either side of a change that the local repair may reorder
+	private static final int REPAIR_WINDOW = 3;
+
+	// Improvements smaller than this are treated as rounding noise
+	private static final double EPSILON = 1e-12;
+
+	// Define attributes
+	private final NoFlyZoneIndex nfz;
+	private final Point returnPosition;
+	private final LatticePlanner planner;
+
+	// Constructor
+	public RouteReplanner(NoFlyZoneIndex nfz, Point returnPosition)
+	/**
+	 * Creates a replanner for drones that finish their routes at returnPosition.
+	 */
+	{
+		this.nfz = nfz;
+		this.returnPosition = returnPosition;
+		this.planner = new LatticePlanner(nfz);
+	}
+
+	public Plan plan(Point position, List<Sensor> sensors)
+	/**
+	 * This method plans every leg of a route from scratch, visiting the sensors in the order given.
+	 */
+	{
+		return build(position, new ArrayList<Sensor>(sensors), Collections.<Sensor, Leg>emptyMap(), 0);
+	}
+
+	public Plan replan(Plan plan, Delta delta)
+	/**
+	 * This method applies a change to the sensors still to be visited and returns the new plan,
+	 * reusing as much of the old plan as it can. The old plan is left as it was.
+	 */
+	{
+		var order = new ArrayList<Sensor>(plan.sensors);
+		var changed = new ArrayList<Integer>();
+
+		if(delta.oldLocation != null)
+		{
+			int index = indexOf(order, delta.oldLocation);
+			if(index < 0) throw new IllegalArgumentException("No sensor at " + delta.oldLocation + " is left to visit");
+			order.remove(index);
+			changed.add(index);
+		}
+		if(delta.sensor != null)
+		{
+			int index = cheapestInsertion(plan.position, order, delta.sensor.getCoordinates());
+			order.add(index, delta.sensor);
+			// A removal before the insertion point has shifted by one
+			for(int c = 0; c < changed.size(); c++)
+			{
+				if(changed.get(c) >= index) changed.set(c, changed.get(c) + 1);
+			}
+			changed.add(index);
+		}
+
+		for(int index : changed)
+		{
+			repair(plan.position, order, index);
+		}
+
+		return build(plan.position, order, plan.legsByTarget(), plan.movesFlown);
+	}
+
+	public Plan advance(Plan plan, int legs)
+	/**
+	 * This method returns the plan left once the drone has flown the first legs of it, so that
+	 * later changes are applied from where the drone actually is.
+	 */
+	{
+		if(legs < 0 || legs > plan.sensors.size())
+		{
+			throw new IllegalArgumentException("Cannot fly " + legs + " of " + plan.sensors.size() + " sensor legs");
+		}
+		// The next leg now starts from the drone's position rather than from a sensor
+		var rest = new ArrayList<Leg>(plan.legs.subList(legs, plan.legs.size()));
+		Leg next = rest.get(0);
+		rest.set(0, new Leg(null, next.to, next.start, next.angles));
+
+		int movesFlown = plan.movesFlown;
+		for(Leg leg : plan.legs.subList(0, legs)) movesFlown += leg.angles.length;
+		return new Plan(next.start, plan.sensors.subList(legs, plan.sensors.size()), rest, movesFlown);
+	}
+
+	private Plan build(Point position, List<Sensor> order, Map<Sensor, Leg> oldLegs, int movesFlown)
+	/**
+	 * This method makes the legs for a route in order, keeping any old leg between the same
+	 * two sensors that can still be flown from where the previous leg now ends. movesFlown is
+	 * how many moves the drone had already made to reach position.
+	 */
+	{
+		var legs = new ArrayList<Leg>(order.size() + 1);
+		int planned = 0;
+		int shifted = 0;
+		int kept = 0;
+
+		Point start = position;
+		Sensor from = null;
+		for(int i = 0; i <= order.size(); i++)
+		{
+			Sensor to = i < order.size() ? order.get(i) : null;
+			Point target = to == null ? returnPosition : to.getCoordinates();
+
+			Leg old = oldLegs.get(to);
+			Leg leg = null;
+			if(old != null && old.from == from)
+			{
+				if(old.start.longitude() == start.longitude() && old.start.latitude() == start.latitude())
+				{
+					leg = old;
+					kept++;
+				}
+				else
+				{
+					leg = shift(old, start, target);
+					if(leg != null) shifted++;
+				}
+			}
+			if(leg == null)
+			{
+				int[] angles = planner.plan(start, target, FlightSimulator.MAX_MOVES);
+				if(angles == null)
+				{
+					throw new IllegalStateException("No legal path from " + start.coordinates() + " to " + target.coordinates());
+				}
+				leg = new Leg(from, to, start, angles);
+				planned++;
+			}
+
+			legs.add(leg);
+			start = leg.end;
+			from = to;
+		}
+
+		var plan = new Plan(position, order, legs, movesFlown);
+		plan.legsPlanned = planned;
+		plan.legsShifted = shifted;
+		plan.legsKept = kept;
+		return plan;
+	}
+
+	private Leg shift(Leg old, Point start, Point target)
+	/**
+	 * This method returns the old leg flown from a new start, or null if any of its moves would
+	 * now cross a 'No Fly Zone' or leave the boundary, or if it would no longer end within
+	 * reading distance of its target.
+	 */
+	{
+		double lng = start.longitude();
+		double lat = start.latitude();
+		for(int angle : old.angles)
+		{
+			double nextLng = lng + LatticePlanner.stepLng(angle);
+			double nextLat = lat + LatticePlanner.stepLat(angle);
+			if(!MapContext.insideBoundary(nextLng, nextLat) || nfz.intersects(lng, lat, nextLng, nextLat)) return null;
+			lng = nextLng;
+			lat = nextLat;
+		}
+		if(Math.hypot(lng - target.longitude(), lat - target.latitude()) > LatticePlanner.READ_DISTANCE) return null;
+
+		return new Leg(old.from, old.to, start, old.angles);
+	}
+
+	private int cheapestInsertion(Point position, List<Sensor> order, Point point)
+	/**
+	 * This method returns the index at which adding the point lengthens the route the least.
+	 */
+	{
+		int best = 0;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for(int i = 0; i <= order.size(); i++)
+		{
+			Point prev = i == 0 ? position : order.get(i - 1).getCoordinates();
+			Point next = i == order.size() ? returnPosition : order.get(i).getCoordinates();
+			double cost = dist(prev, point) + dist(point, next) - dist(prev, next);
+			if(cost < bestCost - EPSILON)
+			{
+				best = i;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	private void repair(Point position, List<Sensor> order, int index)
+	/**
+	 * This method applies improving 2-opt moves whose ends both lie within the repair window
+	 * around index, until none is left.
+	 */
+	{
+		int lo = Math.max(0, index - REPAIR_WINDOW);
+		int hi = Math.min(order.size() - 1, index + REPAIR_WINDOW);
+
+		boolean improved = true;
+		while(improved)
+		{
+			improved = false;
+			for(int a = lo; a < hi; a++)
+			{
+				for(int b = a + 1; b <= hi; b++)
+				{
+					// Reversing a..b replaces the edges into a and out of b
+					Point prev = a == 0 ? position : order.get(a - 1).getCoordinates();
+					Point next = b == order.size() - 1 ? returnPosition : order.get(b + 1).getCoordinates();
+					Point first = order.get(a).getCoordinates();
+					Point last = order.get(b).getCoordinates();
+					double gain = dist(prev, first) + dist(last, next) - dist(prev, last) - dist(first, next);
+					if(gain > EPSILON)
+					{
+						Collections.reverse(order.subList(a, b + 1));
+						improved = true;
+					}
+				}
+			}
+		}
+	}
+
+	private static int indexOf(List<Sensor> order, String location)
+	{
+		for(int i = 0; i < order.size(); i++)
+		{
+			if(order.get(i).getLocation().equals(location)) return i;
+		}
+		return -1;
+	}
+
+	private static double dist(Point a, Point b)
+	{
+		return Math.hypot(a.longitude() - b.longitude(), a.latitude() - b.latitude());
+	}
+
+	public static class Delta
+	/**
+	 * A change to the sensors still to be visited: a sensor added, a sensor removed, or a sensor
+	 * replaced by one at a new position, such as after its What3Words address was corrected.
+	 */
+	{
+		private final String oldLocation;
+		private final Sensor sensor;
+
+		private Delta(String oldLocation, Sensor sensor)
+		{
+			this.oldLocation = oldLocation;
+			this.sensor = sensor;
+		}
+
+		public static Delta add(Sensor sensor)
+		{
+			return new Delta(null, sensor);
+		}
+
+		public static Delta remove(String location)
+		{
+			return new Delta(location, null);
+		}
+
+		public static Delta move(String oldLocation, Sensor sensor)
+		/**
+		 * The sensor at oldLocation is to be visited at the new sensor's coordinates instead.
+		 * The new sensor's location may differ from the old one if the address was corrected.
+		 */
+		{
+			return new Delta(oldLocation, sensor);
+		}
+	}
+
+	public static class Plan
+	/**
+	 * A planned route: the position it starts from, the sensors still to visit in order, and a
+	 * leg for each of them followed by the leg back to the start. It also records the moves
+	 * already flown to reach the position, and how many legs were searched for, shifted or kept
+	 * as they were when it was made.
+	 */
+	{
+		private final Point position;
+		private final List<Sensor> sensors;
+		private final List<Leg> legs;
+		private final int movesFlown;
+		private int legsPlanned;
+		private int legsShifted;
+		private int legsKept;
+
+		Plan(Point position, List<Sensor> sensors, List<Leg> legs, int movesFlown)
+		{
+			this.position = position;
+			this.sensors = Collections.unmodifiableList(new ArrayList<Sensor>(sensors));
+			this.legs = Collections.unmodifiableList(new ArrayList<Leg>(legs));
+			this.movesFlown = movesFlown;
+		}
+
+		public Point getPosition()
+		{
+			return position;
+		}
+
+		public List<Sensor> getSensors()
+		{
+			return sensors;
+		}
+
+		public List<Leg> getLegs()
+		{
+			return legs;
+		}
+
+		public int getMoves()
+		{
+			int moves = 0;
+			for(Leg leg : legs) moves += leg.angles.length;
+			return moves;
+		}
+
+		public int getMovesFlown()
+		{
+			return movesFlown;
+		}
+
+		public boolean isWithinMoveLimit()
+		/**
+		 * This method returns whether the drone can fly the rest of the plan without making more
+		 * than FlightSimulator.MAX_MOVES moves in the whole mission.
+		 */
+		{
+			return movesFlown + getMoves() <= FlightSimulator.MAX_MOVES;
+		}
+
+		public int[] getAngles()
+		/**
+		 * This method returns the angle of every move in the plan, leg after leg.
+		 */
+		{
+			int[] angles = new int[getMoves()];
+			int m = 0;
+			for(Leg leg : legs)
+			{
+				System.arraycopy(leg.angles, 0, angles, m, leg.angles.length);
+				m += leg.angles.length;
+			}
+			return angles;
+		}
+
+		public int getLegsPlanned()
+		{
+			return legsPlanned;
+		}
+
+		public int getLegsShifted()
+		{
+			return legsShifted;
+		}
+
+		public int getLegsKept()
+		{
+			return legsKept;
+		}
+
+		private Map<Sensor, Leg> legsByTarget()
+		{
+			// The leg back to the start is stored under null
+			var byTarget = new HashMap<Sensor, Leg>();
+			for(Leg leg : legs) byTarget.put(leg.to, leg);
+			return byTarget;
+		}
+
+		@Override
+		public String toString()
+		{
+			return sensors.size() + " sensors in " + getMoves() + " moves (" + legsPlanned + " legs planned, "
+				   + legsShifted + " shifted, " + legsKept + " kept)"
+				   + (isWithinMoveLimit() ? "" : ", over the limit of " + FlightSimulator.MAX_MOVES + " moves");
+		}
+	}
+
+	public static class Leg
+	/**
+	 * The moves from one sensor, or the drone's position, to the next sensor, or back to the
+	 * start when to is null.
+	 */
+	{
+		private final Sensor from;
+		private final Sensor to;
+		private final Point start;
+		private final Point end;
+		private final int[] angles;
+
+		Leg(Sensor from, Sensor to, Point start, int[] angles)
+		{
+			this.from = from;
+			this.to = to;
+			this.start = start;
+			this.angles = angles;
+
+			double lng = start.longitude();
+			double lat = start.latitude();
+			for(int angle : angles)
+			{
+				lng += LatticePlanner.stepLng(angle);
+				lat += LatticePlanner.stepLat(angle);
+			}
+			this.end = Point.fromLngLat(lng, lat);
+		}
+
+		public Sensor getTarget()
+		{
+			return to;
+		}
+
+		public Point getStart()
+		{
+			return start;
+		}
+
+		public Point getEnd()
+		{
+			return end;
+		}
+
+		public int[] getAngles()
+		{
+			return angles.clone();
+		}
+	}
+}
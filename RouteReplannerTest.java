@@ -0,0 +1,217 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+
+public class RouteReplannerTest
+/**
+ * Unit tests for the replanner, flying among sensors of the fixture day around the fixture
+ * buildings. Every plan is checked move by move, and the legs of a replanned route are checked
+ * against the route it was made from.
+ */
+{
+	private static final Point START = Point.fromLngLat(-3.1878, 55.9446);
+
+	private static NoFlyZoneIndex nfz;
+
+	@BeforeClass
+	public static void loadBuildings() throws IOException
+	{
+		nfz = new NoFlyZoneIndex(FeatureCollection.fromJson(Files.readString(Path.of("fixtures/buildings/no-fly-zones.geojson"))));
+	}
+
+	@Test
+	public void planVisitsEverySensorInOrder()
+	{
+		List<Sensor> sensors = sensors();
+		RouteReplanner.Plan plan = new RouteReplanner(nfz, START).plan(START, sensors);
+
+		assertEquals(sensors, plan.getSensors());
+		assertEquals(sensors.size() + 1, plan.getLegs().size());
+		assertEquals(sensors.size() + 1, plan.getLegsPlanned());
+		assertEquals(0, plan.getLegsShifted());
+		assertEquals(0, plan.getLegsKept());
+		assertFlyable(plan);
+		assertTrue(plan.isWithinMoveLimit());
+	}
+
+	@Test
+	public void addingASensorKeepsTheLegsBeforeIt()
+	{
+		var replanner = new RouteReplanner(nfz, START);
+		RouteReplanner.Plan plan = replanner.plan(START, sensors());
+		Sensor added = sensor("ocean.raven.frost", -3.185585, 55.944422);
+		RouteReplanner.Plan replanned = replanner.replan(plan, RouteReplanner.Delta.add(added));
+
+		int index = replanned.getSensors().indexOf(added);
+		assertTrue(index >= 0);
+		assertEquals(plan.getSensors().size() + 1, replanned.getSensors().size());
+		assertEquals(1, index);
+		assertReused(plan, replanned, 5, 2, 1);
+		assertFlyable(replanned);
+	}
+
+	@Test
+	public void removingASensorKeepsTheLegsBeforeIt()
+	{
+		var replanner = new RouteReplanner(nfz, START);
+		RouteReplanner.Plan plan = replanner.plan(START, sensors());
+		Sensor removed = plan.getSensors().get(2);
+		RouteReplanner.Plan replanned = replanner.replan(plan, RouteReplanner.Delta.remove(removed.getLocation()));
+
+		assertFalse(replanned.getSensors().contains(removed));
+		assertEquals(plan.getSensors().size() - 1, replanned.getSensors().size());
+		assertReused(plan, replanned, 2, 2, 2);
+		assertFlyable(replanned);
+	}
+
+	@Test
+	public void movingASensorShiftsTheLegsAfterIt()
+	{
+		var replanner = new RouteReplanner(nfz, START);
+		RouteReplanner.Plan plan = replanner.plan(START, sensors());
+		Sensor old = plan.getSensors().get(1);
+		Sensor moved = sensor(old.getLocation(), old.getCoordinates().longitude() + 0.00005, old.getCoordinates().latitude());
+		RouteReplanner.Plan replanned = replanner.replan(plan, RouteReplanner.Delta.move(old.getLocation(), moved));
+
+		assertEquals(moved, replanned.getSensors().get(1));
+		assertReused(plan, replanned, 4, 2, 1);
+		assertFlyable(replanned);
+	}
+
+	@Test
+	public void replanningAnUnchangedRouteKeepsEveryLeg()
+	{
+		var replanner = new RouteReplanner(nfz, START);
+		RouteReplanner.Plan plan = replanner.plan(START, sensors());
+		Sensor last = plan.getSensors().get(plan.getSensors().size() - 1);
+		RouteReplanner.Plan replanned = replanner.replan(plan, RouteReplanner.Delta.move(last.getLocation(), last));
+
+		// The same sensor is put back where it was, so no leg needs searching for again
+		assertEquals(plan.getSensors(), replanned.getSensors());
+		assertReused(plan, replanned, 0, 0, plan.getLegs().size());
+		assertArrayEquals(plan.getAngles(), replanned.getAngles());
+	}
+
+	@Test
+	public void advancedPlansCountTheMovesFlown()
+	{
+		var replanner = new RouteReplanner(nfz, START);
+		RouteReplanner.Plan plan = replanner.plan(START, sensors());
+		RouteReplanner.Plan rest = replanner.advance(plan, 2);
+
+		int flown = plan.getLegs().get(0).getAngles().length + plan.getLegs().get(1).getAngles().length;
+		assertEquals(flown, rest.getMovesFlown());
+		assertEquals(plan.getMoves(), rest.getMovesFlown() + rest.getMoves());
+		assertEquals(plan.getSensors().subList(2, plan.getSensors().size()), rest.getSensors());
+
+		RouteReplanner.Plan replanned = replanner.replan(rest, RouteReplanner.Delta.remove(rest.getSensors().get(0).getLocation()));
+		assertEquals(flown, replanned.getMovesFlown());
+		assertFlyable(replanned);
+	}
+
+	@Test
+	public void plansOverTheMoveLimitAreFlagged()
+	{
+		// Back and forth between opposite corners of the map, far more than the drone can fly
+		var sensors = new ArrayList<Sensor>();
+		for(int i = 0; i < 4; i++)
+		{
+			sensors.add(sensor("honey.willow.lamp." + i, -3.191489, 55.945931));
+			sensors.add(sensor("pebble.frost.spark." + i, -3.184864, 55.943654));
+		}
+		RouteReplanner.Plan plan = new RouteReplanner(nfz, START).plan(START, sensors);
+
+		assertTrue(plan.getMoves() > FlightSimulator.MAX_MOVES);
+		assertFalse(plan.isWithinMoveLimit());
+		assertTrue(plan.toString().endsWith("over the limit of " + FlightSimulator.MAX_MOVES + " moves"));
+		assertFlyable(plan);
+	}
+
+	private static List<Sensor> sensors()
+	{
+		var sensors = new ArrayList<Sensor>();
+		sensors.add(sensor("dune.river.orbit", -3.187327, 55.944325));
+		sensors.add(sensor("willow.frost.amber", -3.187491, 55.943441));
+		sensors.add(sensor("raven.tiger.amber", -3.188617, 55.943225));
+		sensors.add(sensor("maple.lamp.tulip", -3.190372, 55.943661));
+		sensors.add(sensor("velvet.quill.cloud", -3.190969, 55.944293));
+		sensors.add(sensor("velvet.paper.cloud", -3.188835, 55.945423));
+		return sensors;
+	}
+
+	private static Sensor sensor(String location, double lng, double lat)
+	{
+		var sensor = new Sensor();
+		sensor.setLocation(location);
+		sensor.setBattery(100);
+		sensor.setReading("50");
+		sensor.setCoordinates(Point.fromLngLat(lng, lat));
+		return sensor;
+	}
+
+	private static void assertReused(RouteReplanner.Plan plan, RouteReplanner.Plan replanned, int planned, int shifted, int kept)
+	/**
+	 * Checks how many legs of the replanned route were searched for, shifted and kept, and that
+	 * the legs up to the first sensor that changed are the old legs themselves.
+	 */
+	{
+		assertEquals(planned, replanned.getLegsPlanned());
+		assertEquals(shifted, replanned.getLegsShifted());
+		assertEquals(kept, replanned.getLegsKept());
+		assertEquals(replanned.getLegs().size(), planned + shifted + kept);
+
+		int same = 0;
+		while(same < plan.getSensors().size() && same < replanned.getSensors().size()
+			  && plan.getSensors().get(same) == replanned.getSensors().get(same))
+		{
+			same++;
+		}
+		for(int i = 0; i < same; i++)
+		{
+			assertSame(plan.getLegs().get(i), replanned.getLegs().get(i));
+		}
+	}
+
+	private static void assertFlyable(RouteReplanner.Plan plan)
+	/**
+	 * Checks that every move of the plan is legal, that each leg starts where the last one ended
+	 * and ends within reading distance of its sensor, and that the route returns to the start.
+	 */
+	{
+		Point position = plan.getPosition();
+		for(RouteReplanner.Leg leg : plan.getLegs())
+		{
+			assertSame(position, leg.getStart());
+			double lng = position.longitude();
+			double lat = position.latitude();
+			for(int angle : leg.getAngles())
+			{
+				double nextLng = lng + LatticePlanner.stepLng(angle);
+				double nextLat = lat + LatticePlanner.stepLat(angle);
+				assertTrue(MapContext.insideBoundary(nextLng, nextLat));
+				assertFalse(nfz.intersects(lng, lat, nextLng, nextLat));
+				lng = nextLng;
+				lat = nextLat;
+			}
+			Point target = leg.getTarget() == null ? START : leg.getTarget().getCoordinates();
+			assertTrue(Math.hypot(lng - target.longitude(), lat - target.latitude()) <= LatticePlanner.READ_DISTANCE);
+			position = leg.getEnd();
+		}
+	}
+}
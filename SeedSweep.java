@@ -0,0 +1,205 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SeedSweep
+/**
+ * This class simulates the same ordered route with many different seeds at once and keeps the
+ * best flight. The seed only decides the random escapes in droneFlight, but those can change
+ * the number of moves a great deal, so trying a few hundred seeds is a cheap way to a shorter
+ * flight.
+ *
+ * The best flight is one that reads every sensor and gets back to the start, then the one that
+ * reads the most sensors, then the one with the fewest moves, with ties going to the seed that
+ * came first.
+ */
+{
+	public static Result run(FlightSimulator simulator, long[] seeds, int threads) throws InterruptedException
+	/**
+	 * This method simulates the route once for each seed, spread over the given number of
+	 * threads, and returns the best flight along with the moves made with every seed.
+	 */
+	{
+		int[] moves = new int[seeds.length];
+		int[] read = new int[seeds.length];
+		boolean[] complete = new boolean[seeds.length];
+
+		// Each thread takes the next seed until there are none left, keeping only its own best
+		// flight, so a large sweep does not hold on to every flight
+		var next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		var workers = new ArrayList<Future<Best>>();
+		for(int t = 0; t < threads; t++)
+		{
+			workers.add(pool.submit(() -> {
+				Best best = null;
+				for(int s = next.getAndIncrement(); s < seeds.length; s = next.getAndIncrement())
+				{
+					var flight = simulator.simulate(new Random(seeds[s]));
+					moves[s] = flight.getMoves();
+					read[s] = flight.getTargetsRead();
+					complete[s] = flight.isComplete();
+					if(best == null || better(flight, s, best.flight, best.index)) best = new Best(flight, s);
+				}
+				return best;
+			}));
+		}
+
+		Best best = null;
+		try
+		{
+			for(var worker : workers)
+			{
+				Best candidate = worker.get();
+				if(candidate != null && (best == null || better(candidate.flight, candidate.index, best.flight, best.index)))
+				{
+					best = candidate;
+				}
+			}
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IllegalStateException("A seed sweep worker failed", cause);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		if(best == null) throw new IllegalArgumentException("A seed sweep needs at least one seed");
+		return new Result(seeds, moves, read, complete, best.index, best.flight, simulator.getTargetCount());
+	}
+
+	public static long[] range(long first, int count)
+	/**
+	 * This method returns count consecutive seeds starting from first.
+	 */
+	{
+		long[] seeds = new long[count];
+		for(int i = 0; i < count; i++)
+		{
+			seeds[i] = first + i;
+		}
+		return seeds;
+	}
+
+	private static boolean better(FlightSimulator.Flight a, int aIndex, FlightSimulator.Flight b, int bIndex)
+	{
+		if(a.isComplete() != b.isComplete()) return a.isComplete();
+		if(a.getTargetsRead() != b.getTargetsRead()) return a.getTargetsRead() > b.getTargetsRead();
+		if(a.getMoves() != b.getMoves()) return a.getMoves() < b.getMoves();
+		return aIndex < bIndex;
+	}
+
+	private static class Best
+	{
+		final FlightSimulator.Flight flight;
+		final int index;
+
+		Best(FlightSimulator.Flight flight, int index)
+		{
+			this.flight = flight;
+			this.index = index;
+		}
+	}
+
+	public static class Result
+	/**
+	 * The outcome of a sweep: the best flight and its seed, and the moves made, sensors read and
+	 * whether the flight was complete for every seed, in the order the seeds were given.
+	 */
+	{
+		private final long[] seeds;
+		private final int[] moves;
+		private final int[] read;
+		private final boolean[] complete;
+		private final int bestIndex;
+		private final FlightSimulator.Flight best;
+		private final int targets;
+
+		Result(long[] seeds, int[] moves, int[] read, boolean[] complete, int bestIndex, FlightSimulator.Flight best, int targets)
+		{
+			this.seeds = seeds;
+			this.moves = moves;
+			this.read = read;
+			this.complete = complete;
+			this.bestIndex = bestIndex;
+			this.best = best;
+			this.targets = targets;
+		}
+
+		public FlightSimulator.Flight getBest()
+		{
+			return best;
+		}
+
+		public long getBestSeed()
+		{
+			return seeds[bestIndex];
+		}
+
+		public int getRuns()
+		{
+			return seeds.length;
+		}
+
+		public int getMoves(int run)
+		{
+			return moves[run];
+		}
+
+		public int getSensorsRead(int run)
+		{
+			return read[run];
+		}
+
+		public boolean isComplete(int run)
+		{
+			return complete[run];
+		}
+
+		@Override
+		public String toString()
+		/**
+		 * The report gives the spread of moves over every seed and how many seeds made each
+		 * number of moves.
+		 */
+		{
+			int[] sorted = moves.clone();
+			Arrays.sort(sorted);
+			int completeRuns = 0;
+			for(boolean c : complete) if(c) completeRuns++;
+
+			var out = new StringBuilder();
+			out.append(String.format("%d seeds, %d complete: moves min %d, p50 %d, p90 %d, max %d, mean %.1f%n",
+									 seeds.length, completeRuns, sorted[0], percentile(sorted, 50), percentile(sorted, 90),
+									 sorted[sorted.length - 1], Arrays.stream(sorted).average().getAsDouble()));
+
+			int[] counts = new int[sorted[sorted.length - 1] + 1];
+			for(int m : sorted) counts[m]++;
+			for(int m = sorted[0]; m < counts.length; m++)
+			{
+				if(counts[m] > 0) out.append(String.format("%5d moves %6d%n", m, counts[m]));
+			}
+
+			out.append("Best seed ").append(getBestSeed()).append(": ").append(best.getMoves()).append(" moves, ")
+			   .append(best.getTargetsRead()).append(" of ").append(targets).append(" sensors read");
+			return out.toString();
+		}
+
+		private static int percentile(int[] sorted, int p)
+		{
+			int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+			return sorted[Math.max(0, rank - 1)];
+		}
+	}
+}
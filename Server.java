@@ -1,15 +1,25 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Point;
 
@@ -19,16 +29,62 @@ public class Server
  * downloading data and returning it when required. 
  */
 {
+	// Shared by every request, as a Gson is safe to use from many threads
+	private static final Gson GSON = new Gson();
+	
 	// Define attributes
 	private String host;
 	private String port;
     private final HttpClient client;
+    
+    // Limits the number of asynchronous requests that may be in flight at once
+    private final int maxConcurrentRequests;
+    private final ArrayDeque<Runnable> pendingRequests;
+    private int requestsInFlight;
+    
+    private volatile Metrics metrics;
+    private ResponseCache responseCache;
 	
-    // Constructor
+    // Constructors
 	public Server(String host, String port) {
+		this(host, port, 8);
+	}
+	
+	public Server(String host, String port, int maxConcurrentRequests) {
+		if(maxConcurrentRequests < 1)
+		{
+			throw new IllegalArgumentException("maxConcurrentRequests must be at least 1, was " + maxConcurrentRequests);
+		}
 		this.host = host;
 		this.port = port;
 		this.client = HttpClient.newHttpClient();
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.pendingRequests = new ArrayDeque<Runnable>();
+		this.requestsInFlight = 0;
+		this.metrics = Metrics.DISABLED;
+	}
+	
+	public int getMaxConcurrentRequests()
+	{
+		return maxConcurrentRequests;
+	}
+	
+	public void setMetrics(Metrics metrics)
+	/**
+	 * This method sets where the number and latency of requests made by each method are recorded.
+	 * It should be called once, before the server is shared between controllers.
+	 */
+	{
+		this.metrics = metrics;
+	}
+	
+	public void setResponseCache(ResponseCache responseCache)
+	/**
+	 * This method sets the cache that the 'No Fly Zones' and sensor lists are kept in between
+	 * runs, so that they are only downloaded again if they have changed. Passing null disables it.
+	 */
+	{
+		this.responseCache = responseCache;
 	}
 	
 	public Point pointFromW3W(String what3words) throws IOException, InterruptedException
@@ -37,17 +93,72 @@ public class Server
 	 * 'What3Words' address from the webserver.
 	 */
 	{
-		String[] words = what3words.split("\\.");
-		String urlString = host + port + "/words/" + words[0] + "/" + words[1] + "/" + words[2] + "/details.json";
+		var request = HttpRequest.newBuilder().uri(URI.create(w3wUrl(what3words))).build();
+		// The body is decoded as it arrives rather than being read into a String first
+		var response = send("pointFromW3W", request, BodyHandlers.ofInputStream());
 		
-		var request = HttpRequest.newBuilder().uri(URI.create(urlString)).build();
-		// The response object is of class HttpResponse<String>
-		var response = client.send(request, BodyHandlers.ofString());
+		return decode(response, Server::readW3W);
+	}
+	
+	public CompletableFuture<Point> pointFromW3WAsync(String what3words)
+	/**
+	 * This method is the non-blocking counterpart of pointFromW3W. The request is queued
+	 * behind any others already in flight so that no more than maxConcurrentRequests
+	 * are sent to the webserver at once.
+	 */
+	{
+		var request = HttpRequest.newBuilder().uri(URI.create(w3wUrl(what3words))).build();
+		
+		return throttle("pointFromW3W", request, BodyHandlers.ofInputStream(), response -> decodeAsync(response, Server::readW3W));
+	}
+	
+	private String w3wUrl(String what3words)
+	{
+		String[] words = what3words.split("\\.");
+		return host + port + "/words/" + words[0] + "/" + words[1] + "/" + words[2] + "/details.json";
+	}
+	
+	private static Point readW3W(JsonReader reader) throws IOException
+	/**
+	 * This method reads only the coordinates from a What3Words details document, skipping the
+	 * square, nearest place and the rest without building any objects for them.
+	 */
+	{
+		double lng = Double.NaN;
+		double lat = Double.NaN;
 		
-		// Create a variable to store the response from the webServer
-		var DeserialisedW3W = new Gson().fromJson(response.body(), DeserialisedW3W.class);
+		reader.beginObject();
+		while(reader.hasNext())
+		{
+			if(!reader.nextName().equals("coordinates"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			reader.beginObject();
+			while(reader.hasNext())
+			{
+				switch(reader.nextName())
+				{
+					case "lng":
+						lng = reader.nextDouble();
+						break;
+					case "lat":
+						lat = reader.nextDouble();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		reader.endObject();
 		
-		return Point.fromLngLat(DeserialisedW3W.coordinates.lng, DeserialisedW3W.coordinates.lat);
+		if(Double.isNaN(lng) || Double.isNaN(lat))
+		{
+			throw new IOException("What3Words details have no coordinates");
+		}
+		return Point.fromLngLat(lng, lat);
 	}
 	
 	public FeatureCollection noFlyZones() throws IOException, InterruptedException 
@@ -56,37 +167,370 @@ public class Server
 	 * webserver.
 	 */
 	{
-		String urlString = host + port + "/buildings/no-fly-zones.geojson";
-		
-		var request = HttpRequest.newBuilder().uri(URI.create(urlString)).build();
-    	
-    	// The response object is of class HttpResponse<String>
-    	var response = client.send(request, BodyHandlers.ofString());
+		String url = host + port + "/buildings/no-fly-zones.geojson";
     	
     	// Create a variable of type Feature Collection to store the data
-    	var nfz = FeatureCollection.fromJson(response.body());
+    	var nfz = parseNoFlyZones(url, fetch("noFlyZones", url));
     	
     	return nfz;
 	}
 	
+	public CompletableFuture<FeatureCollection> noFlyZonesAsync()
+	/**
+	 * This method is the non-blocking counterpart of noFlyZones.
+	 */
+	{
+		String url = host + port + "/buildings/no-fly-zones.geojson";
+		
+		return fetchAsync("noFlyZones", url).thenApply(body -> parseNoFlyZones(url, body));
+	}
+	
+	private FeatureCollection parseNoFlyZones(String url, String body)
+	{
+		// The buildings rarely change, so with a cache the parsed zones are reused for as long as
+		// the body stays the same
+		if(responseCache == null) return FeatureCollection.fromJson(body);
+		
+		return responseCache.parsed(url, body, FeatureCollection::fromJson);
+	}
+	
 	public ArrayList<Sensor> dailySensors(String[] date) throws IOException, InterruptedException
 	/**
 	 * This method will return the list of 33 sensors from the webserver.
 	 */
 	{
-		String urlString = host + port + "/maps/" + date[2] + "/" + date[1] + "/" + date[0] + "/air-quality-data.json";
+		String url = sensorsUrl(date);
+		if(responseCache == null)
+		{
+			var request = HttpRequest.newBuilder().uri(URI.create(url)).build();
+			return decode(send("dailySensors", request, BodyHandlers.ofInputStream()), Server::readSensors);
+		}
 		
-		var request = HttpRequest.newBuilder().uri(URI.create(urlString)).build();
-    	
-    	// The response object is of class HttpResponse<String>
-    	var response = client.send(request, BodyHandlers.ofString());
-    	
-    	// Get the types from the SensorsList class
-    	Type listType = new TypeToken<ArrayList<Sensor>>() {}.getType();
-    	
-    	// Create a variable of type ArrayList<SensorsList>
-    	ArrayList<Sensor> sensors = new Gson().fromJson(response.body(), listType);
-    	
-    	return sensors;
+		// The cache stores the body as text, so it is decoded from that instead
+    	return decode(fetch("dailySensors", url), Server::readSensors);
+	}
+	
+	public CompletableFuture<ArrayList<Sensor>> dailySensorsAsync(String[] date)
+	/**
+	 * This method is the non-blocking counterpart of dailySensors.
+	 */
+	{
+		String url = sensorsUrl(date);
+		if(responseCache == null)
+		{
+			var request = HttpRequest.newBuilder().uri(URI.create(url)).build();
+			return throttle("dailySensors", request, BodyHandlers.ofInputStream(), response -> decodeAsync(response, Server::readSensors));
+		}
+		
+		return fetchAsync("dailySensors", url).thenCompose(body -> {
+			try
+			{
+				return CompletableFuture.completedFuture(decode(body, Server::readSensors));
+			}
+			catch(IOException e)
+			{
+				return CompletableFuture.<ArrayList<Sensor>>failedFuture(e);
+			}
+		});
+	}
+	
+	private String sensorsUrl(String[] date)
+	{
+		return host + port + "/maps/" + date[2] + "/" + date[1] + "/" + date[0] + "/air-quality-data.json";
+	}
+	
+	private static ArrayList<Sensor> readSensors(JsonReader reader) throws IOException
+	/**
+	 * This method reads the day's list of sensors straight into Sensor objects, field by field.
+	 */
+	{
+		var sensors = new ArrayList<Sensor>();
+		
+		reader.beginArray();
+		while(reader.hasNext())
+		{
+			var sensor = new Sensor();
+			reader.beginObject();
+			while(reader.hasNext())
+			{
+				switch(reader.nextName())
+				{
+					case "location":
+						sensor.setLocation(reader.nextString());
+						break;
+					case "battery":
+						sensor.setBattery(reader.nextDouble());
+						break;
+					case "reading":
+						// Readings are sent as strings, but a number or null is accepted too
+						if(reader.peek() == JsonToken.NULL)
+						{
+							reader.nextNull();
+							sensor.setReading(null);
+						}
+						else
+						{
+							sensor.setReading(reader.nextString());
+						}
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+			sensors.add(sensor);
+		}
+		reader.endArray();
+		
+		return sensors;
+	}
+	
+	private static <T> T decode(HttpResponse<InputStream> response, JsonDecoder<T> decoder) throws IOException
+	{
+		try(var reader = GSON.newJsonReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8)))
+		{
+			return decoder.decode(reader);
+		}
+	}
+	
+	private static <T> T decode(String body, JsonDecoder<T> decoder) throws IOException
+	{
+		try(var reader = GSON.newJsonReader(new StringReader(body)))
+		{
+			return decoder.decode(reader);
+		}
+	}
+	
+	private static <T> CompletableFuture<T> decodeAsync(HttpResponse<InputStream> response, JsonDecoder<T> decoder)
+	/**
+	 * This method decodes a streamed body on the thread that received the response, which
+	 * belongs to the HTTP client rather than the common pool, so blocking on the stream is safe.
+	 */
+	{
+		try
+		{
+			return CompletableFuture.completedFuture(decode(response, decoder));
+		}
+		catch(IOException | RuntimeException e)
+		{
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+	
+	private interface JsonDecoder<T>
+	{
+		T decode(JsonReader reader) throws IOException;
+	}
+	
+	private String fetch(String method, String url) throws IOException, InterruptedException
+	/**
+	 * This method returns the body at the given URL, going through the response cache if there
+	 * is one. A cached body is used without asking the webserver only if it came without
+	 * validators and is still fresh; otherwise the webserver is asked whether it has changed.
+	 */
+	{
+		ResponseCache.Entry cached = responseCache == null ? null : responseCache.get(url);
+		if(cached != null && responseCache.isFresh(cached))
+		{
+			metrics.count("http_cache_fresh_hits", 1);
+			return cached.getBody();
+		}
+		
+		return cachedBody(url, cached, send(method, conditionalRequest(url, cached), BodyHandlers.ofString()));
+	}
+	
+	private CompletableFuture<String> fetchAsync(String method, String url)
+	/**
+	 * This method is the non-blocking counterpart of fetch.
+	 */
+	{
+		ResponseCache.Entry cached;
+		try
+		{
+			cached = responseCache == null ? null : responseCache.get(url);
+		}
+		catch(IOException e)
+		{
+			return CompletableFuture.failedFuture(e);
+		}
+		if(cached != null && responseCache.isFresh(cached))
+		{
+			metrics.count("http_cache_fresh_hits", 1);
+			return CompletableFuture.completedFuture(cached.getBody());
+		}
+		
+		return throttle(method, conditionalRequest(url, cached), BodyHandlers.ofString(), response -> {
+			try
+			{
+				return CompletableFuture.completedFuture(cachedBody(url, cached, response));
+			}
+			catch(IOException e)
+			{
+				return CompletableFuture.<String>failedFuture(e);
+			}
+		});
+	}
+	
+	private static HttpRequest conditionalRequest(String url, ResponseCache.Entry cached)
+	{
+		var builder = HttpRequest.newBuilder().uri(URI.create(url));
+		if(cached != null)
+		{
+			if(cached.getEtag() != null) builder.header("If-None-Match", cached.getEtag());
+			if(cached.getLastModified() != null) builder.header("If-Modified-Since", cached.getLastModified());
+		}
+		return builder.build();
+	}
+	
+	private String cachedBody(String url, ResponseCache.Entry cached, HttpResponse<String> response) throws IOException
+	/**
+	 * This method returns the body to use for a response: the cached body if the webserver says
+	 * it has not changed, or else the new body, which is stored in the cache.
+	 */
+	{
+		if(response.statusCode() == 304 && cached != null)
+		{
+			metrics.count("http_cache_not_modified", 1);
+			responseCache.revalidated(url);
+			return cached.getBody();
+		}
+		
+		if(responseCache != null)
+		{
+			responseCache.put(url, response.body(), response.headers().firstValue("ETag").orElse(null),
+							  response.headers().firstValue("Last-Modified").orElse(null));
+		}
+		return response.body();
+	}
+	
+	private <T> HttpResponse<T> send(String method, HttpRequest request, BodyHandler<T> handler) throws IOException, InterruptedException
+	/**
+	 * This method sends a request and waits for the response, recording it under the given method.
+	 * Responses with any status other than 200 (or 304, for a conditional request) are thrown
+	 * as an IOException.
+	 */
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			var response = client.send(request, handler);
+			checkStatus(response);
+			failed = false;
+			return response;
+		}
+		finally
+		{
+			metrics.recordRequest(method, System.nanoTime() - start, failed);
+		}
+	}
+	
+	private static boolean isConditional(HttpRequest request)
+	{
+		return request.headers().firstValue("If-None-Match").isPresent()
+				|| request.headers().firstValue("If-Modified-Since").isPresent();
+	}
+	
+	private static void checkStatus(HttpResponse<?> response) throws IOException
+	{
+		// 304 is only ever sent in answer to a conditional request
+		if(response.statusCode() != 200 && !(response.statusCode() == 304 && isConditional(response.request())))
+		{
+			// A streamed body must be closed, or its connection is never given back
+			if(response.body() instanceof InputStream) ((InputStream) response.body()).close();
+			throw new IOException("GET " + response.uri() + " returned status " + response.statusCode());
+		}
+	}
+	
+	private <T, R> CompletableFuture<R> throttle(String method, HttpRequest request, BodyHandler<T> handler,
+												 Function<HttpResponse<T>, CompletableFuture<R>> read)
+	/**
+	 * This method queues an asynchronous request and only starts it once fewer than
+	 * maxConcurrentRequests are in flight. The response is handed to 'read', and the request
+	 * keeps its place among those in flight until that has finished, so a streamed body counts
+	 * against the limit until it has been decoded. The time recorded under the given method
+	 * starts when the request is sent, not when it is queued. Responses with any status other
+	 * than 200 (or 304, for a conditional request) complete the future with an IOException.
+	 */
+	{
+		return throttle(() -> {
+			long start = System.nanoTime();
+			return client.sendAsync(request, handler).thenCompose(response -> {
+				try
+				{
+					checkStatus(response);
+					return CompletableFuture.completedFuture(response);
+				}
+				catch(IOException e)
+				{
+					return CompletableFuture.<HttpResponse<T>>failedFuture(e);
+				}
+			}).whenComplete((response, error) ->
+					metrics.recordRequest(method, System.nanoTime() - start, error != null)).thenCompose(read);
+		});
+	}
+	
+	private <T> CompletableFuture<T> throttle(Supplier<CompletableFuture<T>> send)
+	/**
+	 * This method queues an asynchronous request and only starts it once fewer than
+	 * maxConcurrentRequests are in flight. The returned future completes with the
+	 * result of the request once it has been sent, answered and read.
+	 */
+	{
+		var result = new CompletableFuture<T>();
+		
+		Runnable task = () -> {
+			CompletableFuture<T> sent;
+			try
+			{
+				sent = send.get();
+			}
+			catch(RuntimeException e)
+			{
+				sent = CompletableFuture.failedFuture(e);
+			}
+			sent.whenComplete((value, error) -> {
+				// Free up the slot before handing the result on, so waiting requests start promptly
+				release();
+				if(error != null) result.completeExceptionally(error);
+				else result.complete(value);
+			});
+		};
+		
+		synchronized(this)
+		{
+			pendingRequests.add(task);
+		}
+		drain();
+		
+		return result;
+	}
+	
+	private void release()
+	{
+		synchronized(this)
+		{
+			requestsInFlight--;
+		}
+		drain();
+	}
+	
+	private void drain()
+	/**
+	 * This method starts queued requests until the concurrency limit is reached. The tasks
+	 * are run outside the lock as a completed request may call back into release.
+	 */
+	{
+		while(true)
+		{
+			Runnable next;
+			synchronized(this)
+			{
+				if(requestsInFlight >= maxConcurrentRequests || pendingRequests.isEmpty()) return;
+				requestsInFlight++;
+				next = pendingRequests.poll();
+			}
+			next.run();
+		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,254 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class StandInServer implements AutoCloseable
+/**
+ * This class is a small web server that stands in for the coursework webserver, so that Server
+ * can be tested and loaded without it. It serves files from a directory with the same layout
+ * as the webserver ('buildings/no-fly-zones.geojson', 'maps/YYYY/MM/DD/air-quality-data.json'
+ * and 'words/a/b/c/details.json'), such as the fixtures directory.
+ *
+ * Every response can be delayed by a fixed latency plus random jitter, and a given fraction of
+ * requests can be failed with a 500 status, to see how clients behave on a slow or flaky network.
+ */
+{
+	// Define attributes
+	private final Path root;
+	private final HttpServer http;
+	private final ExecutorService executor;
+	private volatile long latencyMillis;
+	private volatile long jitterMillis;
+	private volatile double errorRate;
+	private volatile boolean validators;
+
+	// Constructor
+	public StandInServer(Path root, int port, int threads) throws IOException
+	/**
+	 * Creates a server for the files under root, listening on the given port (0 picks a free
+	 * one) and handling up to the given number of requests at once. It is started by start().
+	 */
+	{
+		this.root = root.toAbsolutePath().normalize();
+		this.http = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.validators = true;
+
+		http.setExecutor(executor);
+		http.createContext("/", this::handle);
+	}
+
+	public static void main(String[] args) throws IOException
+	// Usage: StandInServer <directory> <port> [--latency=ms] [--jitter=ms] [--error-rate=fraction] [--threads=n]
+	//                     [--no-validators]
+	{
+		var options = new Options(args, 2);
+		if(!options.others.isEmpty())
+		{
+			throw new IllegalArgumentException("Unknown option: " + options.others.get(0));
+		}
+		useNoDelay();
+		var server = new StandInServer(Path.of(args[0]), Integer.parseInt(args[1]), options.threads);
+		server.setLatency(options.latencyMillis, options.jitterMillis);
+		server.setErrorRate(options.errorRate);
+		server.setValidators(options.validators);
+		server.start();
+
+		System.out.println("Serving " + server.root + " on port " + server.getPort());
+	}
+
+	static void useNoDelay()
+	/**
+	 * This method turns on TCP_NODELAY for every JDK HTTP server in this JVM, unless the
+	 * 'sun.net.httpserver.nodelay' property was already given. Without it the server's separate
+	 * writes of the headers and body wait on the client's delayed acknowledgement, adding around
+	 * 40ms to every response. The JDK reads the property once, so this must be called before the
+	 * first server is created; it is only called from the main methods, as it affects the whole JVM.
+	 */
+	{
+		if(System.getProperty("sun.net.httpserver.nodelay") == null)
+		{
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	public StandInServer start()
+	{
+		http.start();
+		return this;
+	}
+
+	public int getPort()
+	{
+		return http.getAddress().getPort();
+	}
+
+	public void setLatency(long latencyMillis, long jitterMillis)
+	/**
+	 * This method sets how long each response is delayed: the latency plus a random amount up
+	 * to the jitter, both in milliseconds.
+	 */
+	{
+		this.latencyMillis = latencyMillis;
+		this.jitterMillis = jitterMillis;
+	}
+
+	public void setErrorRate(double errorRate)
+	/**
+	 * This method sets the fraction of requests, from 0 to 1, that fail with a 500 status.
+	 */
+	{
+		if(errorRate < 0 || errorRate > 1)
+		{
+			throw new IllegalArgumentException("errorRate must be between 0 and 1, was " + errorRate);
+		}
+		this.errorRate = errorRate;
+	}
+
+	public void setValidators(boolean validators)
+	/**
+	 * This method sets whether responses carry ETag and Last-Modified headers, and so whether
+	 * conditional requests are answered with 304 Not Modified. They are sent by default.
+	 */
+	{
+		this.validators = validators;
+	}
+
+	@Override
+	public void close()
+	{
+		http.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			var random = ThreadLocalRandom.current();
+			long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+			if(delay > 0)
+			{
+				try
+				{
+					Thread.sleep(delay);
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+
+			if(errorRate > 0 && random.nextDouble() < errorRate)
+			{
+				respond(exchange, 500, "Injected error".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			if(!"GET".equals(exchange.getRequestMethod()))
+			{
+				respond(exchange, 405, new byte[0]);
+				return;
+			}
+
+			// Refuse paths that would lead outside the served directory
+			Path file = root.resolve(exchange.getRequestURI().getPath().substring(1)).normalize();
+			if(!file.startsWith(root) || !Files.isRegularFile(file))
+			{
+				respond(exchange, 404, new byte[0]);
+				return;
+			}
+
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			if(validators)
+			{
+				// Files are identified by their size and modification time, as most web servers do
+				var modified = Files.getLastModifiedTime(file).toInstant().truncatedTo(ChronoUnit.SECONDS);
+				String etag = "\"" + Long.toHexString(Files.size(file)) + "-" + Long.toHexString(modified.getEpochSecond()) + "\"";
+				String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(modified.atZone(ZoneOffset.UTC));
+				exchange.getResponseHeaders().set("ETag", etag);
+				exchange.getResponseHeaders().set("Last-Modified", lastModified);
+
+				if(notModified(exchange, etag, modified))
+				{
+					respond(exchange, 304, new byte[0]);
+					return;
+				}
+			}
+			respond(exchange, 200, Files.readAllBytes(file));
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	private static boolean notModified(HttpExchange exchange, String etag, Instant modified)
+	{
+		// If-None-Match takes priority over If-Modified-Since when both are sent
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		if(ifNoneMatch != null) return ifNoneMatch.equals(etag) || ifNoneMatch.equals("*");
+
+		String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+		if(ifModifiedSince == null) return false;
+		try
+		{
+			return !modified.isAfter(Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(ifModifiedSince)));
+		}
+		catch(DateTimeParseException e)
+		{
+			return false;
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException
+	{
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		if(body.length > 0) exchange.getResponseBody().write(body);
+	}
+
+	static class Options
+	/**
+	 * The optional flags shared by StandInServer and LoadGenerator, which follow the positional
+	 * arguments. Flags that are not recognised here are collected for the caller to handle.
+	 */
+	{
+		long latencyMillis = 0;
+		long jitterMillis = 0;
+		double errorRate = 0;
+		int threads = 16;
+		boolean validators = true;
+		final List<String> others = new ArrayList<String>();
+
+		Options(String[] args, int positional)
+		{
+			for(int i = positional; i < args.length; i++)
+			{
+				String arg = args[i];
+				if(arg.startsWith("--latency=")) latencyMillis = Long.parseLong(arg.substring("--latency=".length()));
+				else if(arg.startsWith("--jitter=")) jitterMillis = Long.parseLong(arg.substring("--jitter=".length()));
+				else if(arg.startsWith("--error-rate=")) errorRate = Double.parseDouble(arg.substring("--error-rate=".length()));
+				else if(arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring("--threads=".length()));
+				else if(arg.equals("--no-validators")) validators = false;
+				else others.add(arg);
+			}
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package uk.ac.ed.inf.heatmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import uk.ac.ed.inf.aqmaps.ReadingClass;
+
+/**
+ * The following class writes a heatmap as Mapbox Vector Tiles, so it can be shown on a web map
+ * without loading every cell at once.  The tiles are written to '<directory>/<zoom>/<x>/<y>.mvt'
+ * for each zoom level asked for, using the usual Web Mercator tiling scheme.
+ *
+ * Each tile has a single layer called "heatmap".  Runs of cells along a row that have the same
+ * reading class are drawn as a single rectangle, with the class and its colour as properties.
+ * Cells that are smaller than a tile pixel at a zoom level are left out at that level; since
+ * the cells around them share their edges this never leaves a gap.
+ *
+ * The protocol buffer encoding is written by hand, as only a handful of the fields are needed.
+ */
+
+public class VectorTileWriter
+{
+	public static final String LAYER_NAME = "heatmap";
+	public static final int EXTENT = 4096;
+
+	// How far, in tile pixels, the cells are drawn past the edge of each tile
+	private static final int BUFFER = 64;
+
+	// Number of reading classes, see ReadingClass
+	private static final int CLASSES = ReadingClass.NO_READING + 1;
+
+	// Geometry commands
+	private static final int MOVE_TO = 1;
+	private static final int LINE_TO = 2;
+	private static final int CLOSE_PATH = 7;
+	private static final int POLYGON = 3;
+
+	public static int write(Path directory, HeatmapGrid grid, byte[] classes, int minZoom, int maxZoom) throws IOException
+	// This method writes every tile the grid touches at each zoom level from minZoom to maxZoom, and
+	// returns the number of tiles written
+	{
+		if (classes.length != grid.size())
+		{
+			throw new IllegalArgumentException("Expected " + grid.size() + " cell classes but got " + classes.length);
+		}
+		if (minZoom < 0 || maxZoom < minZoom || maxZoom > 30)
+		{
+			throw new IllegalArgumentException("Zoom levels must be from 0 to 30, got " + minZoom + " to " + maxZoom);
+		}
+
+		int tiles = 0;
+		for (int zoom = minZoom; zoom <= maxZoom; zoom++)
+		{
+			int xFirst = (int) Math.floor(worldX(grid.west(), zoom));
+			int xLast = Math.min((int) Math.floor(worldX(grid.east(), zoom)), (1 << zoom) - 1);
+			int yFirst = (int) Math.floor(worldY(grid.north(), zoom));
+			int yLast = Math.min((int) Math.floor(worldY(grid.south(), zoom)), (1 << zoom) - 1);
+
+			for (int x = xFirst; x <= xLast; x++)
+			{
+				for (int y = yFirst; y <= yLast; y++)
+				{
+					byte[] tile = encodeTile(grid, classes, zoom, x, y);
+					if (tile == null)
+					{
+						continue;
+					}
+					Path file = directory.resolve(zoom + "/" + x + "/" + y + ".mvt");
+					Files.createDirectories(file.getParent());
+					Files.write(file, tile);
+					tiles++;
+				}
+			}
+		}
+		return tiles;
+	}
+
+	public static byte[] encodeTile(HeatmapGrid grid, byte[] classes, int zoom, int x, int y)
+	// This method returns the encoded tile (x, y) at the given zoom level, or null if none of the
+	// grid is drawn on it
+	{
+		int rows = grid.getRows();
+		int cols = grid.getCols();
+
+		// Pixel position of every grid line in this tile
+		var px = new int[cols + 1];
+		for (int col = 0; col <= cols; col++)
+		{
+			px[col] = (int) Math.round((worldX(grid.lon(col), zoom) - x) * EXTENT);
+		}
+		var py = new int[rows + 1];
+		for (int row = 0; row <= rows; row++)
+		{
+			py[row] = (int) Math.round((worldY(grid.lat(row), zoom) - y) * EXTENT);
+		}
+
+		// Only the columns that reach this tile need to be looked at
+		int firstCol = 0;
+		while (firstCol < cols && px[firstCol + 1] <= -BUFFER)
+		{
+			firstCol++;
+		}
+		int lastCol = cols;
+		while (lastCol > firstCol && px[lastCol - 1] >= EXTENT + BUFFER)
+		{
+			lastCol--;
+		}
+
+		var features = new ProtoBuffer();
+		int count = 0;
+		for (int row = 0; row < rows; row++)
+		{
+			int top = Math.max(py[row], -BUFFER);
+			int bottom = Math.min(py[row + 1], EXTENT + BUFFER);
+			if (top >= bottom)
+			{
+				continue;
+			}
+
+			int col = firstCol;
+			while (col < lastCol)
+			{
+				// Find the run of cells with the same class starting at this one
+				byte readingClass = classes[row * cols + col];
+				int end = col + 1;
+				while (end < lastCol && classes[row * cols + end] == readingClass)
+				{
+					end++;
+				}
+
+				int left = Math.max(px[col], -BUFFER);
+				int right = Math.min(px[end], EXTENT + BUFFER);
+				if (left < right)
+				{
+					features.writeBytes(2, rectangle(count++, readingClass, left, top, right, bottom));
+				}
+				col = end;
+			}
+		}
+		if (count == 0)
+		{
+			return null;
+		}
+
+		var layer = new ProtoBuffer();
+		layer.writeVarint(15, 2);
+		layer.writeString(1, LAYER_NAME);
+		layer.writeRaw(features);
+		layer.writeString(3, "class");
+		layer.writeString(3, "fill");
+		for (int c = 0; c < CLASSES; c++)
+		{
+			var number = new ProtoBuffer();
+			number.writeVarint(5, c);
+			layer.writeBytes(4, number);
+
+			var colour = new ProtoBuffer();
+			colour.writeString(1, ReadingClass.colour((byte) c));
+			layer.writeBytes(4, colour);
+		}
+		layer.writeVarint(5, EXTENT);
+
+		var tile = new ProtoBuffer();
+		tile.writeBytes(3, layer);
+		return tile.toByteArray();
+	}
+
+	private static ProtoBuffer rectangle(long id, byte readingClass, int left, int top, int right, int bottom)
+	// This method encodes a feature for a rectangle.  The corners go clockwise on screen, with y
+	// growing downwards, as the specification asks of outer rings
+	{
+		var tags = new ProtoBuffer();
+		tags.writeVarint(0);
+		tags.writeVarint(2 * readingClass);
+		tags.writeVarint(1);
+		tags.writeVarint(2 * readingClass + 1);
+
+		var geometry = new ProtoBuffer();
+		geometry.writeVarint(command(MOVE_TO, 1));
+		geometry.writeVarint(zigzag(left));
+		geometry.writeVarint(zigzag(top));
+		geometry.writeVarint(command(LINE_TO, 3));
+		geometry.writeVarint(zigzag(right - left));
+		geometry.writeVarint(zigzag(0));
+		geometry.writeVarint(zigzag(0));
+		geometry.writeVarint(zigzag(bottom - top));
+		geometry.writeVarint(zigzag(left - right));
+		geometry.writeVarint(zigzag(0));
+		geometry.writeVarint(command(CLOSE_PATH, 1));
+
+		var feature = new ProtoBuffer();
+		feature.writeVarint(1, id);
+		feature.writeBytes(2, tags);
+		feature.writeVarint(3, POLYGON);
+		feature.writeBytes(4, geometry);
+		return feature;
+	}
+
+	private static double worldX(double lon, int zoom)
+	// This method returns the longitude as a number of tiles east of the antimeridian
+	{
+		return (lon + 180) / 360 * (1 << zoom);
+	}
+
+	private static double worldY(double lat, int zoom)
+	// This method returns the latitude as a number of tiles south of the top of the Mercator map
+	{
+		double radians = Math.toRadians(lat);
+		return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2 * (1 << zoom);
+	}
+
+	private static int command(int id, int count)
+	{
+		return (id & 0x7) | (count << 3);
+	}
+
+	private static int zigzag(int value)
+	{
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static class ProtoBuffer extends ByteArrayOutputStream
+	// A message being encoded.  Nested messages are encoded into their own buffer first, so that
+	// their length is known when they are written into their parent
+	{
+		void writeVarint(long value)
+		{
+			while ((value & ~0x7fL) != 0)
+			{
+				write((int) (value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		void writeVarint(int field, long value)
+		{
+			writeVarint(field << 3);
+			writeVarint(value);
+		}
+
+		void writeBytes(int field, ProtoBuffer message)
+		{
+			writeVarint(field << 3 | 2);
+			writeVarint(message.size());
+			writeRaw(message);
+		}
+
+		void writeString(int field, String value)
+		{
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarint(field << 3 | 2);
+			writeVarint(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+
+		void writeRaw(ProtoBuffer message)
+		{
+			write(message.buf, 0, message.size());
+		}
+	}
+}
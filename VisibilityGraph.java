@@ -0,0 +1,274 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+public class VisibilityGraph
+/**
+ * This class is used to find the length of the shortest path between two points that does not
+ * cross a 'No Fly Zone'. The nodes of the graph are the corners of the buildings, pushed slightly
+ * outwards so that a path can run around a corner without touching it, and two nodes are joined
+ * whenever the straight line between them is clear.
+ *
+ * The graph only depends on the 'No Fly Zones', so it is built once per MapContext and shared.
+ */
+{
+	// How far each corner is pushed away from its building, in degrees
+	private static final double CLEARANCE = 0.00002;
+
+	// Define attributes
+	private final NoFlyZoneIndex nfz;
+	private final double[] nodeLng;
+	private final double[] nodeLat;
+	private final int[][] neighbours;
+	private final double[][] weights;
+
+	// Constructor
+	public VisibilityGraph(FeatureCollection zones, NoFlyZoneIndex nfz)
+	{
+		this.nfz = nfz;
+
+		var rings = new ArrayList<List<Point>>();
+		for(Feature f : zones.features())
+		{
+			rings.add(((Polygon) f.geometry()).coordinates().get(0));
+		}
+
+		// Place a node just outside every corner that is still within the flying zone
+		var lngs = new ArrayList<Double>();
+		var lats = new ArrayList<Double>();
+		for(List<Point> ring : rings)
+		{
+			int corners = ring.size() - 1;
+			for(int i = 0; i < corners; i++)
+			{
+				Point prev = ring.get((i + corners - 1) % corners);
+				Point v = ring.get(i);
+				Point next = ring.get(i + 1);
+
+				double[] offset = offsetCorner(prev, v, next, ring);
+				if(MapContext.insideBoundary(offset[0], offset[1]) && !insideAny(offset[0], offset[1], rings))
+				{
+					lngs.add(offset[0]);
+					lats.add(offset[1]);
+				}
+			}
+		}
+
+		int size = lngs.size();
+		this.nodeLng = new double[size];
+		this.nodeLat = new double[size];
+		for(int i = 0; i < size; i++)
+		{
+			nodeLng[i] = lngs.get(i);
+			nodeLat[i] = lats.get(i);
+		}
+
+		// Join every pair of nodes that can see each other
+		var adjacency = new ArrayList<List<Integer>>();
+		for(int i = 0; i < size; i++)
+		{
+			adjacency.add(new ArrayList<Integer>());
+		}
+		for(int i = 0; i < size; i++)
+		{
+			for(int j = i + 1; j < size; j++)
+			{
+				if(!nfz.intersects(nodeLng[i], nodeLat[i], nodeLng[j], nodeLat[j]))
+				{
+					adjacency.get(i).add(j);
+					adjacency.get(j).add(i);
+				}
+			}
+		}
+
+		this.neighbours = new int[size][];
+		this.weights = new double[size][];
+		for(int i = 0; i < size; i++)
+		{
+			var list = adjacency.get(i);
+			neighbours[i] = new int[list.size()];
+			weights[i] = new double[list.size()];
+			for(int k = 0; k < list.size(); k++)
+			{
+				int j = list.get(k);
+				neighbours[i][k] = j;
+				weights[i][k] = Math.hypot(nodeLng[i] - nodeLng[j], nodeLat[i] - nodeLat[j]);
+			}
+		}
+	}
+
+	public double[][] distanceMatrix(List<Point> points)
+	/**
+	 * This method returns the obstacle-avoiding distance between every pair of the given points.
+	 * One shortest path search is run from each point, and the searches are run in parallel.
+	 * Points that cannot reach each other (for example because one is inside a building) fall
+	 * back to their straight-line distance.
+	 */
+	{
+		int terminals = points.size();
+		int nodes = nodeLng.length;
+
+		double[] lng = new double[terminals];
+		double[] lat = new double[terminals];
+		for(int t = 0; t < terminals; t++)
+		{
+			lng[t] = points.get(t).longitude();
+			lat[t] = points.get(t).latitude();
+		}
+
+		// Work out which nodes and which other points each point can see directly
+		boolean[][] seesNode = new boolean[terminals][nodes];
+		boolean[][] seesTerminal = new boolean[terminals][terminals];
+		IntStream.range(0, terminals).parallel().forEach(t -> {
+			for(int v = 0; v < nodes; v++)
+			{
+				seesNode[t][v] = !nfz.intersects(lng[t], lat[t], nodeLng[v], nodeLat[v]);
+			}
+			for(int u = t + 1; u < terminals; u++)
+			{
+				seesTerminal[t][u] = !nfz.intersects(lng[t], lat[t], lng[u], lat[u]);
+			}
+		});
+
+		double[][] dist = new double[terminals][terminals];
+		IntStream.range(0, terminals).parallel().forEach(t -> {
+			double[] toNode = shortestToNodes(lng[t], lat[t], seesNode[t]);
+			for(int u = 0; u < terminals; u++)
+			{
+				if(u == t) continue;
+
+				boolean direct = t < u ? seesTerminal[t][u] : seesTerminal[u][t];
+				double straight = Math.hypot(lng[t] - lng[u], lat[t] - lat[u]);
+				if(direct)
+				{
+					dist[t][u] = straight;
+					continue;
+				}
+
+				// Otherwise the path must leave the graph at a node the other point can see
+				double best = Double.POSITIVE_INFINITY;
+				for(int v = 0; v < nodes; v++)
+				{
+					if(seesNode[u][v] && toNode[v] < Double.POSITIVE_INFINITY)
+					{
+						best = Math.min(best, toNode[v] + Math.hypot(nodeLng[v] - lng[u], nodeLat[v] - lat[u]));
+					}
+				}
+				dist[t][u] = best < Double.POSITIVE_INFINITY ? best : straight;
+			}
+		});
+
+		return dist;
+	}
+
+	public int getNodeCount()
+	{
+		return nodeLng.length;
+	}
+
+	private double[] shortestToNodes(double lng, double lat, boolean[] visible)
+	/**
+	 * This method runs Dijkstra's algorithm from a point over the graph and returns the length
+	 * of the shortest path to every node. The graph is small and dense, so a simple array scan
+	 * is used instead of a priority queue.
+	 */
+	{
+		int nodes = nodeLng.length;
+		double[] dist = new double[nodes];
+		boolean[] done = new boolean[nodes];
+
+		for(int v = 0; v < nodes; v++)
+		{
+			dist[v] = visible[v] ? Math.hypot(nodeLng[v] - lng, nodeLat[v] - lat) : Double.POSITIVE_INFINITY;
+		}
+
+		for(int step = 0; step < nodes; step++)
+		{
+			int closest = -1;
+			for(int v = 0; v < nodes; v++)
+			{
+				if(!done[v] && dist[v] < Double.POSITIVE_INFINITY && (closest == -1 || dist[v] < dist[closest]))
+				{
+					closest = v;
+				}
+			}
+			if(closest == -1) break;
+			done[closest] = true;
+
+			for(int k = 0; k < neighbours[closest].length; k++)
+			{
+				int v = neighbours[closest][k];
+				double through = dist[closest] + weights[closest][k];
+				if(through < dist[v]) dist[v] = through;
+			}
+		}
+		return dist;
+	}
+
+	private static double[] offsetCorner(Point prev, Point v, Point next, List<Point> ring)
+	/**
+	 * This method returns a point just outside the corner v, along the line bisecting the
+	 * corner. For a concave corner the bisector points into the building, so the opposite
+	 * direction is used instead.
+	 */
+	{
+		double ax = v.longitude() - prev.longitude(), ay = v.latitude() - prev.latitude();
+		double bx = v.longitude() - next.longitude(), by = v.latitude() - next.latitude();
+		double aLen = Math.hypot(ax, ay), bLen = Math.hypot(bx, by);
+
+		double dx = (aLen > 0 ? ax / aLen : 0) + (bLen > 0 ? bx / bLen : 0);
+		double dy = (aLen > 0 ? ay / aLen : 0) + (bLen > 0 ? by / bLen : 0);
+		double len = Math.hypot(dx, dy);
+		if(len == 0)
+		{
+			// A straight edge, so step out perpendicular to it
+			dx = -ay;
+			dy = ax;
+			len = Math.hypot(dx, dy);
+		}
+		dx = dx / len * CLEARANCE;
+		dy = dy / len * CLEARANCE;
+
+		double lng = v.longitude() + dx, lat = v.latitude() + dy;
+		if(inside(lng, lat, ring))
+		{
+			lng = v.longitude() - dx;
+			lat = v.latitude() - dy;
+		}
+		return new double[] { lng, lat };
+	}
+
+	private static boolean insideAny(double lng, double lat, List<List<Point>> rings)
+	{
+		for(List<Point> ring : rings)
+		{
+			if(inside(lng, lat, ring)) return true;
+		}
+		return false;
+	}
+
+	private static boolean inside(double lng, double lat, List<Point> ring)
+	/**
+	 * This method uses ray casting to determine whether a point lies inside a polygon.
+	 */
+	{
+		boolean inside = false;
+		for(int i = 0, j = ring.size() - 1; i < ring.size(); j = i++)
+		{
+			double xi = ring.get(i).longitude(), yi = ring.get(i).latitude();
+			double xj = ring.get(j).longitude(), yj = ring.get(j).latitude();
+			if((yi > lat) != (yj > lat) && lng < (xj - xi) * (lat - yi) / (yj - yi) + xi)
+			{
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+}
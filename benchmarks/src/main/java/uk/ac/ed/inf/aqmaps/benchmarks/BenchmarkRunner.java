@@ -0,0 +1,29 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner
+/**
+ * This class runs the benchmarks with the GC profiler always attached, so that every result
+ * comes with its allocation rate (gc.alloc.rate.norm is the bytes allocated per operation).
+ * Any of the usual JMH command line options can be given, for example a regular expression
+ * to run only some of the benchmarks:
+ *
+ *   java -jar target/benchmarks.jar GeometryBenchmark -rf json -rff results.json
+ */
+{
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException
+	{
+		var options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,105 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.ed.inf.aqmaps.Controller;
+import uk.ac.ed.inf.aqmaps.MapContext;
+import uk.ac.ed.inf.heatmap.App;
+import uk.ac.ed.inf.heatmap.HeatmapGrid;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportBenchmark
+/**
+ * Benchmarks for writing the program's output files: the flightpath log, the readings map
+ * and the heatmap. The drone's files are written to a temporary directory; App always writes
+ * 'heatmap.geojson' to the working directory.
+ */
+{
+	@Param({ "10", "100" })
+	public int heatmapSize;
+
+	private Path outputDirectory;
+	private MapContext context;
+	private Controller flown;
+	private HeatmapGrid grid;
+	private ArrayList<String> heatmapColours;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		outputDirectory = Files.createTempDirectory("aqmaps-bench");
+
+		// Fly the fixture map once so there is a full set of readings and a flightpath to write
+		context = Fixtures.context();
+		flown = new Controller(Fixtures.DATE, Fixtures.START, Fixtures.SEED, context);
+		flown.setSensors(Fixtures.sensors());
+		flown.setOutputDirectory(outputDirectory);
+		flown.orderSensors();
+		flown.droneFlight();
+		flown.hexCodeConversion();
+
+		var rand = new Random(Fixtures.SEED);
+		grid = HeatmapGrid.droneZone(heatmapSize, heatmapSize);
+		int[] predictions = new int[grid.size()];
+		for(int i = 0; i < predictions.length; i++)
+		{
+			predictions[i] = rand.nextInt(256);
+		}
+		heatmapColours = App.hexCodeConversion(predictions);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		try(Stream<Path> files = Files.walk(outputDirectory))
+		{
+			for(Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+			{
+				Files.delete(p);
+			}
+		}
+	}
+
+	@Benchmark
+	public void controllerLogToFile() throws IOException
+	{
+		flown.logToFile();
+	}
+
+	@Benchmark
+	public void controllerGeojsonConvert() throws IOException
+	{
+		flown.geojsonConvert();
+	}
+
+	@Benchmark
+	public void appGeojsonConvert() throws IOException
+	{
+		App.geojsonConvert(grid, heatmapColours, false);
+	}
+}
@@ -0,0 +1,134 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.MapContext;
+import uk.ac.ed.inf.aqmaps.Sensor;
+
+public final class Fixtures
+/**
+ * This class loads the benchmark fixtures from disk, so that no benchmark needs the webserver.
+ * The fixture directory has the same layout as the webserver: 'buildings/no-fly-zones.geojson',
+ * 'maps/YYYY/MM/DD/air-quality-data.json' and 'words/a/b/c/details.json'.
+ */
+{
+	// The day the fixture map was recorded for, as given to Controller
+	public static final String[] DATE = { "01", "01", "2020" };
+	public static final Point START = Point.fromLngLat(-3.1878, 55.9446);
+	public static final long SEED = 5678;
+
+	private static final Gson GSON = new Gson();
+
+	private Fixtures()
+	{
+	}
+
+	public static Path directory()
+	/**
+	 * This method returns the fixture directory, which can be changed with -Dfixtures.dir.
+	 */
+	{
+		return Path.of(System.getProperty("fixtures.dir", "../fixtures"));
+	}
+
+	public static FeatureCollection noFlyZones()
+	{
+		return FeatureCollection.fromJson(read(directory().resolve("buildings/no-fly-zones.geojson")));
+	}
+
+	public static MapContext context()
+	{
+		return new MapContext(null, noFlyZones());
+	}
+
+	public static List<Sensor> sensors()
+	/**
+	 * This method returns the fixture day's sensors with their coordinates already resolved.
+	 */
+	{
+		Path day = directory().resolve("maps").resolve(DATE[2]).resolve(DATE[1]).resolve(DATE[0]);
+		List<Sensor> sensors = GSON.fromJson(read(day.resolve("air-quality-data.json")), new TypeToken<ArrayList<Sensor>>() {}.getType());
+
+		for(Sensor s : sensors)
+		{
+			String[] words = s.getLocation().split("\\.");
+			Path details = directory().resolve("words").resolve(words[0]).resolve(words[1]).resolve(words[2]).resolve("details.json");
+			var coordinates = JsonParser.parseString(read(details)).getAsJsonObject().getAsJsonObject("coordinates");
+			s.setCoordinates(Point.fromLngLat(coordinates.get("lng").getAsDouble(), coordinates.get("lat").getAsDouble()));
+		}
+		return sensors;
+	}
+
+	public static List<Sensor> sensors(int count, long seed)
+	/**
+	 * This method returns the given number of sensors for larger benchmarks: the fixture sensors
+	 * first, followed by copies of them scattered at random over the flying zone.
+	 */
+	{
+		var fixture = sensors();
+		var sensors = new ArrayList<Sensor>(count);
+		var rand = new Random(seed);
+
+		for(int i = 0; i < count; i++)
+		{
+			if(i < fixture.size())
+			{
+				sensors.add(fixture.get(i));
+				continue;
+			}
+			Sensor template = fixture.get(rand.nextInt(fixture.size()));
+			var s = new Sensor();
+			s.setLocation(template.getLocation());
+			s.setBattery(template.getBattery());
+			s.setReading(template.getReading());
+			s.setCoordinates(Point.fromLngLat(
+					MapContext.MIN_LNG_BOUNDARY + rand.nextDouble() * (MapContext.MAX_LNG_BOUNDARY - MapContext.MIN_LNG_BOUNDARY),
+					MapContext.MIN_LAT_BOUNDARY + rand.nextDouble() * (MapContext.MAX_LAT_BOUNDARY - MapContext.MIN_LAT_BOUNDARY)));
+			sensors.add(s);
+		}
+		return sensors;
+	}
+
+	public static Point[] randomPoints(int count, long seed)
+	/**
+	 * This method returns points scattered at random over a slightly larger area than the
+	 * flying zone, so that boundary checks see both answers.
+	 */
+	{
+		var rand = new Random(seed);
+		double lngRange = MapContext.MAX_LNG_BOUNDARY - MapContext.MIN_LNG_BOUNDARY;
+		double latRange = MapContext.MAX_LAT_BOUNDARY - MapContext.MIN_LAT_BOUNDARY;
+
+		var points = new Point[count];
+		for(int i = 0; i < count; i++)
+		{
+			points[i] = Point.fromLngLat(MapContext.MIN_LNG_BOUNDARY - 0.1 * lngRange + rand.nextDouble() * 1.2 * lngRange,
+										 MapContext.MIN_LAT_BOUNDARY - 0.1 * latRange + rand.nextDouble() * 1.2 * latRange);
+		}
+		return points;
+	}
+
+	private static String read(Path file)
+	{
+		try
+		{
+			return Files.readString(file);
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.ed.inf.aqmaps.Controller;
+import uk.ac.ed.inf.aqmaps.CsvFlightLog;
+import uk.ac.ed.inf.aqmaps.FlightMode;
+import uk.ac.ed.inf.aqmaps.FlightSimulator;
+import uk.ac.ed.inf.aqmaps.MapContext;
+import uk.ac.ed.inf.aqmaps.Sensor;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlightBenchmark
+/**
+ * Benchmarks a whole flight over the fixture map, from the ordered sensors to the last move.
+ * The moves are formatted as usual but written to a log that discards them, so disk speed
+ * does not affect the result. The simulation alone, without logging or readings, is measured
+ * separately, as that is what a seed sweep runs once per seed.
+ */
+{
+	@Param({ "REACTIVE", "LATTICE" })
+	public FlightMode flightMode;
+
+	private MapContext context;
+	private List<Sensor> sensors;
+	private Controller controller;
+	private FlightSimulator simulator;
+
+	@Setup(Level.Trial)
+	public void loadFixtures()
+	{
+		context = Fixtures.context();
+		sensors = Fixtures.sensors();
+	}
+
+	@Setup(Level.Invocation)
+	public void newController() throws Exception
+	{
+		controller = new Controller(Fixtures.DATE, Fixtures.START, Fixtures.SEED, context);
+		controller.setSensors(sensors);
+		controller.setFlightMode(flightMode);
+		controller.setFlightLog(new CsvFlightLog(Channels.newChannel(OutputStream.nullOutputStream())));
+		controller.orderSensors();
+		simulator = controller.flightSimulator();
+	}
+
+	@Benchmark
+	public int droneFlight() throws Exception
+	{
+		controller.droneFlight();
+		controller.logToFile();
+		return controller.getMoves();
+	}
+
+	@Benchmark
+	public int simulate()
+	{
+		return simulator.simulate(new Random(Fixtures.SEED)).getMoves();
+	}
+}
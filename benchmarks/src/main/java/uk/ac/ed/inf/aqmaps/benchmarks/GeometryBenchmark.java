@@ -0,0 +1,119 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.Controller;
+import uk.ac.ed.inf.aqmaps.LegalMoveLattice;
+import uk.ac.ed.inf.aqmaps.NoFlyZoneIndex;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark
+/**
+ * Benchmarks for the checks made on every candidate move of the drone. Each invocation runs
+ * over the same batch of moves, so the times reported are per move. The legal move lattice
+ * answers for both the 'No Fly Zones' and the boundary at once.
+ */
+{
+	private static final int BATCH = 1024;
+
+	private FeatureCollection nfz;
+	private NoFlyZoneIndex nfzIndex;
+	private LegalMoveLattice legalMoves;
+	private Controller controller;
+	private Point[] from;
+	private Point[] to;
+	private int[] angles;
+
+	@Setup
+	public void setup()
+	{
+		nfz = Fixtures.noFlyZones();
+		nfzIndex = new NoFlyZoneIndex(nfz);
+		legalMoves = LegalMoveLattice.build(nfz, nfzIndex);
+		controller = new Controller(Fixtures.DATE, Fixtures.START, Fixtures.SEED, Fixtures.context());
+
+		// Moves of the drone's usual length in random directions from random points
+		from = Fixtures.randomPoints(BATCH, 1);
+		to = new Point[BATCH];
+		angles = new int[BATCH];
+		var rand = new Random(2);
+		for(int i = 0; i < BATCH; i++)
+		{
+			angles[i] = 10 * rand.nextInt(36);
+			double angle = Math.toRadians(angles[i]);
+			to[i] = Point.fromLngLat(from[i].longitude() + 0.0003 * Math.cos(angle), from[i].latitude() + 0.0003 * Math.sin(angle));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void lineIntersectPolygon(Blackhole bh)
+	{
+		for(int i = 0; i < BATCH; i++)
+		{
+			bh.consume(Controller.lineIntersectPolygon(from[i], to[i], nfz));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void lineIntersectPolygonIndexed(Blackhole bh)
+	{
+		for(int i = 0; i < BATCH; i++)
+		{
+			bh.consume(Controller.lineIntersectPolygon(from[i], to[i], nfzIndex));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void legalMoveLattice(Blackhole bh)
+	{
+		for(int i = 0; i < BATCH; i++)
+		{
+			bh.consume(legalMoves.isLegal(from[i], angles[i], to[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void insideBoundary(Blackhole bh)
+	{
+		for(int i = 0; i < BATCH; i++)
+		{
+			bh.consume(Controller.insideBoundary(to[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void euclidDist(Blackhole bh)
+	{
+		for(int i = 0; i < BATCH; i++)
+		{
+			bh.consume(controller.euclidDist(from[i], to[i]));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.ed.inf.aqmaps.Controller;
+import uk.ac.ed.inf.aqmaps.MapContext;
+import uk.ac.ed.inf.aqmaps.Sensor;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderingBenchmark
+/**
+ * Benchmarks for Controller.orderSensors. The fixture day has 33 sensors; the larger sizes
+ * show how the greedy search scales.
+ */
+{
+	@Param({ "33", "1000", "10000" })
+	public int sensorCount;
+
+	private MapContext context;
+	private List<Sensor> sensors;
+	private Controller controller;
+
+	@Setup(Level.Trial)
+	public void loadFixtures()
+	{
+		context = Fixtures.context();
+		sensors = Fixtures.sensors(sensorCount, Fixtures.SEED);
+	}
+
+	@Setup(Level.Invocation)
+	public void newController()
+	{
+		// orderSensors replaces the controller's sensor list, so every call needs a fresh one
+		controller = new Controller(Fixtures.DATE, Fixtures.START, Fixtures.SEED, context);
+		controller.setSensors(sensors);
+	}
+
+	@Benchmark
+	public List<Sensor> orderSensors() throws Exception
+	{
+		controller.orderSensors();
+		return controller.getSensors();
+	}
+}